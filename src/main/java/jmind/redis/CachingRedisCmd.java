@@ -0,0 +1,607 @@
+package jmind.redis;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+import jmind.redis.out.SortArgs;
+import jmind.redis.pubsub.RedisPubSub;
+import jmind.redis.pubsub.RedisPubSubAdapter;
+
+/**
+ * A {@link RedisCmd} with a bounded local cache in front of {@link #get},
+ * {@link #hget} and {@link #hgetall}, meant for read-mostly keys.
+ *
+ * On a miss the value and the PTTL of its key are fetched together. The entry
+ * lives as long as the key does, but never longer than the configured maximum
+ * TTL. Entries are evicted in insertion order once their total weight exceeds
+ * the limit. By default every cached value weighs 1.
+ *
+ * Writes made through this client invalidate the key locally, except those
+ * queued on a {@link #batch()}, which go straight to the shards: invalidate
+ * the keys written by a batch with {@link #invalidate(Object)}, or rely on
+ * notifications. Writes made elsewhere are picked up from either source,
+ * registered with {@link #listenKeyspace} or {@link #listenInvalidations}:
+ * <ul>
+ * <li>keyspace notifications. These require <code>notify-keyspace-events</code>
+ * to include <code>K</code> and the classes of the cached keys, and one
+ * pub/sub connection per shard, see
+ * {@link RedisBootstrap#connectPubSubPerShard()}.</li>
+ * <li>an invalidation channel that writers {@link RedisCmd#publish} key names
+ * to.</li>
+ * </ul>
+ * The cache is cleared whenever the subscription is (re)established, because
+ * notifications sent while the pub/sub connection was down are lost.
+ *
+ * Keys are identified by {@link Object#toString()}, as for sharding.
+ *
+ * @param <K> Key type.
+ * @param <V> Value type.
+ *
+ * @author wbxie
+ */
+public class CachingRedisCmd<K, V> extends RedisCmd<K, V> {
+    private static final Object NULL = new Object();
+    private static final int STRIPES = 1024;
+
+    private final RedisCmd<K, V> target;
+    private final long maxWeight;
+    private final long maxTtl;
+    private Weigher<K, V> weigher = new Weigher<K, V>() {
+        @Override
+        public int weigh(K key, V value) {
+            return 1;
+        }
+    };
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private final ConcurrentLinkedQueue<Entry> order = new ConcurrentLinkedQueue<Entry>();
+    private final AtomicInteger ordered = new AtomicInteger();
+    private final AtomicLong weight = new AtomicLong();
+    private final AtomicLongArray epochs = new AtomicLongArray(STRIPES);
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Put a near cache in front of a client.
+     *
+     * @param target    Client whose routing is used.
+     * @param maxWeight Maximum total weight of cached values.
+     * @param maxTtl    Maximum time an entry is served without invalidation.
+     * @param unit      Unit of time for the TTL.
+     */
+    public CachingRedisCmd(RedisCmd<K, V> target, long maxWeight, long maxTtl, TimeUnit unit) {
+        super(target.shards);
+        this.target = target;
+        this.maxWeight = maxWeight;
+        this.maxTtl = unit.toNanos(maxTtl);
+    }
+
+    @Override
+    public RedisHandler<K, V> getShard(K key) {
+        return target.getShard(key);
+    }
+
+    @Override
+    protected List<RedisHandler<K, V>> getShards() {
+        return target.getShards();
+    }
+
+    /**
+     * Set how much each cached value counts against the maximum weight. A hash
+     * weighs the sum of its cached fields.
+     *
+     * @param weigher Weigher of cached values.
+     */
+    public void setWeigher(Weigher<K, V> weigher) {
+        this.weigher = weigher;
+    }
+
+    /**
+     * Invalidate keys on keyspace notifications of one server.
+     *
+     * @param pubsub    Pub/sub connection to the server.
+     * @param db        Database the cached keys live in.
+     */
+    public void listenKeyspace(RedisPubSub<String, String> pubsub, int db) {
+        final String pattern = "__keyspace@" + db + "__:*";
+        final int prefix = pattern.length() - 1;
+        pubsub.addListener(new RedisPubSubAdapter<String, String>() {
+            @Override
+            public void message(String p, String channel, String message) {
+                if (pattern.equals(p)) {
+                    invalidate(channel.substring(prefix));
+                }
+            }
+
+            @Override
+            public void psubscribed(String p, long count) {
+                if (pattern.equals(p)) {
+                    clear();
+                }
+            }
+        });
+        pubsub.psubscribe(pattern);
+    }
+
+    /**
+     * Invalidate the keys whose names are published on a channel.
+     *
+     * @param pubsub    Pub/sub connection writers publish to.
+     * @param channel   Invalidation channel.
+     */
+    public void listenInvalidations(RedisPubSub<String, String> pubsub, final String channel) {
+        pubsub.addListener(new RedisPubSubAdapter<String, String>() {
+            @Override
+            public void message(String c, String message) {
+                if (channel.equals(c)) {
+                    invalidate(message);
+                }
+            }
+
+            @Override
+            public void subscribed(String c, long count) {
+                if (channel.equals(c)) {
+                    clear();
+                }
+            }
+        });
+        pubsub.subscribe(channel);
+    }
+
+    /**
+     * Drop the cached value of a key.
+     *
+     * @param key Key.
+     */
+    public void invalidate(K key) {
+        invalidate(key.toString());
+    }
+
+    /**
+     * Drop every cached value.
+     */
+    public void clear() {
+        for (int i = 0; i < STRIPES; i++) {
+            epochs.incrementAndGet(i);
+        }
+        for (Entry entry : entries.values()) {
+            remove(entry);
+        }
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long weight() {
+        return weight.get();
+    }
+
+    /*******************cached reads*********************************/
+    @Override
+    @SuppressWarnings("unchecked")
+    public Future<V> get(K key) {
+        final String name = key.toString();
+        Entry entry = lookup(name);
+        if (entry != null && !entry.hash) {
+            hits.increment();
+            return completed((V) (entry.value == NULL ? null : entry.value));
+        }
+
+        misses.increment();
+        final long epoch = epochs.get(stripe(name));
+        RedisHandler<K, V> shard = getShard(key);
+        final Future<V> value = shard.get(key);
+        final Future<Long> pttl = shard.pttl(key);
+        fill(value, pttl, new BiConsumer<V, Long>() {
+            @Override
+            public void accept(V v, Long ttl) {
+                if (ttl == 0 || (ttl == -2 ? v != null : v == null))
+                    return;
+                put(name, epoch, new Entry(name, v == null ? NULL : v, false, false, weigher.weigh(null, v),
+                        expiry(ttl)));
+            }
+        });
+        return value;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Future<V> hget(K key, final K field) {
+        final String name = key.toString();
+        Entry entry = lookup(name);
+        if (entry != null && entry.hash) {
+            Object v = ((Map<K, Object>) entry.value).get(field);
+            if (v != null || entry.complete) {
+                hits.increment();
+                return completed((V) (v == NULL ? null : v));
+            }
+        }
+
+        misses.increment();
+        final long epoch = epochs.get(stripe(name));
+        RedisHandler<K, V> shard = getShard(key);
+        final Future<V> value = shard.hget(key, field);
+        final Future<Long> pttl = shard.pttl(key);
+        fill(value, pttl, new BiConsumer<V, Long>() {
+            @Override
+            public void accept(V v, Long ttl) {
+                if (ttl == 0 || ttl == -2 && v != null)
+                    return;
+                putField(name, epoch, field, v, expiry(ttl));
+            }
+        });
+        return value;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Future<Map<K, V>> hgetall(K key) {
+        final String name = key.toString();
+        Entry entry = lookup(name);
+        if (entry != null && entry.complete) {
+            hits.increment();
+            return completed((Map<K, V>) entry.value);
+        }
+
+        misses.increment();
+        final long epoch = epochs.get(stripe(name));
+        RedisHandler<K, V> shard = getShard(key);
+        final Future<Map<K, V>> value = shard.hgetall(key);
+        final Future<Long> pttl = shard.pttl(key);
+        fill(value, pttl, new BiConsumer<Map<K, V>, Long>() {
+            @Override
+            public void accept(Map<K, V> map, Long ttl) {
+                if (ttl == 0 || (ttl == -2 ? !map.isEmpty() : map.isEmpty()))
+                    return;
+                int w = 0;
+                for (Map.Entry<K, V> e : map.entrySet()) {
+                    w += weigher.weigh(e.getKey(), e.getValue());
+                }
+                Map<K, V> copy = Collections.unmodifiableMap(new HashMap<K, V>(map));
+                put(name, epoch, new Entry(name, copy, true, true, Math.max(w, 1), expiry(ttl)));
+            }
+        });
+        return value;
+    }
+
+    /*******************invalidating writes*********************************/
+    @Override
+    public MultiShardFuture<K, V, Long> delAsync(K... keys) {
+        MultiShardFuture<K, V, Long> future = super.delAsync(keys);
+        for (K key : keys) {
+            invalidate(key);
+        }
+        return future;
+    }
+
+    @Override
+    public Future<Boolean> move(K key, int db) {
+        return written(key, super.move(key, db));
+    }
+
+    @Override
+    public Future<Long> sortStore(K key, SortArgs sortArgs, K destination) {
+        return written(destination, super.sortStore(key, sortArgs, destination));
+    }
+
+    @Override
+    public Future<Boolean> expire(K key, int seconds) {
+        return written(key, super.expire(key, seconds));
+    }
+
+    @Override
+    public Future<Boolean> expireat(K key, long timestamp) {
+        return written(key, super.expireat(key, timestamp));
+    }
+
+    @Override
+    public Future<Boolean> persist(K key) {
+        return written(key, super.persist(key));
+    }
+
+    @Override
+    public Future<Boolean> pexpire(K key, long milliseconds) {
+        return written(key, super.pexpire(key, milliseconds));
+    }
+
+    @Override
+    public Future<Boolean> pexpireat(K key, long timestamp) {
+        return written(key, super.pexpireat(key, timestamp));
+    }
+
+    @Override
+    public Future<String> set(K key, V value) {
+        return written(key, super.set(key, value));
+    }
+
+    @Override
+    public Future<String> setex(K key, long seconds, V value) {
+        return written(key, super.setex(key, seconds, value));
+    }
+
+    @Override
+    public Future<Long> setnx(K key, V value) {
+        return written(key, super.setnx(key, value));
+    }
+
+    @Override
+    public Future<Long> setrange(K key, long offset, V value) {
+        return written(key, super.setrange(key, offset, value));
+    }
+
+    @Override
+    public Future<Long> append(K key, V value) {
+        return written(key, super.append(key, value));
+    }
+
+    @Override
+    public MultiShardFuture<K, V, String> mset(Map<K, V> map) {
+        MultiShardFuture<K, V, String> future = super.mset(map);
+        for (K key : map.keySet()) {
+            invalidate(key);
+        }
+        return future;
+    }
+
+    @Override
+    public MultiShardFuture<K, V, Boolean> msetnx(Map<K, V> map) {
+        MultiShardFuture<K, V, Boolean> future = super.msetnx(map);
+        for (K key : map.keySet()) {
+            invalidate(key);
+        }
+        return future;
+    }
+
+    @Override
+    public Future<V> getset(K key, V value) {
+        return written(key, super.getset(key, value));
+    }
+
+    @Override
+    public Future<Long> decr(K key) {
+        return written(key, super.decr(key));
+    }
+
+    @Override
+    public Future<Long> decrby(K key, long amount) {
+        return written(key, super.decrby(key, amount));
+    }
+
+    @Override
+    public Future<Long> incr(K key) {
+        return written(key, super.incr(key));
+    }
+
+    @Override
+    public Future<Long> incrby(K key, long amount) {
+        return written(key, super.incrby(key, amount));
+    }
+
+    @Override
+    public Future<Double> incrbyfloat(K key, double amount) {
+        return written(key, super.incrbyfloat(key, amount));
+    }
+
+    @Override
+    public Future<Long> setbit(K key, long offset, int value) {
+        return written(key, super.setbit(key, offset, value));
+    }
+
+    @Override
+    public Future<Long> hdel(K key, K... fields) {
+        return written(key, super.hdel(key, fields));
+    }
+
+    @Override
+    public Future<Long> hincrby(K key, K field, long amount) {
+        return written(key, super.hincrby(key, field, amount));
+    }
+
+    @Override
+    public Future<Double> hincrbyfloat(K key, K field, double amount) {
+        return written(key, super.hincrbyfloat(key, field, amount));
+    }
+
+    @Override
+    public Future<String> hmset(K key, Map<K, V> map) {
+        return written(key, super.hmset(key, map));
+    }
+
+    @Override
+    public Future<Long> hset(K key, K field, V value) {
+        return written(key, super.hset(key, field, value));
+    }
+
+    @Override
+    public Future<Long> hsetnx(K key, K field, V value) {
+        return written(key, super.hsetnx(key, field, value));
+    }
+
+    /**
+     * Invalidate a key after its write was dispatched. Reads dispatched later
+     * on the same connection see the write, and reads already in flight are
+     * discarded by the epoch check.
+     */
+    private <T> Future<T> written(K key, Future<T> future) {
+        invalidate(key);
+        return future;
+    }
+
+    private void invalidate(String name) {
+        epochs.incrementAndGet(stripe(name));
+        Entry entry = entries.remove(name);
+        if (entry != null) {
+            weight.addAndGet(-entry.weight);
+        }
+    }
+
+    private Entry lookup(String name) {
+        Entry entry = entries.get(name);
+        if (entry != null && entry.expiresAt - System.nanoTime() < 0) {
+            remove(entry);
+            return null;
+        }
+        return entry;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void putField(String name, long epoch, K field, V value, long expiresAt) {
+        int w = weigher.weigh(field, value);
+        while (true) {
+            Entry current = entries.get(name);
+            Map<K, Object> fields;
+            int total = w;
+            long expires = expiresAt;
+            if (current == null) {
+                fields = new HashMap<K, Object>();
+            } else if (current.hash && !current.complete) {
+                fields = new HashMap<K, Object>((Map<K, Object>) current.value);
+                if (fields.containsKey(field))
+                    return;
+                total += current.weight;
+                expires = Math.min(expires, current.expiresAt);
+            } else {
+                return;
+            }
+            fields.put(field, value == null ? NULL : value);
+
+            Entry entry = new Entry(name, fields, true, false, total, expires);
+            if (current == null ? entries.putIfAbsent(name, entry) == null : entries.replace(name, current, entry)) {
+                added(epoch, current, entry);
+                return;
+            }
+        }
+    }
+
+    private void put(String name, long epoch, Entry entry) {
+        Entry current = entries.put(name, entry);
+        added(epoch, current, entry);
+    }
+
+    private void added(long epoch, Entry replaced, Entry entry) {
+        weight.addAndGet(entry.weight - (replaced != null ? replaced.weight : 0));
+        if (epochs.get(stripe(entry.name)) != epoch) {
+            remove(entry);
+            return;
+        }
+
+        order.offer(entry);
+        if (ordered.incrementAndGet() > 2 * entries.size() + 16) {
+            purge();
+        }
+        while (weight.get() > maxWeight) {
+            Entry eldest = order.poll();
+            if (eldest == null)
+                break;
+            ordered.decrementAndGet();
+            remove(eldest);
+        }
+    }
+
+    /**
+     * Drop insertion-order records of entries that were already replaced,
+     * invalidated or expired.
+     */
+    private void purge() {
+        for (Entry entry : order) {
+            if (entries.get(entry.name) != entry && order.remove(entry)) {
+                ordered.decrementAndGet();
+            }
+        }
+    }
+
+    private void remove(Entry entry) {
+        if (entries.remove(entry.name, entry)) {
+            weight.addAndGet(-entry.weight);
+        }
+    }
+
+    private long expiry(long pttl) {
+        long ttl = pttl > 0 ? Math.min(TimeUnit.MILLISECONDS.toNanos(pttl), maxTtl) : maxTtl;
+        return System.nanoTime() + ttl;
+    }
+
+    private static int stripe(String name) {
+        int h = name.hashCode();
+        return (h ^ (h >>> 16)) & (STRIPES - 1);
+    }
+
+    private static <T> Future<T> completed(T value) {
+        return CompletableFuture.completedFuture(value);
+    }
+
+    /**
+     * Call back with the value and the PTTL once both replied without error.
+     */
+    private static <T> void fill(Future<T> value, Future<Long> pttl, final BiConsumer<T, Long> callback) {
+        final CompletableFuture<T> v = toCompletableFuture(value);
+        final CompletableFuture<Long> t = toCompletableFuture(pttl);
+        CompletableFuture.allOf(v, t).whenComplete(new BiConsumer<Void, Throwable>() {
+            @Override
+            public void accept(Void ignored, Throwable e) {
+                if (e == null) {
+                    callback.accept(v.join(), t.join());
+                }
+            }
+        });
+    }
+
+    /**
+     * Weight of a cached value against the maximum weight.
+     *
+     * @param <K> Key type.
+     * @param <V> Value type.
+     */
+    public interface Weigher<K, V> {
+        /**
+         * @param field Hash field, or null for a string value.
+         * @param value Cached value, possibly null.
+         *
+         * @return Weight of the value, at least 1.
+         */
+        int weigh(K field, V value);
+    }
+
+    /**
+     * Immutable cached state of one key: a string value, or some or all fields
+     * of a hash.
+     */
+    private static final class Entry {
+        final String name;
+        final Object value;
+        final boolean hash;
+        final boolean complete;
+        final int weight;
+        final long expiresAt;
+
+        Entry(String name, Object value, boolean hash, boolean complete, int weight, long expiresAt) {
+            this.name = name;
+            this.value = value;
+            this.hash = hash;
+            this.complete = complete;
+            this.weight = weight;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,470 @@
+package jmind.redis;
+
+import static jmind.redis.protocol.CommandKeyword.SLOTS;
+import static jmind.redis.protocol.RedisCommand.ASKING;
+import static jmind.redis.protocol.RedisCommand.CLUSTER;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.TimerTask;
+
+import jmind.redis.codec.RedisCodec;
+import jmind.redis.out.ClusterSlotsOutput;
+import jmind.redis.out.SlotRange;
+import jmind.redis.out.StatusOutput;
+import jmind.redis.protocol.Command;
+import jmind.redis.protocol.CommandArgs;
+import jmind.redis.protocol.SlotHash;
+
+/**
+ * A client of a redis cluster. Every key is mapped to its hash slot with
+ * {@link SlotHash}, and each slot is sent to the master that serves it. Every
+ * node has one pipelined {@link RedisHandler}. The slot map is loaded with
+ * CLUSTER SLOTS. MOVED and ASK redirects are followed transparently, and a
+ * MOVED reply also refreshes the slot map in the background.
+ *
+ * Commands on several keys, such as MGET or DEL, are split by slot rather than
+ * by node, since a cluster rejects commands whose keys span slots. Keys that
+ * share a hash tag stay together.
+ *
+ * @param <K> Key type.
+ * @param <V> Value type.
+ *
+ * @author wbxie
+ */
+public class ClusterRedisCmd<K, V> extends RedisCmd<K, V> {
+    private final Connector<K, V> connector;
+    private final RedisCodec<K, V> codec;
+    private final ConcurrentMap<String, RedisHandler<K, V>> nodes = new ConcurrentHashMap<String, RedisHandler<K, V>>();
+    private final AtomicReferenceArray<RedisHandler<K, V>> slots = new AtomicReferenceArray<RedisHandler<K, V>>(SlotHash.SLOTS);
+    private final AtomicReferenceArray<Slot<K, V>> views = new AtomicReferenceArray<Slot<K, V>>(SlotHash.SLOTS);
+    private final AtomicReference<CompletableFuture<Boolean>> refreshing = new AtomicReference<CompletableFuture<Boolean>>();
+    private volatile int maxRedirects = 5;
+    private volatile Timeout refresher;
+    private volatile boolean closed;
+
+    /**
+     * Opens the connection to a cluster node.
+     */
+    public interface Connector<K, V> {
+        /**
+         * Open a connection to a node. Must not block: nodes learnt from a
+         * redirect are connected on the netty I/O thread.
+         *
+         * @param host  Host of the node.
+         * @param port  Port of the node.
+         *
+         * @return The connection.
+         */
+        RedisHandler<K, V> connect(String host, int port);
+    }
+
+    /**
+     * Create a client of the cluster that the seed nodes belong to. The slot
+     * map is empty until {@link #loadSlots()} or {@link #refresh()}.
+     *
+     * @param seeds     Addresses of some nodes of the cluster.
+     * @param connector Opens the connection to each node.
+     */
+    public ClusterRedisCmd(List<InetSocketAddress> seeds, Connector<K, V> connector) {
+        this(connect(seeds, connector), connector);
+    }
+
+    private ClusterRedisCmd(Map<String, RedisHandler<K, V>> seeds, Connector<K, V> connector) {
+        super(new ArrayList<RedisHandler<K, V>>(seeds.values()));
+        this.connector = connector;
+        this.codec = shards.getFisrt().codec;
+        this.nodes.putAll(seeds);
+    }
+
+    private static <K, V> Map<String, RedisHandler<K, V>> connect(List<InetSocketAddress> seeds,
+            Connector<K, V> connector) {
+        Map<String, RedisHandler<K, V>> nodes = new LinkedHashMap<String, RedisHandler<K, V>>();
+        for (InetSocketAddress seed : seeds) {
+            String address = seed.getHostString() + ":" + seed.getPort();
+            if (!nodes.containsKey(address)) {
+                nodes.put(address, connector.connect(seed.getHostString(), seed.getPort()));
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * Set how many redirects a command follows before it fails with the
+     * redirect error. Defaults to 5.
+     *
+     * @param maxRedirects Maximum redirects per command.
+     */
+    public void setMaxRedirects(int maxRedirects) {
+        this.maxRedirects = maxRedirects;
+    }
+
+    /**
+     * Refresh the slot map periodically, in addition to the refresh after a
+     * MOVED redirect.
+     *
+     * @param interval  Time between refreshes.
+     * @param unit      Unit of time for the interval.
+     * @param timer     Timer that runs the refreshes.
+     */
+    public void setRefreshInterval(final long interval, final TimeUnit unit, final Timer timer) {
+        refresher = timer.newTimeout(new TimerTask() {
+            @Override
+            public void run(Timeout timeout) throws Exception {
+                if (closed)
+                    return;
+                refresh();
+                refresher = timer.newTimeout(this, interval, unit);
+            }
+        }, interval, unit);
+    }
+
+    /**
+     * Load the slot map from the first node that answers CLUSTER SLOTS, and
+     * wait for it.
+     *
+     * @throws RedisException if no node answered.
+     */
+    public void loadSlots() {
+        if (!Boolean.TRUE.equals(await(refresh())))
+            throw new RedisException("Unable to load the cluster slots from " + nodes.keySet());
+    }
+
+    /**
+     * Reload the slot map with CLUSTER SLOTS, asking the known nodes in turn
+     * until one answers. Calls made while a refresh is running share it.
+     *
+     * @return Future that is true once the slot map was updated, or false if
+     *         no node answered.
+     */
+    public CompletableFuture<Boolean> refresh() {
+        for (;;) {
+            CompletableFuture<Boolean> running = refreshing.get();
+            if (running != null && !running.isDone())
+                return running;
+            CompletableFuture<Boolean> future = new CompletableFuture<Boolean>();
+            if (refreshing.compareAndSet(running, future)) {
+                refresh(new ArrayList<String>(nodes.keySet()).iterator(), future);
+                return future;
+            }
+        }
+    }
+
+    private void refresh(final Iterator<String> addresses, final CompletableFuture<Boolean> future) {
+        while (addresses.hasNext()) {
+            final String address = addresses.next();
+            RedisHandler<K, V> node = nodes.get(address);
+            if (node == null)
+                continue;
+            final Command<K, V, List<SlotRange>> cmd;
+            try {
+                cmd = node.dispatchInternal(new Command<K, V, List<SlotRange>>(CLUSTER,
+                        new ClusterSlotsOutput<K, V>(codec), new CommandArgs<K, V>(codec).add(SLOTS), false));
+            } catch (RedisException e) {
+                continue;
+            }
+            cmd.onComplete(new Runnable() {
+                @Override
+                public void run() {
+                    if (!cmd.isCancelled() && !cmd.getOutput().hasError() && !cmd.getOutput().get().isEmpty()) {
+                        update(address, cmd.getOutput().get());
+                        future.complete(true);
+                    } else {
+                        refresh(addresses, future);
+                    }
+                }
+            });
+            return;
+        }
+        future.complete(false);
+    }
+
+    /**
+     * Replace the slot map and close the nodes that no longer serve a slot.
+     *
+     * @param source    Address of the node that sent the ranges.
+     * @param ranges    Slot ranges from CLUSTER SLOTS.
+     */
+    private void update(String source, List<SlotRange> ranges) {
+        List<RedisHandler<K, V>> map = new ArrayList<RedisHandler<K, V>>(Collections.nCopies(SlotHash.SLOTS,
+                (RedisHandler<K, V>) null));
+        Set<RedisHandler<K, V>> live = new HashSet<RedisHandler<K, V>>();
+        for (SlotRange range : ranges) {
+            String host = range.host;
+            if (host == null || host.isEmpty() || "?".equals(host)) {
+                // the node that answered does not know its own address
+                host = source.substring(0, source.lastIndexOf(':'));
+            }
+            RedisHandler<K, V> node = node(host, range.port);
+            live.add(node);
+            for (int slot = Math.max(range.from, 0); slot <= range.to && slot < SlotHash.SLOTS; slot++) {
+                map.set(slot, node);
+            }
+        }
+        for (int slot = 0; slot < SlotHash.SLOTS; slot++) {
+            slots.set(slot, map.get(slot));
+        }
+
+        synchronized (nodes) {
+            for (Iterator<RedisHandler<K, V>> it = nodes.values().iterator(); it.hasNext();) {
+                RedisHandler<K, V> node = it.next();
+                if (!live.contains(node)) {
+                    it.remove();
+                    node.close();
+                }
+            }
+        }
+    }
+
+    private RedisHandler<K, V> node(String host, int port) {
+        String address = host + ":" + port;
+        RedisHandler<K, V> node = nodes.get(address);
+        if (node != null)
+            return node;
+        synchronized (nodes) {
+            node = nodes.get(address);
+            if (node == null) {
+                node = connector.connect(host, port);
+                nodes.put(address, node);
+            }
+            return node;
+        }
+    }
+
+    /**
+     * Get a handler that sends commands to the node serving the slot of the
+     * key. The node is looked up when each command is dispatched, so the
+     * handler stays valid when the slot moves.
+     *
+     * @param key Key.
+     *
+     * @return The handler of the key's slot.
+     */
+    @Override
+    public RedisHandler<K, V> getShard(K key) {
+        return getSlot(SlotHash.slot(codec.encodeKey(key)));
+    }
+
+    /**
+     * Get the handler of a hash slot.
+     *
+     * @param slot  Slot, from 0 to 16383.
+     *
+     * @return The handler of the slot.
+     */
+    public RedisHandler<K, V> getSlot(int slot) {
+        Slot<K, V> view = views.get(slot);
+        if (view == null) {
+            view = new Slot<K, V>(this, slot);
+            if (!views.compareAndSet(slot, null, view)) {
+                view = views.get(slot);
+            }
+        }
+        return view;
+    }
+
+    /**
+     * Get the connection of the master serving a slot.
+     *
+     * @param slot  Slot, from 0 to 16383.
+     *
+     * @return The connection, or null if no node serves the slot.
+     */
+    public RedisHandler<K, V> getNode(int slot) {
+        return slots.get(slot);
+    }
+
+    /**
+     * Get the connections of all masters.
+     */
+    @Override
+    protected List<RedisHandler<K, V>> getShards() {
+        return new ArrayList<RedisHandler<K, V>>(nodes.values());
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        Timeout refresher = this.refresher;
+        if (refresher != null) {
+            refresher.cancel();
+        }
+        super.close();
+    }
+
+    /**
+     * Publish a message through any node. The cluster forwards it to the
+     * subscribers of every node.
+     *
+     * @param channel   Channel.
+     * @param message   Message.
+     *
+     * @return Future of the number of subscribers that received the message.
+     */
+    @Override
+    public Future<Long> publish(K channel, V message) {
+        return getShards().get(0).publish(channel, message);
+    }
+
+    /**
+     * Send commands to the node serving a slot. Each command is sent as a copy
+     * that shares its output, so the command itself only completes once no
+     * redirect is left to follow.
+     */
+    void send(int slot, List<Command<K, V, ?>> commands) {
+        List<Command<K, V, ?>> attempts = new ArrayList<Command<K, V, ?>>(commands.size());
+        for (Command<K, V, ?> cmd : commands) {
+            attempts.add(attempt(cmd, 0));
+        }
+        RedisHandler<K, V> node = slots.get(slot);
+        if (node == null) {
+            fail(attempts, "No node serves slot " + slot);
+            return;
+        }
+        dispatch(node, attempts, false);
+    }
+
+    private void dispatch(RedisHandler<K, V> node, List<Command<K, V, ?>> attempts, boolean redirect) {
+        try {
+            if (redirect) {
+                node.dispatchInternal(attempts);
+            } else if (attempts.size() == 1) {
+                node.dispatch(attempts.get(0));
+            } else {
+                node.dispatch(attempts);
+            }
+        } catch (RedisException e) {
+            fail(attempts, e.getMessage());
+        }
+    }
+
+    private void fail(List<Command<K, V, ?>> attempts, String error) {
+        for (Command<K, V, ?> attempt : attempts) {
+            attempt.fail(error);
+        }
+    }
+
+    private <T> Command<K, V, T> attempt(final Command<K, V, T> cmd, final int redirects) {
+        final Command<K, V, T> attempt = cmd.copy();
+        attempt.onComplete(new Runnable() {
+            @Override
+            public void run() {
+                completed(cmd, attempt, redirects);
+            }
+        });
+        return attempt;
+    }
+
+    /**
+     * Follow the redirect an attempt was answered with, or complete the
+     * command.
+     */
+    private <T> void completed(Command<K, V, T> cmd, Command<K, V, T> attempt, int redirects) {
+        if (attempt.isCancelled()) {
+            if (attempt.isTimedOut()) {
+                cmd.timeout();
+            } else {
+                cmd.cancel(false);
+            }
+            return;
+        }
+
+        String error = cmd.getOutput().getError();
+        if (error != null && redirects < maxRedirects && !cmd.isDone() && !closed) {
+            boolean moved = error.startsWith("MOVED ");
+            if (moved || error.startsWith("ASK ")) {
+                String[] parts = error.split(" ");
+                int colon = parts.length == 3 ? parts[2].lastIndexOf(':') : -1;
+                int slot = -1;
+                int port = -1;
+                if (colon > 0) {
+                    try {
+                        slot = Integer.parseInt(parts[1]);
+                        port = Integer.parseInt(parts[2].substring(colon + 1));
+                    } catch (NumberFormatException e) {
+                        colon = -1;
+                    }
+                }
+                if (colon > 0 && slot >= 0 && slot < SlotHash.SLOTS) {
+                    RedisHandler<K, V> node = node(parts[2].substring(0, colon), port);
+                    List<Command<K, V, ?>> attempts = new ArrayList<Command<K, V, ?>>(2);
+                    if (moved) {
+                        slots.set(slot, node);
+                        refresh();
+                    } else {
+                        attempts.add(new Command<K, V, String>(ASKING, new StatusOutput<K, V>(codec), null, false));
+                    }
+                    attempts.add(attempt(cmd, redirects + 1));
+                    dispatch(node, attempts, true);
+                    return;
+                }
+            }
+        }
+        cmd.complete();
+    }
+
+    /**
+     * The {@link RedisHandler} of one hash slot. Commands are sent to the node
+     * serving the slot when they are dispatched.
+     */
+    static class Slot<K, V> extends RedisHandler<K, V> {
+        private final ClusterRedisCmd<K, V> cluster;
+        private final int slot;
+
+        Slot(ClusterRedisCmd<K, V> cluster, int slot) {
+            super(null, cluster.codec, cluster.shards.getFisrt().timeout);
+            this.executor = cluster.shards.getFisrt().executor;
+            this.cluster = cluster;
+            this.slot = slot;
+        }
+
+        @Override
+        public <T> Command<K, V, T> dispatch(Command<K, V, T> cmd) {
+            cmd.setExecutor(executor);
+            cluster.send(slot, Collections.<Command<K, V, ?>> singletonList(cmd));
+            return cmd;
+        }
+
+        @Override
+        public void dispatch(List<Command<K, V, ?>> commands) {
+            for (Command<K, V, ?> cmd : commands) {
+                cmd.setExecutor(executor);
+            }
+            cluster.send(slot, commands);
+        }
+
+        @Override
+        public boolean isConnect() {
+            RedisHandler<K, V> node = cluster.slots.get(slot);
+            return node != null && node.isConnect();
+        }
+
+        @Override
+        public boolean isAvailable() {
+            RedisHandler<K, V> node = cluster.slots.get(slot);
+            return node != null && node.isAvailable();
+        }
+
+        @Override
+        public String toString() {
+            return "slot " + slot;
+        }
+    }
+}
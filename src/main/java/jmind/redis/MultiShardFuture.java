@@ -0,0 +1,166 @@
+package jmind.redis;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiFunction;
+
+import jmind.redis.out.CommandOut;
+import jmind.redis.protocol.Command;
+
+/**
+ * A {@link Future} over commands that were sent to several shards at the
+ * same time. The aggregated result is built by {@link #merge()} once every
+ * shard has replied, so the caller waits for the slowest shard rather than
+ * for the sum of all round trips.
+ *
+ * @param <T> Aggregated output type.
+ *
+ * @author wbxie
+ */
+public abstract class MultiShardFuture<K, V, T> implements Future<T> {
+    protected final List<RedisHandler<K, V>> shards = new ArrayList<RedisHandler<K, V>>();
+    protected final List<Command<K, V, ?>> commands = new ArrayList<Command<K, V, ?>>();
+
+    /**
+     * Register the command sent to a shard.
+     *
+     * @param shard Shard the command was dispatched to.
+     * @param cmd   The dispatched command.
+     */
+    protected void add(RedisHandler<K, V> shard, Command<K, V, ?> cmd) {
+        shards.add(shard);
+        commands.add(cmd);
+    }
+
+    /**
+     * Build the aggregated result. Only called once all commands completed
+     * without error.
+     *
+     * @return The aggregated output.
+     */
+    protected abstract T merge();
+
+    /**
+     * Get the errors reported by each shard, if any.
+     *
+     * @return Error messages keyed by shard, empty when all shards succeeded.
+     */
+    public Map<RedisHandler<K, V>, String> errors() {
+        Map<RedisHandler<K, V>, String> errors = new LinkedHashMap<RedisHandler<K, V>, String>();
+        for (int i = 0; i < commands.size(); i++) {
+            Command<K, V, ?> cmd = commands.get(i);
+            if (!cmd.isDone())
+                continue;
+            CommandOut<K, V, ?> output = cmd.getOutput();
+            if (cmd.isCancelled()) {
+                errors.put(shards.get(i), cmd.isTimedOut() ? "Command timed out" : "Command cancelled");
+            } else if (output.hasError()) {
+                errors.put(shards.get(i), output.getError());
+            }
+        }
+        return errors;
+    }
+
+    /**
+     * Get a {@link CompletableFuture} that completes with the aggregated output
+     * once every shard replied, or exceptionally when any shard failed.
+     *
+     * @return The completion stage of all shards.
+     */
+    public CompletableFuture<T> toCompletableFuture() {
+        CompletableFuture<?>[] parts = new CompletableFuture<?>[commands.size()];
+        for (int i = 0; i < parts.length; i++) {
+            parts[i] = commands.get(i).toCompletableFuture();
+        }
+        return CompletableFuture.allOf(parts).handle(new BiFunction<Void, Throwable, T>() {
+            @Override
+            public T apply(Void ignored, Throwable e) {
+                return result();
+            }
+        });
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean cancelled = false;
+        for (Command<K, V, ?> cmd : commands) {
+            cancelled |= cmd.cancel(mayInterruptIfRunning);
+        }
+        return cancelled;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        for (Command<K, V, ?> cmd : commands) {
+            if (cmd.isCancelled())
+                return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean isDone() {
+        for (Command<K, V, ?> cmd : commands) {
+            if (!cmd.isDone())
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Wait for every shard to reply and return the aggregated output.
+     *
+     * @return The aggregated output.
+     *
+     * @throws RedisException if any shard replied with an error.
+     */
+    @Override
+    public T get() {
+        for (Command<K, V, ?> cmd : commands) {
+            cmd.await(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+        return result();
+    }
+
+    /**
+     * Wait up to the specified time for every shard to reply and return the
+     * aggregated output.
+     *
+     * @param timeout   Maximum time to wait for all shards.
+     * @param unit      Unit of time for the timeout.
+     *
+     * @return The aggregated output.
+     *
+     * @throws TimeoutException if the wait timed out.
+     * @throws RedisException if any shard replied with an error.
+     */
+    @Override
+    public T get(long timeout, TimeUnit unit) throws TimeoutException {
+        long nanos = unit.toNanos(timeout);
+        long time = System.nanoTime();
+
+        for (Command<K, V, ?> cmd : commands) {
+            if (nanos < 0 || !cmd.await(nanos, TimeUnit.NANOSECONDS))
+                throw new TimeoutException("Command timed out");
+
+            long now = System.nanoTime();
+            nanos -= now - time;
+            time = now;
+        }
+        return result();
+    }
+
+    private T result() {
+        Map<RedisHandler<K, V>, String> errors = errors();
+        if (!errors.isEmpty())
+            throw new RedisException(errors.size() + " of " + commands.size() + " shards failed: "
+                    + errors.values());
+        return merge();
+    }
+}
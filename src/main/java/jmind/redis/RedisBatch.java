@@ -0,0 +1,232 @@
+package jmind.redis;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.concurrent.Future;
+
+import jmind.base.lang.shard.ConsistentHashLoadBalance;
+import jmind.redis.out.CommandOut;
+import jmind.redis.out.KeyStreamingChannel;
+import jmind.redis.out.ScanArgs;
+import jmind.redis.protocol.Command;
+
+/**
+ * Collects commands and sends them in one flush per shard on {@link #execute()}.
+ * Commands are routed like the {@link RedisCmd} the batch was created from,
+ * and every command exposed by {@link RedisHandler} can be queued through
+ * {@link #getShard(Object)}. Futures returned while collecting complete once
+ * the batch has been executed and the replies arrived.
+ *
+ * Commands sent to every shard, such as {@link #keys(KeyStreamingChannel, Object)},
+ * and {@link #publish(Object, Object)} are queued as well. Commands that wait
+ * for their own reply cannot be batched: {@link #del(Object...)},
+ * {@link #mget(Object...)} and {@link #scanSpliterator(ScanArgs)} throw
+ * {@link UnsupportedOperationException}, and {@link RedisHandler#auth} or
+ * {@link RedisHandler#select} would time out. Use {@link #delAsync(Object...)}
+ * and {@link #mgetAsync(Object...)} instead.
+ *
+ * A batch is not thread-safe.
+ *
+ * @param <K> Key type.
+ * @param <V> Value type.
+ *
+ * @author wbxie
+ */
+public class RedisBatch<K, V> extends RedisCmd<K, V> {
+    private final RedisCmd<K, V> target;
+    private final RedisHandler<K, V> handler;
+    private final Map<RedisHandler<K, V>, Pipeline<K, V>> pipelines = new LinkedHashMap<RedisHandler<K, V>, Pipeline<K, V>>();
+    private final List<Command<K, V, ?>> commands = new ArrayList<Command<K, V, ?>>();
+
+    /**
+     * Create a batch routed over the shards of a client.
+     *
+     * @param target Client whose routing is used.
+     */
+    public RedisBatch(RedisCmd<K, V> target) {
+        super(target.shards);
+        this.target = target;
+        this.handler = null;
+    }
+
+    /**
+     * Create a batch for a single connection.
+     *
+     * @param handler Connection the commands are sent to.
+     */
+    public RedisBatch(RedisHandler<K, V> handler) {
+        super(new ConsistentHashLoadBalance<RedisHandler<K, V>>(Collections.singletonList(handler)));
+        this.target = null;
+        this.handler = handler;
+    }
+
+    /**
+     * Get the collecting view of the shard that owns the key.
+     *
+     * @param key Key.
+     *
+     * @return A handler that queues commands for that shard until {@link #execute()}.
+     */
+    @Override
+    public RedisHandler<K, V> getShard(K key) {
+        return pipeline(target != null ? target.getShard(key) : handler);
+    }
+
+    /**
+     * Queue a DEL per shard. The batch is not sent before {@link #execute()}
+     * so waiting for the reply is not possible.
+     *
+     * @throws UnsupportedOperationException always, use {@link #delAsync(Object...)}.
+     */
+    @Override
+    public long del(K... keys) {
+        throw new UnsupportedOperationException("Use delAsync in a batch");
+    }
+
+    /**
+     * Queue an MGET per shard. The batch is not sent before {@link #execute()}
+     * so waiting for the reply is not possible.
+     *
+     * @throws UnsupportedOperationException always, use {@link #mgetAsync(Object...)}.
+     */
+    @Override
+    public List<V> mget(K... keys) {
+        throw new UnsupportedOperationException("Use mgetAsync in a batch");
+    }
+
+    /**
+     * Queue a KEYS for every shard of the batch.
+     */
+    @Override
+    public Future<Long> keys(KeyStreamingChannel<K> channel, K pattern) {
+        List<RedisHandler<K, V>> all = new ArrayList<RedisHandler<K, V>>();
+        for (RedisHandler<K, V> shard : getShards()) {
+            all.add(pipeline(shard));
+        }
+        return keys(all, channel, pattern);
+    }
+
+    /**
+     * Every SCAN needs the cursor returned by the previous one, which is not
+     * known before the batch is executed.
+     *
+     * @throws UnsupportedOperationException always.
+     */
+    @Override
+    public Spliterator<K> scanSpliterator(ScanArgs scanArgs) {
+        throw new UnsupportedOperationException("SCAN cannot be batched");
+    }
+
+    /**
+     * Queue a PUBLISH for the first shard.
+     */
+    @Override
+    public Future<Long> publish(K channel, V message) {
+        return pipeline(shards.getFisrt()).publish(channel, message);
+    }
+
+    private RedisHandler<K, V> pipeline(RedisHandler<K, V> shard) {
+        Pipeline<K, V> pipeline = pipelines.get(shard);
+        if (pipeline == null) {
+            pipeline = new Pipeline<K, V>(shard, commands);
+            pipelines.put(shard, pipeline);
+        }
+        return pipeline;
+    }
+
+    /**
+     * Number of commands collected since the last execution.
+     *
+     * @return Number of queued commands.
+     */
+    public int size() {
+        return commands.size();
+    }
+
+    /**
+     * Write the collected commands, one flush per shard.
+     *
+     * @return Futures of all collected commands in the order they were added.
+     */
+    public List<Future<?>> execute() {
+        for (Pipeline<K, V> pipeline : pipelines.values()) {
+            pipeline.flush();
+        }
+        List<Future<?>> futures = new ArrayList<Future<?>>(commands);
+        commands.clear();
+        pipelines.clear();
+        return futures;
+    }
+
+    /**
+     * Write the collected commands and wait for every reply.
+     *
+     * @return Outputs of all collected commands in the order they were added.
+     *         Commands that failed, were cancelled or got no reply within the
+     *         timeout are represented by a {@link RedisException}.
+     */
+    public List<Object> executeAndWait() {
+        List<Future<?>> futures = execute();
+        shards.getFisrt().awaitAll(futures.toArray(new Future<?>[futures.size()]));
+
+        List<Object> results = new ArrayList<Object>(futures.size());
+        for (Future<?> future : futures) {
+            Command<?, ?, ?> cmd = (Command<?, ?, ?>) future;
+            CommandOut<?, ?, ?> o = cmd.getOutput();
+            if (!cmd.isDone()) {
+                cmd.timeout();
+            }
+            if (cmd.isCancelled()) {
+                results.add(new RedisException(cmd.isTimedOut() ? "Command timed out" : "Command cancelled"));
+            } else {
+                results.add(!o.hasError() ? o.get() : new RedisException(o.getError()));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * A {@link RedisHandler} that collects commands for one connection instead
+     * of writing them.
+     */
+    static class Pipeline<K, V> extends RedisHandler<K, V> {
+        private final RedisHandler<K, V> shard;
+        private final List<Command<K, V, ?>> all;
+        private final List<Command<K, V, ?>> commands = new ArrayList<Command<K, V, ?>>();
+
+        Pipeline(RedisHandler<K, V> shard, List<Command<K, V, ?>> all) {
+            super(shard.queue, shard.codec, shard.timeout);
+            this.executor = shard.executor;
+            this.shard = shard;
+            this.all = all;
+        }
+
+        @Override
+        public <T> Command<K, V, T> dispatch(Command<K, V, T> cmd) {
+            cmd.setExecutor(executor);
+            commands.add(cmd);
+            all.add(cmd);
+            return cmd;
+        }
+
+        @Override
+        public boolean isConnect() {
+            return shard.isConnect();
+        }
+
+        @Override
+        public boolean isAvailable() {
+            return shard.isAvailable();
+        }
+
+        void flush() {
+            if (!commands.isEmpty()) {
+                shard.dispatch(commands);
+            }
+        }
+    }
+}
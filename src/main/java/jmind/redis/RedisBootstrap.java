@@ -4,14 +4,24 @@ package jmind.redis;
 import jmind.base.lang.shard.LoadBalance;
 import jmind.base.util.AddrUtil;
 import jmind.redis.codec.Utf8Codec;
+import jmind.redis.health.HealthChecker;
+import jmind.redis.metrics.ClientMonitor;
+import jmind.redis.metrics.CommandLatencies;
+import jmind.redis.metrics.ConnectionStats;
+import jmind.redis.metrics.ShardMonitor;
 import jmind.redis.protocol.Command;
 import jmind.redis.protocol.CommandHandler;
+import jmind.redis.protocol.InflightLimiter;
+import jmind.redis.protocol.ReconnectPolicy;
 import jmind.redis.protocol.RedisWatchdog;
 import jmind.redis.pubsub.PubSubCommandHandler;
 import jmind.redis.pubsub.RedisPubSub;
 import org.jboss.netty.bootstrap.ClientBootstrap;
+import org.jboss.netty.buffer.DirectChannelBufferFactory;
+import org.jboss.netty.buffer.HeapChannelBufferFactory;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
 import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.channel.Channels;
 import org.jboss.netty.channel.group.ChannelGroup;
@@ -23,7 +33,10 @@ import org.jboss.netty.util.HashedWheelTimer;
 import org.jboss.netty.util.Timer;
 
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Queue;
 import java.util.concurrent.*;
 
 /**
@@ -38,6 +51,29 @@ public class RedisBootstrap {
 
     private final List<InetSocketAddress> addrs;
     private final int timeout;
+    private final List<Connection> allConnections = new CopyOnWriteArrayList<Connection>();
+    private final List<RedisWatchdog> pubSubWatchdogs = new CopyOnWriteArrayList<RedisWatchdog>();
+
+    private int flushBatchSize;
+    private long flushDelay;
+    private Executor callbackExecutor = ForkJoinPool.commonPool();
+    private boolean coalesceReads;
+    private int batchKeys;
+    private long batchWindow;
+    private ScheduledExecutorService batchScheduler;
+    private volatile CommandLatencies latencies;
+    private volatile ClientMonitor monitor;
+    private long commandTimeout;
+    private int maxInflight;
+    private long maxInflightBytes;
+    private InflightLimiter.Policy inflightPolicy;
+    private long inflightWait;
+    private volatile HealthChecker healthChecker;
+    private ReconnectPolicy reconnectPolicy;
+    private long probeTimeout;
+    private boolean lazyConnect;
+    private long connectDeadline;
+    private long clusterRefresh;
 
     public RedisBootstrap(String hosts) {
         this(hosts, 30);
@@ -52,10 +88,242 @@ public class RedisBootstrap {
         ClientSocketChannelFactory factory = new NioClientSocketChannelFactory(connectors, workers);
         bootstrap = new ClientBootstrap(factory);
         bootstrap.setOption("connectTimeoutMillis", TimeUnit.SECONDS.toMillis(timeout));
+        connectDeadline = TimeUnit.SECONDS.toNanos(timeout);
 
         channels = new DefaultChannelGroup();
-        timer = new HashedWheelTimer();
+        timer = new HashedWheelTimer(10, TimeUnit.MILLISECONDS);
+
+    }
+
+    /**
+     * Coalesce commands dispatched while a write is in flight into one write
+     * per connection. Applies to connections opened after this call.
+     *
+     * @param maxBatchSize  Maximum number of commands per write.
+     * @param maxDelay      Maximum time a command may wait to be flushed.
+     * @param unit          Unit of time for the delay.
+     */
+    public void setAutoFlush(int maxBatchSize, long maxDelay, TimeUnit unit) {
+        this.flushBatchSize = maxBatchSize;
+        this.flushDelay = unit.toNanos(maxDelay);
+    }
+
+    /**
+     * Fail commands that have not received their reply within the supplied
+     * time, instead of only when a caller waits for them. Deadlines run on the
+     * shared timer with a 10 millisecond tick. Applies to connections opened
+     * after this call.
+     *
+     * @param timeout   Maximum time from dispatch until the reply, or 0 to
+     *                  disable deadlines.
+     * @param unit      Unit of time for the timeout.
+     *
+     * @see RedisHandler#setCommandTimeout
+     */
+    public void setCommandTimeout(long timeout, TimeUnit unit) {
+        this.commandTimeout = unit.toNanos(timeout);
+    }
+
+    /**
+     * Bound the commands each connection holds that have not been answered
+     * yet, so a slow or dead shard cannot fill the heap. Applies to
+     * connections opened after this call.
+     *
+     * @param maxCommands   Maximum number of commands in flight, or 0 for no limit.
+     * @param maxBytes      Maximum encoded size of commands in flight, or 0 for no limit.
+     * @param policy        Policy for commands that do not fit.
+     * @param maxWait       Maximum time to wait for room with
+     *                      {@link InflightLimiter.Policy#BLOCK}.
+     * @param unit          Unit of time for the wait.
+     */
+    public void setInflightLimit(int maxCommands, long maxBytes, InflightLimiter.Policy policy, long maxWait,
+            TimeUnit unit) {
+        this.maxInflight = maxCommands;
+        this.maxInflightBytes = maxBytes;
+        this.inflightPolicy = policy;
+        this.inflightWait = unit.toNanos(maxWait);
+    }
+
+    /**
+     * PING every connection opened after this call at the supplied interval
+     * and eject slow or failing shards from routing. Thresholds and state
+     * listeners are configured on the returned checker.
+     *
+     * @param interval  Time between probes of a shard.
+     * @param unit      Unit of time for the interval.
+     *
+     * @return The health checker.
+     */
+    public synchronized HealthChecker setHealthCheck(long interval, TimeUnit unit) {
+        if (healthChecker != null) {
+            healthChecker.stop();
+        }
+        healthChecker = new HealthChecker(timer, interval, unit);
+        return healthChecker;
+    }
 
+    public HealthChecker getHealthChecker() {
+        return healthChecker;
+    }
+
+    /**
+     * Set the policy that decides the delay before each reconnect attempt.
+     * Applies to connections opened after this call.
+     *
+     * @param policy Reconnect policy.
+     *
+     * @see jmind.redis.protocol.BackoffReconnectPolicy
+     */
+    public void setReconnectPolicy(ReconnectPolicy policy) {
+        this.reconnectPolicy = policy;
+    }
+
+    /**
+     * PING every new channel before the connection is marked connected and
+     * queued commands are replayed. Applies to connections opened after this
+     * call.
+     *
+     * @param timeout   Maximum time to wait for the PING, or 0 to disable.
+     * @param unit      Unit of time for the timeout.
+     *
+     * @see RedisHandler#setReadinessProbe
+     */
+    public void setReadinessProbe(long timeout, TimeUnit unit) {
+        this.probeTimeout = unit.toNanos(timeout);
+    }
+
+    /**
+     * Set how long {@link #connectAsync(LoadBalance.Balance)} waits for all
+     * shards, which connect concurrently. Shards not connected by then fail
+     * their commands and keep reconnecting in the background. Defaults to the
+     * timeout of this bootstrap.
+     *
+     * @param deadline  Maximum time to wait for all shards.
+     * @param unit      Unit of time for the deadline.
+     */
+    public void setConnectDeadline(long deadline, TimeUnit unit) {
+        this.connectDeadline = unit.toNanos(deadline);
+    }
+
+    /**
+     * Open the channel of each shard on the first command sent to it, instead
+     * of connecting every shard up front, so startup cost does not grow with
+     * the number of shards.
+     *
+     * @param lazy true to connect on first use.
+     */
+    public void setLazyConnect(boolean lazy) {
+        this.lazyConnect = lazy;
+    }
+
+    /**
+     * Reload the slot map of clients returned by {@link #connectCluster()}
+     * periodically, in addition to after every MOVED redirect.
+     *
+     * @param interval  Time between refreshes, or 0 to only refresh on MOVED.
+     * @param unit      Unit of time for the interval.
+     */
+    public void setClusterRefresh(long interval, TimeUnit unit) {
+        this.clusterRefresh = unit.toNanos(interval);
+    }
+
+    /**
+     * Allocate channel buffers as slices of pre-allocated direct memory chunks
+     * instead of on the heap, so encoded commands are written to the socket
+     * without an extra copy. Applies to connections opened after this call.
+     *
+     * @param direct true to use direct buffers.
+     */
+    public void setDirectBuffers(boolean direct) {
+        bootstrap.setOption("bufferFactory",
+                direct ? DirectChannelBufferFactory.getInstance() : HeapChannelBufferFactory.getInstance());
+    }
+
+    /**
+     * Set the executor that runs completion stages chained on commands of
+     * connections opened after this call. Defaults to the common fork/join pool.
+     *
+     * @param executor Executor for completion stages.
+     */
+    public void setCallbackExecutor(Executor executor) {
+        this.callbackExecutor = executor;
+    }
+
+    /**
+     * Let concurrent identical GET and HGET calls on a connection share one
+     * command in flight. Applies to connections opened after this call.
+     *
+     * @param coalesce true to share identical reads.
+     *
+     * @see RedisHandler#setCoalesceReads(boolean)
+     */
+    public void setCoalesceReads(boolean coalesce) {
+        this.coalesceReads = coalesce;
+    }
+
+    /**
+     * Merge independent GET calls to the same shard into one MGET. Applies to
+     * connections opened after this call.
+     *
+     * @param maxKeys   Maximum number of keys per MGET.
+     * @param window    Maximum time a GET waits for other keys, typically
+     *                  tens to hundreds of microseconds.
+     * @param unit      Unit of time for the window.
+     *
+     * @see RedisHandler#setGetBatching
+     */
+    public synchronized void setGetBatching(int maxKeys, long window, TimeUnit unit) {
+        this.batchKeys = maxKeys;
+        this.batchWindow = unit.toNanos(window);
+        if (batchScheduler == null) {
+            ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "redis-get-batching");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            scheduler.setRemoveOnCancelPolicy(true);
+            batchScheduler = scheduler;
+        }
+    }
+
+    /**
+     * Record the latency of every command, by command type and by shard.
+     * Applies to connections opened after this call.
+     *
+     * @param enabled true to record latencies.
+     *
+     * @see #getLatencies()
+     */
+    public void setLatencyTracking(boolean enabled) {
+        this.latencies = enabled ? new CommandLatencies() : null;
+    }
+
+    /**
+     * Get the latencies of all connections opened by this bootstrap.
+     *
+     * @return The latency registry, or null if latencies are not recorded.
+     */
+    public CommandLatencies getLatencies() {
+        return latencies;
+    }
+
+    /**
+     * Register MBeans for this client and for every connection opened after
+     * this call, exposing queue depth, connection state, reconnects, traffic
+     * and timeouts.
+     *
+     * @param name  Name of this client, unique within the JVM.
+     *
+     * @see ClientMonitor
+     */
+    public synchronized void setJmxName(String name) {
+        if (monitor != null) {
+            monitor.unregister();
+        }
+        monitor = name != null ? new ClientMonitor(name) : null;
     }
 
     public RedisCmd<String, String> connectAsync() {
@@ -64,12 +332,94 @@ public class RedisBootstrap {
     }
 
     public RedisCmd<String, String> connectAsync(LoadBalance.Balance balance) {
-        List<RedisHandler<String, String>> redis = new CopyOnWriteArrayList<RedisHandler<String, String>>();
+        List<Connection> connections = new ArrayList<Connection>(addrs.size());
+        for (InetSocketAddress address : addrs) {
+            connections.add(new Connection(address));
+        }
+        return newCmd(open(connections), balance);
+    }
+
+    /**
+     * Connect to the masters of named groups monitored by redis sentinels,
+     * using the configured hosts as the sentinels. Each group is one shard.
+     * The connection of a group follows its master to the replica promoted on
+     * failover, as announced on <code>+switch-master</code>, and keeps the
+     * commands queued meanwhile. A sentinel that cannot be subscribed to yet
+     * is retried in the background and subscribed to once it accepts
+     * connections.
+     *
+     * @param masters   Names of the master groups.
+     * @param balance   How keys are distributed over the groups.
+     *
+     * @return A client of the masters.
+     */
+    public RedisCmd<String, String> connectSentinel(List<String> masters, LoadBalance.Balance balance) {
+        List<Connection> sentinels = new ArrayList<Connection>(addrs.size());
+        List<RedisHandler<String, String>> handlers = new ArrayList<RedisHandler<String, String>>(addrs.size());
         for (InetSocketAddress address : addrs) {
-            RedisHandler<String, String> handler = connectAsync(address);
-            if (handler != null)
-                redis.add(handler);
+            Connection sentinel = new Connection(address);
+            sentinel.connectOnDemand();
+            sentinels.add(sentinel);
+            handlers.add(sentinel.redisHandler);
+        }
+        SentinelResolver resolver = new SentinelResolver(handlers);
+
+        List<Connection> connections = new ArrayList<Connection>(masters.size());
+        try {
+            for (String name : masters) {
+                InetSocketAddress address = resolver.resolve(name);
+                Connection connection = new Connection(address);
+                resolver.watch(name, address, connection.watchdog);
+                connections.add(connection);
+            }
+            List<RedisHandler<String, String>> redis = open(connections);
+
+            for (InetSocketAddress address : addrs) {
+                RedisPubSub<String, String> pubsub = connectPubSub(address, true);
+                pubsub.addListener(resolver.listener());
+                pubsub.subscribe(SentinelResolver.SWITCH_MASTER);
+            }
+            return newCmd(redis, balance);
+        } catch (RedisException e) {
+            for (Connection connection : connections) {
+                connection.close();
+            }
+            for (Connection sentinel : sentinels) {
+                sentinel.close();
+            }
+            throw e;
+        }
+    }
+
+    public RedisCmd<String, String> connectSentinel(String... masters) {
+        return connectSentinel(Arrays.asList(masters), LoadBalance.Balance.Hash);
+    }
+
+    /**
+     * Connect every shard, lazily or concurrently. Shards that fail to connect
+     * stay as placeholders.
+     */
+    private List<RedisHandler<String, String>> open(List<Connection> connections) {
+        List<RedisHandler<String, String>> redis = new CopyOnWriteArrayList<RedisHandler<String, String>>();
+        if (lazyConnect) {
+            for (Connection connection : connections) {
+                connection.lazy();
+                redis.add(connection.redisHandler);
+            }
+        } else {
+            for (Connection connection : connections) {
+                connection.connect();
+            }
+            long deadline = System.nanoTime() + connectDeadline;
+            for (Connection connection : connections) {
+                connection.await(deadline);
+                redis.add(connection.redisHandler);
+            }
         }
+        return redis;
+    }
+
+    private RedisCmd<String, String> newCmd(List<RedisHandler<String, String>> redis, LoadBalance.Balance balance) {
         if (redis.size() == 1) {
             return new SingleRedisCmd<String, String>(redis);
 
@@ -83,6 +433,35 @@ public class RedisBootstrap {
 
     }
 
+    /**
+     * Connect to a redis cluster, using the configured hosts as seed nodes.
+     * The slot map is loaded from the first seed that answers, and every
+     * master is connected on its first command.
+     *
+     * @return A client that routes keys by hash slot.
+     */
+    public ClusterRedisCmd<String, String> connectCluster() {
+        ClusterRedisCmd<String, String> cluster = new ClusterRedisCmd<String, String>(addrs,
+                new ClusterRedisCmd.Connector<String, String>() {
+                    @Override
+                    public RedisHandler<String, String> connect(String host, int port) {
+                        Connection connection = new Connection(new InetSocketAddress(host, port));
+                        connection.lazy();
+                        return connection.redisHandler;
+                    }
+                });
+        try {
+            cluster.loadSlots();
+        } catch (RedisException e) {
+            cluster.close();
+            throw e;
+        }
+        if (clusterRefresh > 0) {
+            cluster.setRefreshInterval(clusterRefresh, TimeUnit.NANOSECONDS, timer);
+        }
+        return cluster;
+    }
+
     /**
      * Open a new pub/sub connection to the redis server that treats
      * keys and values as UTF-8 strings.
@@ -90,26 +469,82 @@ public class RedisBootstrap {
      * @return A new connection.
      */
     public RedisPubSub<String, String> connectPubSub() {
+        return connectPubSub(addrs.get(0));
+    }
+
+    /**
+     * Open a new pub/sub connection to every configured shard, for instance
+     * to receive the keyspace notifications of each, which redis publishes on
+     * the shard that holds the key only.
+     *
+     * @return One new connection per shard, in the order of the addresses.
+     */
+    public List<RedisPubSub<String, String>> connectPubSubPerShard() {
+        List<RedisPubSub<String, String>> connections = new ArrayList<RedisPubSub<String, String>>(addrs.size());
+        try {
+            for (InetSocketAddress address : addrs) {
+                connections.add(connectPubSub(address));
+            }
+        } catch (RedisException e) {
+            for (RedisPubSub<String, String> connection : connections) {
+                connection.close();
+            }
+            throw e;
+        }
+        return connections;
+    }
+
+    /**
+     * Open a new pub/sub connection to a redis server that treats keys and
+     * values as UTF-8 strings.
+     *
+     * @param address   Address of the server.
+     *
+     * @return A new connection.
+     */
+    public RedisPubSub<String, String> connectPubSub(InetSocketAddress address) {
+        return connectPubSub(address, false);
+    }
+
+    /**
+     * Open a new pub/sub connection that reconnects through its watchdog.
+     *
+     * @param address   Address of the server.
+     * @param retry     Keep a connection whose first connect failed and let the
+     *                  watchdog retry it, instead of failing. Subscriptions are
+     *                  sent once it connects.
+     *
+     * @return A new connection.
+     */
+    private RedisPubSub<String, String> connectPubSub(InetSocketAddress address, boolean retry) {
         Utf8Codec codec = new Utf8Codec();
-        BlockingQueue<Command<String, String, ?>> queue = new LinkedBlockingQueue<Command<String, String, ?>>();
+        Queue<Command<String, String, ?>> queue = new ConcurrentLinkedQueue<Command<String, String, ?>>();
         PubSubCommandHandler<String, String> handler = new PubSubCommandHandler<String, String>(queue, codec);
         RedisPubSub<String, String> connection = new RedisPubSub<String, String>(queue, codec, timeout);
 
         try {
-            RedisWatchdog watchdog = new RedisWatchdog(bootstrap, channels, timer, addrs.get(0), RedisHandler.class);
+            RedisWatchdog watchdog = new RedisWatchdog(bootstrap, channels, timer, address, RedisHandler.class);
+            if (reconnectPolicy != null) {
+                watchdog.setReconnectPolicy(reconnectPolicy);
+            }
             ChannelPipeline pipeline = Channels.pipeline(watchdog, handler, connection);
             Channel channel = bootstrap.getFactory().newChannel(pipeline);
 
-            ChannelFuture future = channel.connect(addrs.get(0));
+            ChannelFuture future = channel.connect(address);
             //            bootstrap.setPipeline(pipeline);
             //            ChannelFuture future = bootstrap.connect((SocketAddress) bootstrap.getOption("remoteAddress"));
             future.await();
 
-            if (!future.isSuccess()) {
+            if (!future.isSuccess() && !retry) {
                 throw future.getCause();
             }
 
             watchdog.setReconnect(true);
+            pubSubWatchdogs.add(watchdog);
+            if (!future.isSuccess()) {
+                watchdog.scheduleReconnect();
+                return connection;
+            }
             this.channels.add(future.getChannel());
             return connection;
         } catch (Throwable e) {
@@ -117,32 +552,174 @@ public class RedisBootstrap {
         }
     }
 
-    private RedisHandler<String, String> connectAsync(InetSocketAddress address) {
-        Utf8Codec codec = new Utf8Codec();
-        BlockingQueue<Command<String, String, ?>> queue = new LinkedBlockingQueue<Command<String, String, ?>>();
+    /**
+     * The handlers of one shard connection and its channel.
+     */
+    private class Connection {
+        final InetSocketAddress address;
+        final String shard;
+        final CommandHandler<String, String> handler;
+        final RedisHandler<String, String> redisHandler;
+        final RedisWatchdog watchdog;
+        final ConnectionStats stats;
+        ChannelFuture future;
 
-        CommandHandler<String, String> handler = new CommandHandler<String, String>(queue);
-        RedisHandler<String, String> redisHandler = new RedisHandler<String, String>(queue, codec, timeout);
+        Connection(InetSocketAddress address) {
+            this.address = address;
+            this.shard = address.getHostString() + ":" + address.getPort();
 
-        try {
-            RedisWatchdog watchdog = new RedisWatchdog(bootstrap, channels, timer, address, RedisHandler.class);
-            ChannelPipeline pipeline = Channels.pipeline(watchdog, handler, redisHandler);
+            Utf8Codec codec = new Utf8Codec();
+            Queue<Command<String, String, ?>> queue = new ConcurrentLinkedQueue<Command<String, String, ?>>();
+
+            handler = new CommandHandler<String, String>(queue);
+            if (flushBatchSize > 0) {
+                handler.setAutoFlush(flushBatchSize, flushDelay, TimeUnit.NANOSECONDS, timer);
+            }
+            redisHandler = new RedisHandler<String, String>(queue, codec, timeout);
+            redisHandler.setExecutor(callbackExecutor);
+            redisHandler.setCoalesceReads(coalesceReads);
+            redisHandler.setCommandTimeout(commandTimeout, TimeUnit.NANOSECONDS, timer);
+            if (probeTimeout > 0) {
+                redisHandler.setReadinessProbe(probeTimeout, TimeUnit.NANOSECONDS, timer);
+            }
+            if (batchScheduler != null) {
+                redisHandler.setGetBatching(batchKeys, batchWindow, TimeUnit.NANOSECONDS, batchScheduler);
+            }
+            if (inflightPolicy != null) {
+                InflightLimiter limiter = new InflightLimiter(maxInflight, maxInflightBytes, inflightPolicy,
+                        inflightWait, TimeUnit.NANOSECONDS);
+                handler.setLimiter(limiter);
+                redisHandler.setLimiter(limiter);
+            }
+            CommandLatencies latencies = RedisBootstrap.this.latencies;
+            if (latencies != null) {
+                CommandLatencies.Recorder recorder = latencies.recorder(shard);
+                handler.setLatencies(recorder);
+                redisHandler.setLatencies(recorder);
+            }
+            stats = monitor != null ? new ConnectionStats() : null;
+            handler.setStats(stats);
+            redisHandler.setStats(stats);
 
-            bootstrap.setPipeline(pipeline);
-            ChannelFuture future = bootstrap.connect(address);
+            watchdog = new RedisWatchdog(bootstrap, channels, timer, address, RedisHandler.class);
+            if (reconnectPolicy != null) {
+                watchdog.setReconnectPolicy(reconnectPolicy);
+            }
+            allConnections.add(this);
+        }
 
-            future.await();
+        /**
+         * Start connecting on a channel of its own, so any number of shards
+         * connect concurrently.
+         */
+        ChannelFuture connect() {
+            ChannelPipeline pipeline = Channels.pipeline(watchdog, handler, redisHandler);
+            Channel channel = bootstrap.getFactory().newChannel(pipeline);
+            channel.getConfig().setOptions(bootstrap.getOptions());
+            future = channel.connect(address);
+            return future;
+        }
+
+        /**
+         * Wait for the connect started by {@link #connect()}.
+         *
+         * @param deadline  {@link System#nanoTime()} after which to give up.
+         *
+         * @return true if connected.
+         */
+        boolean await(long deadline) {
+            try {
+                if (!future.await(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                    future.cancel();
+                    future.getChannel().close();
+                    down("Connection timed out: " + shard);
+                    return false;
+                }
+            } catch (InterruptedException e) {
+                throw new RedisCmdInterruptedException(e);
+            }
             if (!future.isSuccess()) {
-                future.getCause().printStackTrace();
-                return null;
+                down("Unable to connect to " + shard + ": " + future.getCause());
+                return false;
             }
+            connected(future.getChannel());
+            register();
+            return true;
+        }
 
+        /**
+         * Keep a shard that failed to connect as a placeholder, so it keeps
+         * its place among the shards. Commands routed to it fail fast while
+         * the watchdog retries in the background, and it takes traffic again
+         * once connected.
+         *
+         * @param cause Why the connect failed.
+         */
+        void down(String cause) {
+            redisHandler.markDown(cause);
             watchdog.setReconnect(true);
-            this.channels.add(future.getChannel());
-            return redisHandler;
-        } catch (Throwable e) {
-            e.printStackTrace();
-            return null;
+            watchdog.scheduleReconnect();
+            register();
+        }
+
+        /**
+         * Connect on the first command dispatched to the shard instead of now.
+         * A failed connect fails the queued commands and is retried by the
+         * next command.
+         */
+        void lazy() {
+            register();
+            connectOnDemand();
+        }
+
+        /**
+         * Like {@link #lazy()}, for connections that are not shards and are
+         * left out of monitoring and health checks.
+         */
+        void connectOnDemand() {
+            redisHandler.setConnector(new Runnable() {
+                @Override
+                public void run() {
+                    final Runnable connector = this;
+                    connect().addListener(new ChannelFutureListener() {
+                        @Override
+                        public void operationComplete(ChannelFuture future) throws Exception {
+                            if (future.isSuccess()) {
+                                connected(future.getChannel());
+                            } else {
+                                // re-arm first, so a command dispatched meanwhile still connects
+                                redisHandler.setConnector(connector);
+                                redisHandler.connectFailed("Unable to connect to " + shard);
+                            }
+                        }
+                    });
+                }
+            });
+        }
+
+        void connected(Channel channel) {
+            watchdog.setReconnect(true);
+            channels.add(channel);
+        }
+
+        /**
+         * Fail whatever is queued and stop reconnecting, whether the channel
+         * is connected, still connecting, down or was never requested.
+         */
+        void close() {
+            redisHandler.close();
+            watchdog.stop();
+        }
+
+        void register() {
+            ClientMonitor monitor = RedisBootstrap.this.monitor;
+            if (monitor != null && stats != null) {
+                monitor.add(new ShardMonitor(shard, redisHandler, watchdog, stats));
+            }
+            HealthChecker healthChecker = RedisBootstrap.this.healthChecker;
+            if (healthChecker != null) {
+                healthChecker.add(shard, redisHandler);
+            }
         }
     }
 
@@ -151,6 +728,15 @@ public class RedisBootstrap {
      * discarded after calling shutdown.
      */
     public void shutdown() {
+        if (healthChecker != null) {
+            healthChecker.stop();
+        }
+        for (Connection connection : allConnections) {
+            connection.close();
+        }
+        for (RedisWatchdog watchdog : pubSubWatchdogs) {
+            watchdog.stop();
+        }
         for (Channel c : channels) {
             ChannelPipeline pipeline = c.getPipeline();
             RedisHandler<?, ?> connection = pipeline.get(RedisHandler.class);
@@ -159,6 +745,12 @@ public class RedisBootstrap {
         ChannelGroupFuture future = channels.close();
         future.awaitUninterruptibly();
         bootstrap.releaseExternalResources();
+        if (monitor != null) {
+            monitor.unregister();
+        }
+        if (batchScheduler != null) {
+            batchScheduler.shutdown();
+        }
     }
 
 }
@@ -3,14 +3,24 @@ package jmind.redis;
 import jmind.base.lang.ScoreValue;
 import jmind.base.lang.shard.ConsistentHashLoadBalance;
 import jmind.base.lang.shard.LoadBalance;
+import jmind.redis.metrics.CommandLatencies;
 import jmind.redis.out.CommandOut;
+import jmind.redis.out.KeyStreamingChannel;
+import jmind.redis.out.KeyValue;
+import jmind.redis.out.KeyValueStreamingChannel;
+import jmind.redis.out.ScanArgs;
+import jmind.redis.out.ScanResult;
+import jmind.redis.out.ScoredValueStreamingChannel;
 import jmind.redis.out.SortArgs;
+import jmind.redis.out.ValueStreamingChannel;
 import jmind.redis.protocol.Command;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * @param <K>
@@ -43,41 +53,253 @@ public class RedisCmd<K, V> {
         return shards.getShard(key.toString());
     }
 
+    /**
+     * Get every shard of this client, for commands sent to all of them.
+     *
+     * @return The shards.
+     */
+    protected List<RedisHandler<K, V>> getShards() {
+        return shards.getShards();
+    }
+
     public void close() {
-        for (RedisHandler<K, V> shard : shards.getShards()) {
+        for (RedisHandler<K, V> shard : getShards()) {
             shard.close();
         }
     }
 
+    /**
+     * Get the latencies of the commands sent by this client, by command type
+     * and by shard. Only recorded when enabled with
+     * {@link RedisBootstrap#setLatencyTracking(boolean)}.
+     *
+     * @return The latency registry, or null if latencies are not recorded.
+     */
+    public CommandLatencies getLatencies() {
+        for (RedisHandler<K, V> shard : getShards()) {
+            CommandLatencies latencies = shard.getLatencies();
+            if (latencies != null)
+                return latencies;
+        }
+        return null;
+    }
+
+    /**
+     * Start a batch of commands, routed to shards like this client, that is
+     * sent with one flush per shard by {@link RedisBatch#execute()}.
+     *
+     * @return A new batch.
+     */
+    public RedisBatch<K, V> batch() {
+        return new RedisBatch<K, V>(this);
+    }
+
+    /**
+     * Get a {@link CompletableFuture} view of a future returned by this client,
+     * so results can be consumed with non-blocking callbacks.
+     *
+     * @param future    Future returned by a command method.
+     *
+     * @return A completion stage of the same result.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> CompletableFuture<T> toCompletableFuture(Future<T> future) {
+        if (future instanceof Command)
+            return ((Command<?, ?, T>) future).toCompletableFuture();
+        if (future instanceof MultiShardFuture)
+            return ((MultiShardFuture<?, ?, T>) future).toCompletableFuture();
+        if (future instanceof CompletableFuture)
+            return (CompletableFuture<T>) future;
+        throw new IllegalArgumentException("Unsupported future " + future.getClass().getName());
+    }
+
     public <T> T await(Future<T> future) {
+        long timeout = shards.getFisrt().timeout;
+        if (!(future instanceof Command)) {
+            try {
+                return future.get(timeout, TimeUnit.SECONDS);
+            } catch (TimeoutException e) {
+                future.cancel(true);
+                throw new RedisException("Command timed out");
+            } catch (InterruptedException e) {
+                throw new RedisCmdInterruptedException(e);
+            } catch (ExecutionException e) {
+                throw new RedisException(e.getCause().getMessage(), e.getCause());
+            }
+        }
         @SuppressWarnings("unchecked")
         Command<String, String, T> cmd = (Command<String, String, T>) future;
-        if (!cmd.await(shards.getFisrt().timeout, TimeUnit.SECONDS)) {
-            cmd.cancel(true);
+        if (!cmd.await(timeout, TimeUnit.SECONDS)) {
+            cmd.timeout();
             throw new RedisException("Command timed out");
         }
+        if (cmd.isCancelled())
+            throw new RedisException(cmd.isTimedOut() ? "Command timed out" : "Command cancelled");
         CommandOut<String, String, T> output = cmd.getOutput();
         if (output.hasError())
             throw new RedisException(output.getError());
         return output.get();
     }
 
+    /**
+     * Group keys by the shard that owns them, keeping the position of every
+     * key in the caller's array.
+     *
+     * @param keys  Keys to group.
+     *
+     * @return Key positions keyed by shard.
+     */
+    protected Map<RedisHandler<K, V>, List<Integer>> groupByShard(K[] keys) {
+        Map<RedisHandler<K, V>, List<Integer>> groups = new LinkedHashMap<RedisHandler<K, V>, List<Integer>>();
+        for (int i = 0; i < keys.length; i++) {
+            RedisHandler<K, V> shard = getShard(keys[i]);
+            List<Integer> positions = groups.get(shard);
+            if (positions == null) {
+                positions = new ArrayList<Integer>();
+                groups.put(shard, positions);
+            }
+            positions.add(i);
+        }
+        return groups;
+    }
+
+    /**
+     * Split a map of keys and values by the shard that owns each key.
+     *
+     * @param map   Keys and values to split.
+     *
+     * @return Keys and values keyed by shard.
+     */
+    protected Map<RedisHandler<K, V>, Map<K, V>> groupByShard(Map<K, V> map) {
+        Map<RedisHandler<K, V>, Map<K, V>> groups = new LinkedHashMap<RedisHandler<K, V>, Map<K, V>>();
+        for (Map.Entry<K, V> entry : map.entrySet()) {
+            RedisHandler<K, V> shard = getShard(entry.getKey());
+            Map<K, V> part = groups.get(shard);
+            if (part == null) {
+                part = new LinkedHashMap<K, V>();
+                groups.put(shard, part);
+            }
+            part.put(entry.getKey(), entry.getValue());
+        }
+        return groups;
+    }
+
+    /**
+     * Copy the keys at the given positions into a new array of the same type.
+     */
+    protected K[] select(K[] keys, List<Integer> positions) {
+        K[] selected = Arrays.copyOf(keys, positions.size());
+        for (int i = 0; i < selected.length; i++) {
+            selected[i] = keys[positions.get(i)];
+        }
+        return selected;
+    }
+
     /*******************Key*********************************/
     public long del(K... keys) {
-        long i = 0;
-        for (K key : keys) {
-            try {
-                i += getShard(key).del(key).get();
-            } catch (InterruptedException e) {
-                // TODO Auto-generated catch block
-                e.printStackTrace();
-            } catch (ExecutionException e) {
-                // TODO Auto-generated catch block
-                e.printStackTrace();
+        return await(delAsync(keys));
+    }
+
+    /**
+     * Send one DEL per shard, all shards at once.
+     *
+     * @param keys  Keys to delete.
+     *
+     * @return Future of the total number of keys removed, also when all keys
+     *         are on one shard. Shards that failed are reported by
+     *         {@link MultiShardFuture#errors()}.
+     */
+    @SuppressWarnings("unchecked")
+    public MultiShardFuture<K, V, Long> delAsync(K... keys) {
+        Map<RedisHandler<K, V>, List<Integer>> groups = groupByShard(keys);
+        MultiShardFuture<K, V, Long> future = new MultiShardFuture<K, V, Long>() {
+            @Override
+            protected Long merge() {
+                long removed = 0;
+                for (Command<K, V, ?> cmd : commands) {
+                    removed += (Long) cmd.getOutput().get();
+                }
+                return removed;
             }
+        };
+
+        for (Map.Entry<RedisHandler<K, V>, List<Integer>> group : groups.entrySet()) {
+            RedisHandler<K, V> shard = group.getKey();
+            future.add(shard, (Command<K, V, ?>) shard.del(select(keys, group.getValue())));
+        }
+        return future;
+    }
+
+    /**
+     * Stream the keys matching a pattern from every shard, all shards at once.
+     * Keys are handed to the channel as they are decoded, so the channel may
+     * be called concurrently by different shards.
+     *
+     * @param channel   Receives each key.
+     * @param pattern   Key pattern.
+     *
+     * @return Future of the total number of keys streamed.
+     */
+    public Future<Long> keys(KeyStreamingChannel<K> channel, K pattern) {
+        return keys(getShards(), channel, pattern);
+    }
+
+    @SuppressWarnings("unchecked")
+    protected Future<Long> keys(Collection<RedisHandler<K, V>> all, KeyStreamingChannel<K> channel, K pattern) {
+        if (all.size() == 1) {
+            return all.iterator().next().keys(channel, pattern);
         }
-        return i;
 
+        MultiShardFuture<K, V, Long> future = new MultiShardFuture<K, V, Long>() {
+            @Override
+            protected Long merge() {
+                long count = 0;
+                for (Command<K, V, ?> cmd : commands) {
+                    count += (Long) cmd.getOutput().get();
+                }
+                return count;
+            }
+        };
+
+        for (RedisHandler<K, V> shard : all) {
+            future.add(shard, (Command<K, V, ?>) shard.keys(channel, pattern));
+        }
+        return future;
+    }
+
+    /**
+     * Walk the keyspace of every shard with SCAN. All shards are scanned
+     * concurrently and the next page of each shard is fetched while the
+     * current one is consumed.
+     *
+     * @param scanArgs  MATCH and COUNT options of every SCAN.
+     *
+     * @return A lazy spliterator over the keys of all shards.
+     */
+    public Spliterator<K> scanSpliterator(final ScanArgs scanArgs) {
+        List<ScanSpliterator.Source<K>> sources = new ArrayList<ScanSpliterator.Source<K>>();
+        for (final RedisHandler<K, V> shard : getShards()) {
+            sources.add(new ScanSpliterator.Source<K>() {
+                @Override
+                protected Future<ScanResult<K>> scan(String cursor) {
+                    return shard.scan(cursor, scanArgs);
+                }
+            });
+        }
+        return new ScanSpliterator<K>(this, sources);
+    }
+
+    /**
+     * Walk the keyspace of every shard with SCAN.
+     *
+     * @param scanArgs  MATCH and COUNT options of every SCAN.
+     *
+     * @return A lazy iterator over the keys of all shards.
+     *
+     * @see #scanSpliterator(ScanArgs)
+     */
+    public Iterator<K> scanIterator(ScanArgs scanArgs) {
+        return Spliterators.iterator(scanSpliterator(scanArgs));
     }
 
     public Future<Long> ttl(K key) {
@@ -163,25 +385,111 @@ public class RedisCmd<K, V> {
         return getShard(key).append(key, value);
     }
 
+    /**
+     * Send one MSET per shard, all shards at once.
+     *
+     * @param map   Keys and values to set.
+     *
+     * @return Future of "OK" once every shard succeeded, also when all keys
+     *         are on one shard. Shards that failed are reported by
+     *         {@link MultiShardFuture#errors()}.
+     */
+    @SuppressWarnings("unchecked")
+    public MultiShardFuture<K, V, String> mset(Map<K, V> map) {
+        Map<RedisHandler<K, V>, Map<K, V>> groups = groupByShard(map);
+        MultiShardFuture<K, V, String> future = new MultiShardFuture<K, V, String>() {
+            @Override
+            protected String merge() {
+                return "OK";
+            }
+        };
+
+        for (Map.Entry<RedisHandler<K, V>, Map<K, V>> group : groups.entrySet()) {
+            RedisHandler<K, V> shard = group.getKey();
+            future.add(shard, (Command<K, V, ?>) shard.mset(group.getValue()));
+        }
+        return future;
+    }
+
+    /**
+     * Send one MSETNX per shard, all shards at once. Each shard applies its
+     * part atomically, but there is no atomicity across shards: some shards
+     * may set their keys while others refuse.
+     *
+     * @param map   Keys and values to set.
+     *
+     * @return Future of true when every shard set all of its keys, also when
+     *         all keys are on one shard. Shards that failed are reported by
+     *         {@link MultiShardFuture#errors()}.
+     */
+    @SuppressWarnings("unchecked")
+    public MultiShardFuture<K, V, Boolean> msetnx(Map<K, V> map) {
+        Map<RedisHandler<K, V>, Map<K, V>> groups = groupByShard(map);
+        MultiShardFuture<K, V, Boolean> future = new MultiShardFuture<K, V, Boolean>() {
+            @Override
+            protected Boolean merge() {
+                for (Command<K, V, ?> cmd : commands) {
+                    if (!(Boolean) cmd.getOutput().get())
+                        return false;
+                }
+                return true;
+            }
+        };
+
+        for (Map.Entry<RedisHandler<K, V>, Map<K, V>> group : groups.entrySet()) {
+            RedisHandler<K, V> shard = group.getKey();
+            future.add(shard, (Command<K, V, ?>) shard.msetnx(group.getValue()));
+        }
+        return future;
+    }
+
     public Future<V> get(K key) {
         return getShard(key).get(key);
 
     }
 
     public List<V> mget(K... keys) {
-        List<V> list = new ArrayList<V>();
-        for (K key : keys) {
-            try {
-                list.add(get(key).get());
-            } catch (InterruptedException e) {
-                // TODO Auto-generated catch block
-                e.printStackTrace();
-            } catch (ExecutionException e) {
-                // TODO Auto-generated catch block
-                e.printStackTrace();
+        return await(mgetAsync(keys));
+    }
+
+    /**
+     * Send one MGET per shard, all shards at once, and return the values in
+     * the order of the supplied keys.
+     *
+     * @param keys  Keys to fetch.
+     *
+     * @return Future of the values, positioned like the keys.
+     */
+    @SuppressWarnings("unchecked")
+    public Future<List<V>> mgetAsync(K... keys) {
+        Map<RedisHandler<K, V>, List<Integer>> groups = groupByShard(keys);
+        if (groups.size() == 1) {
+            return groups.keySet().iterator().next().mget(keys);
+        }
+
+        final int size = keys.length;
+        final List<List<Integer>> positions = new ArrayList<List<Integer>>(groups.size());
+        MultiShardFuture<K, V, List<V>> future = new MultiShardFuture<K, V, List<V>>() {
+            @Override
+            protected List<V> merge() {
+                List<V> values = new ArrayList<V>(Collections.<V> nCopies(size, null));
+                for (int i = 0; i < commands.size(); i++) {
+                    List<V> part = (List<V>) commands.get(i).getOutput().get();
+                    List<Integer> index = positions.get(i);
+                    for (int j = 0; j < index.size(); j++) {
+                        values.set(index.get(j), part.get(j));
+                    }
+                }
+                return values;
             }
+        };
+
+        for (Map.Entry<RedisHandler<K, V>, List<Integer>> group : groups.entrySet()) {
+            RedisHandler<K, V> shard = group.getKey();
+            positions.add(group.getValue());
+            future.add(shard, (Command<K, V, ?>) shard.mget(select(keys, group.getValue())));
         }
-        return list;
+        return future;
     }
 
     public Future<V> getrange(K key, long start, long end) {
@@ -250,6 +558,10 @@ public class RedisCmd<K, V> {
         return getShard(key).hgetall(key);
     }
 
+    public Future<Long> hgetall(KeyValueStreamingChannel<K, V> channel, K key) {
+        return getShard(key).hgetall(channel, key);
+    }
+
     public Future<Set<K>> hkeys(K key) {
         return getShard(key).hkeys(key);
     }
@@ -266,6 +578,14 @@ public class RedisCmd<K, V> {
         return getShard(key).hmset(key, map);
     }
 
+    public Future<ScanResult<KeyValue<K, V>>> hscan(K key, String cursor) {
+        return getShard(key).hscan(key, cursor);
+    }
+
+    public Future<ScanResult<KeyValue<K, V>>> hscan(K key, String cursor, ScanArgs scanArgs) {
+        return getShard(key).hscan(key, cursor, scanArgs);
+    }
+
     public Future<Long> hset(K key, K field, V value) {
         return getShard(key).hset(key, field, value);
     }
@@ -308,6 +628,10 @@ public class RedisCmd<K, V> {
         return getShard(key).lrange(key, start, stop);
     }
 
+    public Future<Long> lrange(ValueStreamingChannel<V> channel, K key, long start, long stop) {
+        return getShard(key).lrange(channel, key, start, stop);
+    }
+
     public Future<Long> lrem(K key, long count, V value) {
         return getShard(key).lrem(key, count, value);
     }
@@ -355,6 +679,14 @@ public class RedisCmd<K, V> {
         return getShard(key).srem(key, members);
     }
 
+    public Future<ScanResult<V>> sscan(K key, String cursor) {
+        return getShard(key).sscan(key, cursor);
+    }
+
+    public Future<ScanResult<V>> sscan(K key, String cursor, ScanArgs scanArgs) {
+        return getShard(key).sscan(key, cursor, scanArgs);
+    }
+
     public Future<V> spop(K key) {
         return getShard(key).spop(key);
     }
@@ -375,6 +707,10 @@ public class RedisCmd<K, V> {
         return getShard(key).smembers(key);
     }
 
+    public Future<Long> smembers(ValueStreamingChannel<V> channel, K key) {
+        return getShard(key).smembers(channel, key);
+    }
+
     /************Sorted Set***********************/
 
     public Future<Long> zadd(K key, double score, V member) {
@@ -438,6 +774,50 @@ public class RedisCmd<K, V> {
         return getShard(key).zrangebyscoreWithScores(key, min, max, offset, count);
     }
 
+    public Future<Long> zrange(ValueStreamingChannel<V> channel, K key, long start, long stop) {
+        return getShard(key).zrange(channel, key, start, stop);
+    }
+
+    public Future<Long> zrangeWithScores(ScoredValueStreamingChannel<V> channel, K key, long start, long stop) {
+        return getShard(key).zrangeWithScores(channel, key, start, stop);
+    }
+
+    public Future<Long> zrangebyscore(ValueStreamingChannel<V> channel, K key, double min, double max) {
+        return getShard(key).zrangebyscore(channel, key, min, max);
+    }
+
+    public Future<Long> zrangebyscore(ValueStreamingChannel<V> channel, K key, String min, String max) {
+        return getShard(key).zrangebyscore(channel, key, min, max);
+    }
+
+    public Future<Long> zrangebyscore(ValueStreamingChannel<V> channel, K key, double min, double max, long offset,
+            long count) {
+        return getShard(key).zrangebyscore(channel, key, min, max, offset, count);
+    }
+
+    public Future<Long> zrangebyscore(ValueStreamingChannel<V> channel, K key, String min, String max, long offset,
+            long count) {
+        return getShard(key).zrangebyscore(channel, key, min, max, offset, count);
+    }
+
+    public Future<Long> zrangebyscoreWithScores(ScoredValueStreamingChannel<V> channel, K key, double min, double max) {
+        return getShard(key).zrangebyscoreWithScores(channel, key, min, max);
+    }
+
+    public Future<Long> zrangebyscoreWithScores(ScoredValueStreamingChannel<V> channel, K key, String min, String max) {
+        return getShard(key).zrangebyscoreWithScores(channel, key, min, max);
+    }
+
+    public Future<Long> zrangebyscoreWithScores(ScoredValueStreamingChannel<V> channel, K key, double min, double max,
+            long offset, long count) {
+        return getShard(key).zrangebyscoreWithScores(channel, key, min, max, offset, count);
+    }
+
+    public Future<Long> zrangebyscoreWithScores(ScoredValueStreamingChannel<V> channel, K key, String min, String max,
+            long offset, long count) {
+        return getShard(key).zrangebyscoreWithScores(channel, key, min, max, offset, count);
+    }
+
     public Future<Long> zrank(K key, V member) {
         return getShard(key).zrank(key, member);
     }
@@ -490,9 +870,30 @@ public class RedisCmd<K, V> {
         return getShard(key).zscore(key, member);
     }
 
+    public Future<ScanResult<ScoreValue<V>>> zscan(K key, String cursor) {
+        return getShard(key).zscan(key, cursor);
+    }
+
+    public Future<ScanResult<ScoreValue<V>>> zscan(K key, String cursor, ScanArgs scanArgs) {
+        return getShard(key).zscan(key, cursor, scanArgs);
+    }
+
     /********other*************/
     public Future<byte[]> dump(K key) {
         return getShard(key).dump(key);
     }
 
+    /**
+     * Publish a message on the first shard, the server that
+     * {@link RedisBootstrap#connectPubSub()} subscribes to.
+     *
+     * @param channel   Channel.
+     * @param message   Message.
+     *
+     * @return Future of the number of subscribers that received the message.
+     */
+    public Future<Long> publish(K channel, V message) {
+        return shards.getFisrt().publish(channel, message);
+    }
+
 }
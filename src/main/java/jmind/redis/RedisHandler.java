@@ -21,6 +21,7 @@ import static jmind.redis.protocol.CommandKeyword.REFCOUNT;
 import static jmind.redis.protocol.CommandKeyword.RESET;
 import static jmind.redis.protocol.CommandKeyword.RESETSTAT;
 import static jmind.redis.protocol.CommandKeyword.SETNAME;
+import static jmind.redis.protocol.CommandKeyword.SLOTS;
 import static jmind.redis.protocol.CommandKeyword.WITHSCORES;
 import static jmind.redis.protocol.CommandKeyword.XOR;
 import static jmind.redis.protocol.RedisCommand.*;
@@ -32,40 +33,73 @@ import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.BlockingQueue;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import jmind.base.lang.ScoreValue;
 import jmind.redis.codec.Base16;
 import jmind.redis.codec.RedisCodec;
+import jmind.redis.health.ShardHealth;
+import jmind.redis.metrics.CommandLatencies;
+import jmind.redis.metrics.ConnectionStats;
 import jmind.redis.out.BooleanListOutput;
 import jmind.redis.out.BooleanOutput;
 import jmind.redis.out.ByteArrayOutput;
+import jmind.redis.out.ClusterSlotsOutput;
 import jmind.redis.out.CommandOut;
 import jmind.redis.out.DateOutput;
 import jmind.redis.out.DoubleOutput;
 import jmind.redis.out.KeyListOutput;
 import jmind.redis.out.KeyOutput;
+import jmind.redis.out.KeyScanOutput;
 import jmind.redis.out.KeySetOutput;
+import jmind.redis.out.KeyStreamingChannel;
+import jmind.redis.out.KeyStreamingOutput;
 import jmind.redis.out.KeyValue;
 import jmind.redis.out.KeyValueOutput;
+import jmind.redis.out.KeyValueScanOutput;
+import jmind.redis.out.KeyValueStreamingChannel;
+import jmind.redis.out.KeyValueStreamingOutput;
 import jmind.redis.out.LongOutput;
 import jmind.redis.out.MapOutput;
 import jmind.redis.out.MultiOutput;
 import jmind.redis.out.NestedMultiOutput;
+import jmind.redis.out.ScanArgs;
+import jmind.redis.out.ScanResult;
 import jmind.redis.out.ScoredValueListOutput;
+import jmind.redis.out.ScoredValueScanOutput;
+import jmind.redis.out.ScoredValueStreamingChannel;
+import jmind.redis.out.ScoredValueStreamingOutput;
 import jmind.redis.out.ScriptOutputType;
+import jmind.redis.out.SlotRange;
 import jmind.redis.out.SortArgs;
 import jmind.redis.out.StatusOutput;
 import jmind.redis.out.StringListOutput;
 import jmind.redis.out.ValueListOutput;
 import jmind.redis.out.ValueOutput;
+import jmind.redis.out.ValueScanOutput;
 import jmind.redis.out.ValueSetOutput;
+import jmind.redis.out.ValueStreamingChannel;
+import jmind.redis.out.ValueStreamingOutput;
 import jmind.redis.out.ZStoreArgs;
 import jmind.redis.protocol.Command;
 import jmind.redis.protocol.CommandArgs;
+import jmind.redis.protocol.InflightLimiter;
 import jmind.redis.protocol.RedisCommand;
 import jmind.redis.protocol.RedisWatchdog;
 
@@ -73,28 +107,55 @@ import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.channel.ChannelStateEvent;
 import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.util.Timer;
 
 public class RedisHandler<K, V> extends SimpleChannelUpstreamHandler {
-    protected BlockingQueue<Command<K, V, ?>> queue;
+    private static final Object CONNECTED = new Object();
+    private static final Object CLOSED = new Object();
+
+    protected volatile Queue<Command<K, V, ?>> queue;
     protected RedisCodec<K, V> codec;
-    protected Channel channel;
+    protected volatile Channel channel;
     protected long timeout;
+    protected Executor executor = ForkJoinPool.commonPool();
 
     protected MultiOutput<K, V> multi;
     private String password;
     private int db;
     private boolean closed;
-    private boolean isConnect = false;
+    private volatile boolean isConnect = false;
+    private volatile String down;
+
+    private final Queue<Object> outbound = new ConcurrentLinkedQueue<Object>();
+    private final AtomicInteger wip = new AtomicInteger();
+    private volatile Channel connected;
+    private volatile ConcurrentMap<Read, Command<K, V, ?>> inflight;
+    private final AtomicLong writes = new AtomicLong();
+
+    private final Object batchLock = new Object();
+    private volatile ScheduledExecutorService batchScheduler;
+    private int batchKeys;
+    private long batchWindow;
+    private GetBatch batch;
+    private volatile CommandLatencies.Recorder latencies;
+    private volatile ConnectionStats stats;
+    private volatile Timer deadlineTimer;
+    private volatile InflightLimiter limiter;
+    private volatile ShardHealth health;
+    private volatile Timer probeTimer;
+    private final AtomicReference<Runnable> connector = new AtomicReference<Runnable>();
+    private long probeTimeout;
+    private long deadline;
 
     /**
      * Initialize a new connection.
      *
-     * @param queue   Command queue.
+     * @param queue   Queue of commands in flight, in the order they were written.
      * @param codec   Codec used to encode/decode keys and values.
      * @param timeout Maximum time to wait for a response.
      * @param unit    Unit of time for the timeout.
      */
-    public RedisHandler(BlockingQueue<Command<K, V, ?>> queue, RedisCodec<K, V> codec, long timeout) {
+    public RedisHandler(Queue<Command<K, V, ?>> queue, RedisCodec<K, V> codec, long timeout) {
         this.queue = queue;
         this.codec = codec;
         this.timeout = timeout;
@@ -193,6 +254,17 @@ public class RedisHandler<K, V> extends SimpleChannelUpstreamHandler {
         return dispatch(CLIENT, new StatusOutput<K, V>(codec), args);
     }
 
+    /**
+     * Get the ranges of hash slots of a redis cluster and the master serving
+     * each range.
+     *
+     * @return Future of the slot ranges.
+     */
+    public Future<List<SlotRange>> clusterSlots() {
+        CommandArgs<K, V> args = new CommandArgs<K, V>(codec).add(SLOTS);
+        return dispatch(CLUSTER, new ClusterSlotsOutput<K, V>(codec), args);
+    }
+
     public Future<List<String>> configGet(String parameter) {
         CommandArgs<K, V> args = new CommandArgs<K, V>(codec).add(GET).add(parameter);
         return dispatch(CONFIG, new StringListOutput<K, V>(codec), args);
@@ -272,7 +344,17 @@ public class RedisHandler<K, V> extends SimpleChannelUpstreamHandler {
         this.multi = null;
         if (multi == null)
             multi = new MultiOutput<K, V>(codec);
-        return dispatch(EXEC, multi);
+        final MultiOutput<K, V> queued = multi;
+        final Command<K, V, List<Object>> cmd = dispatch(EXEC, multi);
+        cmd.onComplete(new Runnable() {
+            @Override
+            public void run() {
+                if (cmd.isCancelled()) {
+                    queued.fail(cmd.isTimedOut() ? "Command timed out" : "Command cancelled");
+                }
+            }
+        });
+        return cmd;
     }
 
     public Future<String> flushall() throws Exception {
@@ -284,6 +366,10 @@ public class RedisHandler<K, V> extends SimpleChannelUpstreamHandler {
     }
 
     public Future<V> get(K key) {
+        if (batchScheduler != null && multi == null)
+            return batchGet(key);
+        if (inflight != null && multi == null)
+            return coalesce(GET, key, null);
         return dispatch(GET, new ValueOutput<K, V>(codec), key);
     }
 
@@ -312,6 +398,8 @@ public class RedisHandler<K, V> extends SimpleChannelUpstreamHandler {
     }
 
     public Future<V> hget(K key, K field) {
+        if (inflight != null && multi == null)
+            return coalesce(HGET, key, field);
         CommandArgs<K, V> args = new CommandArgs<K, V>(codec).addKey(key).addKey(field);
         return dispatch(HGET, new ValueOutput<K, V>(codec), args);
     }
@@ -330,6 +418,10 @@ public class RedisHandler<K, V> extends SimpleChannelUpstreamHandler {
         return dispatch(HGETALL, new MapOutput<K, V>(codec), key);
     }
 
+    public Future<Long> hgetall(KeyValueStreamingChannel<K, V> channel, K key) {
+        return dispatch(HGETALL, new KeyValueStreamingOutput<K, V>(codec, channel), key);
+    }
+
     public Future<Set<K>> hkeys(K key) {
         return dispatch(HKEYS, new KeySetOutput<K, V>(codec), key);
     }
@@ -348,6 +440,16 @@ public class RedisHandler<K, V> extends SimpleChannelUpstreamHandler {
         return dispatch(HMSET, new StatusOutput<K, V>(codec), args);
     }
 
+    public Future<ScanResult<KeyValue<K, V>>> hscan(K key, String cursor) {
+        return hscan(key, cursor, new ScanArgs());
+    }
+
+    public Future<ScanResult<KeyValue<K, V>>> hscan(K key, String cursor, ScanArgs scanArgs) {
+        CommandArgs<K, V> args = new CommandArgs<K, V>(codec).addKey(key).add(cursor);
+        scanArgs.build(args);
+        return dispatch(HSCAN, new KeyValueScanOutput<K, V>(codec), args);
+    }
+
     public Future<Long> hset(K key, K field, V value) {
         CommandArgs<K, V> args = new CommandArgs<K, V>(codec).addKey(key).addKey(field).addValue(value);
         return dispatch(HSET, new LongOutput<K, V>(codec), args);
@@ -389,6 +491,10 @@ public class RedisHandler<K, V> extends SimpleChannelUpstreamHandler {
         return dispatch(KEYS, new KeyListOutput<K, V>(codec), pattern);
     }
 
+    public Future<Long> keys(KeyStreamingChannel<K> channel, K pattern) {
+        return dispatch(KEYS, new KeyStreamingOutput<K, V>(codec, channel), pattern);
+    }
+
     public Future<Date> lastsave() {
         return dispatch(LASTSAVE, new DateOutput<K, V>(codec));
     }
@@ -425,6 +531,11 @@ public class RedisHandler<K, V> extends SimpleChannelUpstreamHandler {
         return dispatch(LRANGE, new ValueListOutput<K, V>(codec), args);
     }
 
+    public Future<Long> lrange(ValueStreamingChannel<V> channel, K key, long start, long stop) {
+        CommandArgs<K, V> args = new CommandArgs<K, V>(codec).addKey(key).add(start).add(stop);
+        return dispatch(LRANGE, new ValueStreamingOutput<K, V>(codec, channel), args);
+    }
+
     public Future<Long> lrem(K key, long count, V value) {
         CommandArgs<K, V> args = new CommandArgs<K, V>(codec).addKey(key).add(count).addValue(value);
         return dispatch(LREM, new LongOutput<K, V>(codec), args);
@@ -559,6 +670,16 @@ public class RedisHandler<K, V> extends SimpleChannelUpstreamHandler {
         return dispatch(SAVE, new StatusOutput<K, V>(codec));
     }
 
+    public Future<ScanResult<K>> scan(String cursor) {
+        return scan(cursor, new ScanArgs());
+    }
+
+    public Future<ScanResult<K>> scan(String cursor, ScanArgs scanArgs) {
+        CommandArgs<K, V> args = new CommandArgs<K, V>(codec).add(cursor);
+        scanArgs.build(args);
+        return dispatch(SCAN, new KeyScanOutput<K, V>(codec), args);
+    }
+
     public Future<Long> scard(K key) {
         return dispatch(SCARD, new LongOutput<K, V>(codec), key);
     }
@@ -620,6 +741,19 @@ public class RedisHandler<K, V> extends SimpleChannelUpstreamHandler {
         return dispatch(SMOVE, new BooleanOutput<K, V>(codec), args);
     }
 
+    /**
+     * Ask a sentinel for the address of the current master of a group.
+     *
+     * @param name  Name of the master group.
+     *
+     * @return Future of the host and port, or an empty list if the sentinel
+     *         does not know the group.
+     */
+    public Future<List<String>> sentinelGetMasterAddrByName(String name) {
+        CommandArgs<K, V> args = new CommandArgs<K, V>(codec).add("get-master-addr-by-name").add(name);
+        return dispatch(SENTINEL, new StringListOutput<K, V>(codec), args);
+    }
+
     public Future<String> slaveof(String host, int port) {
         CommandArgs<K, V> args = new CommandArgs<K, V>(codec).add(host).add(port);
         return dispatch(SLAVEOF, new StatusOutput<K, V>(codec), args);
@@ -654,6 +788,10 @@ public class RedisHandler<K, V> extends SimpleChannelUpstreamHandler {
         return dispatch(SMEMBERS, new ValueSetOutput<K, V>(codec), key);
     }
 
+    public Future<Long> smembers(ValueStreamingChannel<V> channel, K key) {
+        return dispatch(SMEMBERS, new ValueStreamingOutput<K, V>(codec, channel), key);
+    }
+
     public Future<List<V>> sort(K key) {
         return dispatch(SORT, new ValueListOutput<K, V>(codec), key);
     }
@@ -687,6 +825,16 @@ public class RedisHandler<K, V> extends SimpleChannelUpstreamHandler {
         return dispatch(SREM, new LongOutput<K, V>(codec), key, members);
     }
 
+    public Future<ScanResult<V>> sscan(K key, String cursor) {
+        return sscan(key, cursor, new ScanArgs());
+    }
+
+    public Future<ScanResult<V>> sscan(K key, String cursor, ScanArgs scanArgs) {
+        CommandArgs<K, V> args = new CommandArgs<K, V>(codec).addKey(key).add(cursor);
+        scanArgs.build(args);
+        return dispatch(SSCAN, new ValueScanOutput<K, V>(codec), args);
+    }
+
     public Future<Set<V>> sunion(K... keys) {
         CommandArgs<K, V> args = new CommandArgs<K, V>(codec).addKeys(keys);
         return dispatch(SUNION, new ValueSetOutput<K, V>(codec), args);
@@ -815,6 +963,60 @@ public class RedisHandler<K, V> extends SimpleChannelUpstreamHandler {
         return dispatch(ZRANGEBYSCORE, new ScoredValueListOutput<K, V>(codec), args);
     }
 
+    public Future<Long> zrange(ValueStreamingChannel<V> channel, K key, long start, long stop) {
+        CommandArgs<K, V> args = new CommandArgs<K, V>(codec).addKey(key).add(start).add(stop);
+        return dispatch(ZRANGE, new ValueStreamingOutput<K, V>(codec, channel), args);
+    }
+
+    public Future<Long> zrangeWithScores(ScoredValueStreamingChannel<V> channel, K key, long start, long stop) {
+        CommandArgs<K, V> args = new CommandArgs<K, V>(codec);
+        args.addKey(key).add(start).add(stop).add(WITHSCORES);
+        return dispatch(ZRANGE, new ScoredValueStreamingOutput<K, V>(codec, channel), args);
+    }
+
+    public Future<Long> zrangebyscore(ValueStreamingChannel<V> channel, K key, double min, double max) {
+        return zrangebyscore(channel, key, string(min), string(max));
+    }
+
+    public Future<Long> zrangebyscore(ValueStreamingChannel<V> channel, K key, String min, String max) {
+        CommandArgs<K, V> args = new CommandArgs<K, V>(codec).addKey(key).add(min).add(max);
+        return dispatch(ZRANGEBYSCORE, new ValueStreamingOutput<K, V>(codec, channel), args);
+    }
+
+    public Future<Long> zrangebyscore(ValueStreamingChannel<V> channel, K key, double min, double max, long offset,
+            long count) {
+        return zrangebyscore(channel, key, string(min), string(max), offset, count);
+    }
+
+    public Future<Long> zrangebyscore(ValueStreamingChannel<V> channel, K key, String min, String max, long offset,
+            long count) {
+        CommandArgs<K, V> args = new CommandArgs<K, V>(codec);
+        args.addKey(key).add(min).add(max).add(LIMIT).add(offset).add(count);
+        return dispatch(ZRANGEBYSCORE, new ValueStreamingOutput<K, V>(codec, channel), args);
+    }
+
+    public Future<Long> zrangebyscoreWithScores(ScoredValueStreamingChannel<V> channel, K key, double min, double max) {
+        return zrangebyscoreWithScores(channel, key, string(min), string(max));
+    }
+
+    public Future<Long> zrangebyscoreWithScores(ScoredValueStreamingChannel<V> channel, K key, String min, String max) {
+        CommandArgs<K, V> args = new CommandArgs<K, V>(codec);
+        args.addKey(key).add(min).add(max).add(WITHSCORES);
+        return dispatch(ZRANGEBYSCORE, new ScoredValueStreamingOutput<K, V>(codec, channel), args);
+    }
+
+    public Future<Long> zrangebyscoreWithScores(ScoredValueStreamingChannel<V> channel, K key, double min, double max,
+            long offset, long count) {
+        return zrangebyscoreWithScores(channel, key, string(min), string(max), offset, count);
+    }
+
+    public Future<Long> zrangebyscoreWithScores(ScoredValueStreamingChannel<V> channel, K key, String min, String max,
+            long offset, long count) {
+        CommandArgs<K, V> args = new CommandArgs<K, V>(codec);
+        args.addKey(key).add(min).add(max).add(WITHSCORES).add(LIMIT).add(offset).add(count);
+        return dispatch(ZRANGEBYSCORE, new ScoredValueStreamingOutput<K, V>(codec, channel), args);
+    }
+
     public Future<Long> zrank(K key, V member) {
         return dispatch(ZRANK, new LongOutput<K, V>(codec), key, member);
     }
@@ -891,6 +1093,16 @@ public class RedisHandler<K, V> extends SimpleChannelUpstreamHandler {
         return dispatch(ZREVRANK, new LongOutput<K, V>(codec), key, member);
     }
 
+    public Future<ScanResult<ScoreValue<V>>> zscan(K key, String cursor) {
+        return zscan(key, cursor, new ScanArgs());
+    }
+
+    public Future<ScanResult<ScoreValue<V>>> zscan(K key, String cursor, ScanArgs scanArgs) {
+        CommandArgs<K, V> args = new CommandArgs<K, V>(codec).addKey(key).add(cursor);
+        scanArgs.build(args);
+        return dispatch(ZSCAN, new ScoredValueScanOutput<K, V>(codec), args);
+    }
+
     public Future<Double> zscore(K key, V member) {
         return dispatch(ZSCORE, new DoubleOutput<K, V>(codec), key, member);
     }
@@ -952,6 +1164,16 @@ public class RedisHandler<K, V> extends SimpleChannelUpstreamHandler {
         return dispatch(PING, new StatusOutput<K, V>(codec));
     }
 
+    /**
+     * Send a PING on behalf of the client itself, such as a health probe, see
+     * {@link #dispatchInternal(Command)}.
+     *
+     * @return Future of the reply.
+     */
+    public Future<String> pingInternal() {
+        return dispatchInternal(new Command<K, V, String>(PING, new StatusOutput<K, V>(codec), null, false));
+    }
+
     public Future<V> echo(V msg) {
         CommandArgs<K, V> args = new CommandArgs<K, V>(codec).addValue(msg);
         return dispatch(ECHO, new ValueOutput<K, V>(codec), args);
@@ -985,41 +1207,266 @@ public class RedisHandler<K, V> extends SimpleChannelUpstreamHandler {
      * @return True if all futures complete in time.
      */
     public boolean awaitAll(long timeout, TimeUnit unit, Future<?>... futures) {
-        boolean complete;
+        long nanos = unit.toNanos(timeout);
+        long time = System.nanoTime();
 
-        try {
-            long nanos = unit.toNanos(timeout);
-            long time = System.nanoTime();
+        for (Future<?> f : futures) {
+            if (nanos < 0 || !await(f, nanos))
+                return false;
 
-            for (Future<?> f : futures) {
-                if (nanos < 0)
-                    return false;
-                f.get(nanos, TimeUnit.NANOSECONDS);
+            long now = System.nanoTime();
+            nanos -= now - time;
+            time = now;
+        }
 
-                long now = System.nanoTime();
-                nanos -= now - time;
-                time = now;
-            }
+        return true;
+    }
+
+    /**
+     * Wait for a future to complete, successfully or not.
+     */
+    private static boolean await(Future<?> future, long nanos) {
+        if (future instanceof Command)
+            return ((Command<?, ?, ?>) future).await(nanos, TimeUnit.NANOSECONDS);
 
-            complete = true;
+        try {
+            future.get(nanos, TimeUnit.NANOSECONDS);
         } catch (TimeoutException e) {
-            complete = false;
-        } catch (Exception e) {
+            return false;
+        } catch (InterruptedException e) {
             throw new RedisCmdInterruptedException(e);
+        } catch (ExecutionException e) {
+            // completed with an error
+        } catch (CancellationException e) {
+            // completed by cancellation
+        } catch (RedisException e) {
+            // completed with an error
+        }
+        return true;
+    }
+
+    /**
+     * Set the executor that runs completion stages of this connection's
+     * commands, instead of the netty I/O thread.
+     *
+     * @param executor Executor for completion stages.
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Let concurrent identical GET and HGET calls share one command in flight
+     * instead of each sending its own. Every caller receives the same
+     * {@link Command}, so cancelling it, or timing out on it, affects all of
+     * them. Reads inside MULTI are never shared, and a read only joins one
+     * sent after the last other command on this connection, so it always sees
+     * the writes dispatched before it.
+     *
+     * @param coalesce true to share identical reads.
+     */
+    public void setCoalesceReads(boolean coalesce) {
+        this.inflight = coalesce ? new ConcurrentHashMap<Read, Command<K, V, ?>>() : null;
+    }
+
+    /**
+     * Merge independent GET calls into one MGET. A batch is sent when it holds
+     * the maximum number of keys or when the window since its first key has
+     * passed, whichever comes first. Each caller gets its own future, completed
+     * on this connection's executor once the MGET replied. Any other command
+     * sends the GET calls collected before it first, so it cannot overtake
+     * them. Takes precedence over {@link #setCoalesceReads(boolean)} for GET.
+     *
+     * A batched GET of a key that holds no string completes with null rather
+     * than failing with WRONGTYPE, because MGET answers nil for such keys.
+     *
+     * @param maxKeys   Maximum number of keys per MGET.
+     * @param window    Maximum time a GET waits for other keys.
+     * @param unit      Unit of time for the window.
+     * @param scheduler Scheduler that sends batches whose window has passed,
+     *                  or null to turn batching off.
+     */
+    public void setGetBatching(int maxKeys, long window, TimeUnit unit, ScheduledExecutorService scheduler) {
+        synchronized (batchLock) {
+            this.batchKeys = maxKeys;
+            this.batchWindow = unit.toNanos(window);
+            this.batchScheduler = scheduler;
         }
+    }
+
+    /**
+     * Stamp the dispatch time of every command so its latency is recorded once
+     * the reply arrives. The same recorder must be set on the connection's
+     * {@link jmind.redis.protocol.CommandHandler}.
+     *
+     * @param latencies Recorder of this connection, or null to stop recording.
+     */
+    public void setLatencies(CommandLatencies.Recorder latencies) {
+        this.latencies = latencies;
+    }
+
+    /**
+     * Get the latencies this connection records into.
+     *
+     * @return The latency registry, or null if latencies are not recorded.
+     */
+    public CommandLatencies getLatencies() {
+        CommandLatencies.Recorder latencies = this.latencies;
+        return latencies != null ? latencies.getLatencies() : null;
+    }
+
+    /**
+     * Fail every command that has not received its reply within the supplied
+     * time, whether or not anyone waits for it. Applies to commands dispatched
+     * after this call. The reply of a command that timed out is still read
+     * and discarded when it arrives.
+     *
+     * @param timeout   Maximum time from dispatch until the reply, or 0 to
+     *                  only time out in {@link #await(Command)}.
+     * @param unit      Unit of time for the timeout.
+     * @param timer     Timer that enforces the deadlines.
+     */
+    public void setCommandTimeout(long timeout, TimeUnit unit, Timer timer) {
+        this.deadline = unit.toNanos(timeout);
+        this.deadlineTimer = timeout > 0 ? timer : null;
+    }
+
+    /**
+     * PING every new channel, after restoring its password and database, and
+     * only mark the connection connected and replay queued commands once the
+     * PING replied. A channel whose PING fails or times out is closed, so the
+     * watchdog tries again.
+     *
+     * @param timeout   Maximum time to wait for the PING.
+     * @param unit      Unit of time for the timeout.
+     * @param timer     Timer that enforces the timeout, or null to disable
+     *                  the probe.
+     */
+    public void setReadinessProbe(long timeout, TimeUnit unit, Timer timer) {
+        this.probeTimeout = unit.toNanos(timeout);
+        this.probeTimer = timer;
+    }
+
+    /**
+     * Connect on the first command dispatched, for connections opened lazily.
+     * The connector runs once, on the dispatching thread, and must not block;
+     * commands are queued until the channel is connected.
+     *
+     * @param connector Starts connecting the channel, or null.
+     */
+    public void setConnector(Runnable connector) {
+        this.connector.set(connector);
+    }
 
-        return complete;
+    /**
+     * Check whether the channel is opened lazily and was not requested yet.
+     *
+     * @return true if the first command will start connecting.
+     */
+    public boolean isPending() {
+        return connector.get() != null;
     }
 
     /**
-     * Close the connection.
+     * Fail every queued command because the channel could not be connected.
+     * The connection stays usable.
+     *
+     * @param error Error message for the queued commands.
+     */
+    public void connectFailed(String error) {
+        outbound.offer(new ConnectFailed(error));
+        drain();
+    }
+
+    /**
+     * Fail commands immediately instead of queueing them until the channel is
+     * connected, for a shard whose first connect failed and that reconnects
+     * in the background. Cleared once the channel is ready.
+     *
+     * @param cause Why the connect failed, reported in the error of every
+     *              command dispatched while down.
+     */
+    public void markDown(String cause) {
+        down = "Connection is down: " + cause;
+    }
+
+    /**
+     * Check whether the shard never connected and fails commands immediately.
+     *
+     * @return true while the shard is down.
+     */
+    public boolean isDown() {
+        return down != null;
+    }
+
+    private void connectIfPending() {
+        if (connector.get() != null) {
+            Runnable connector = this.connector.getAndSet(null);
+            if (connector != null) {
+                connector.run();
+            }
+        }
+    }
+
+    /**
+     * Bound the commands dispatched on this connection that have not been
+     * answered yet. The same limiter must be set on the connection's
+     * {@link jmind.redis.protocol.CommandHandler}, which returns the permits.
+     *
+     * @param limiter Limiter of this connection, or null for no limit.
+     */
+    public void setLimiter(InflightLimiter limiter) {
+        this.limiter = limiter;
+    }
+
+    /**
+     * Get the number of commands rejected or dropped by the limiter.
+     *
+     * @return Rejected commands, 0 without a limiter.
+     */
+    public long getRejected() {
+        InflightLimiter limiter = this.limiter;
+        return limiter != null ? limiter.getRejected() : 0;
+    }
+
+    /**
+     * Count commands of this connection that time out. The same counters
+     * should be set on the connection's
+     * {@link jmind.redis.protocol.CommandHandler}.
+     *
+     * @param stats Connection counters, or null to stop counting.
+     */
+    public void setStats(ConnectionStats stats) {
+        this.stats = stats;
+    }
+
+    /**
+     * Get the number of commands written and waiting for their reply.
+     *
+     * @return The depth of the in-flight queue.
+     */
+    public int getQueueDepth() {
+        Queue<Command<K, V, ?>> queue = this.queue;
+        return queue != null ? queue.size() : 0;
+    }
+
+    /**
+     * Close the connection. Commands still queued fail, also when the channel
+     * never connected, such as for a shard that is down or opened lazily.
      */
     public synchronized void close() {
-        if (!closed && channel != null) {
+        if (closed)
+            return;
+        closed = true;
+        connector.set(null);
+        Channel channel = this.channel != null ? this.channel : connected;
+        if (channel != null && channel.isOpen()) {
             RedisWatchdog watchdog = channel.getPipeline().get(RedisWatchdog.class);
             watchdog.setReconnect(false);
-            closed = true;
             channel.close();
+        } else {
+            outbound.offer(CLOSED);
+            drain();
         }
     }
 
@@ -1034,45 +1481,98 @@ public class RedisHandler<K, V> extends SimpleChannelUpstreamHandler {
     }
 
     @Override
-    public synchronized void channelConnected(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
-        channel = ctx.getChannel();
-        isConnect = true;
-        List<Command<K, V, ?>> tmp = new ArrayList<Command<K, V, ?>>(queue.size() + 2);
-
-        if (password != null) {
-            CommandArgs<K, V> args = new CommandArgs<K, V>(codec).add(password);
-            tmp.add(new Command<K, V, String>(AUTH, new StatusOutput<K, V>(codec), args, false));
+    public void channelConnected(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        connected = ctx.getChannel();
+        if (probeTimer == null) {
+            ready(connected);
         }
+        outbound.offer(CONNECTED);
+        drain();
+    }
 
-        if (db != 0) {
-            CommandArgs<K, V> args = new CommandArgs<K, V>(codec).add(db);
-            tmp.add(new Command<K, V, String>(SELECT, new StatusOutput<K, V>(codec), args, false));
+    @Override
+    public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        isConnect = false;
+        if (closed) {
+            outbound.offer(CLOSED);
+            drain();
         }
+    }
 
-        tmp.addAll(queue);
-        queue.clear();
+    /**
+     * Send the GET calls collected so far, so a command dispatched after them
+     * does not reach the server first.
+     */
+    private void sendGets() {
+        if (batchScheduler == null)
+            return;
+        GetBatch pending;
+        synchronized (batchLock) {
+            pending = batch;
+            batch = null;
+        }
+        if (pending != null) {
+            pending.timer.cancel(false);
+            pending.send();
+        }
+    }
 
-        for (Command<K, V, ?> cmd : tmp) {
-            if (!cmd.isCancelled()) {
-                queue.add(cmd);
-                channel.write(cmd);
+    private Future<V> batchGet(K key) {
+        CompletableFuture<V> future = new CompletableFuture<V>();
+        GetBatch full = null;
+        synchronized (batchLock) {
+            if (batch == null) {
+                batch = new GetBatch();
+                batch.timer = batchScheduler.schedule(batch, batchWindow, TimeUnit.NANOSECONDS);
+            }
+            batch.keys.add(key);
+            batch.futures.add(future);
+            if (batch.keys.size() >= batchKeys) {
+                full = batch;
+                batch = null;
             }
         }
 
-        tmp.clear();
+        if (full != null) {
+            full.timer.cancel(false);
+            full.send();
+        }
+        return future;
     }
 
-    @Override
-    public synchronized void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
-        isConnect = false;
-        if (closed) {
-            for (Command<K, V, ?> cmd : queue) {
-                cmd.getOutput().setError("Connection closed");
-                cmd.complete();
+    /**
+     * Return the identical read already in flight, or send a new one that
+     * later callers can join until it completes.
+     */
+    @SuppressWarnings("unchecked")
+    private Command<K, V, V> coalesce(RedisCommand type, K key, K field) {
+        final ConcurrentMap<Read, Command<K, V, ?>> inflight = this.inflight;
+        final Read read = new Read(type, key, field, writes.get());
+        while (true) {
+            Command<K, V, ?> shared = inflight.get(read);
+            if (shared != null && !shared.isDone())
+                return (Command<K, V, V>) shared;
+
+            CommandArgs<K, V> args = new CommandArgs<K, V>(codec).addKey(key);
+            if (field != null) {
+                args.addKey(field);
+            }
+            final Command<K, V, V> cmd = new Command<K, V, V>(type, new ValueOutput<K, V>(codec), args, false);
+            if (shared == null ? inflight.putIfAbsent(read, cmd) != null : !inflight.replace(read, shared, cmd))
+                continue;
+
+            cmd.onComplete(new Runnable() {
+                @Override
+                public void run() {
+                    inflight.remove(read, cmd);
+                }
+            });
+            try {
+                return dispatch(cmd);
+            } catch (RuntimeException e) {
+                inflight.remove(read, cmd);
+                throw e;
             }
-            queue.clear();
-            queue = null;
-            channel = null;
         }
     }
 
@@ -1095,34 +1595,427 @@ public class RedisHandler<K, V> extends SimpleChannelUpstreamHandler {
         return dispatch(type, output, args);
     }
 
-    public synchronized <T> Command<K, V, T> dispatch(RedisCommand type, CommandOut<K, V, T> output,
-            CommandArgs<K, V> args) {
-        Command<K, V, T> cmd = new Command<K, V, T>(type, output, args, multi != null);
+    public <T> Command<K, V, T> dispatch(RedisCommand type, CommandOut<K, V, T> output, CommandArgs<K, V> args) {
+        return dispatch(new Command<K, V, T>(type, output, args, multi != null));
+    }
 
-        try {
-            if (multi != null) {
+    /**
+     * Queue a command that was created by the caller.
+     *
+     * @param cmd   Command to send.
+     *
+     * @return The command.
+     */
+    public <T> Command<K, V, T> dispatch(Command<K, V, T> cmd) {
+        return dispatch(cmd, false);
+    }
+
+    /**
+     * Queue a command the client sends on its own, such as a health probe, a
+     * cluster redirect or a topology refresh. It takes an in-flight permit
+     * regardless of the limits instead of waiting for one, so it may be sent
+     * from a timer or netty thread, and it never joins a MULTI block.
+     *
+     * @param cmd   Command to send.
+     *
+     * @return The command.
+     */
+    public <T> Command<K, V, T> dispatchInternal(Command<K, V, T> cmd) {
+        return dispatch(cmd, true);
+    }
+
+    /**
+     * Queue commands the client sends on its own as one message, see
+     * {@link #dispatchInternal(Command)}. Either all of them are queued or,
+     * if the connection is closed or down, none.
+     *
+     * @param commands  Commands to send, in order.
+     */
+    public void dispatchInternal(List<Command<K, V, ?>> commands) {
+        dispatch(commands, true);
+    }
+
+    private <T> Command<K, V, T> dispatch(Command<K, V, T> cmd, boolean internal) {
+        if (!internal) {
+            sendGets();
+        }
+        return enqueue(cmd, internal);
+    }
+
+    private <T> Command<K, V, T> enqueue(Command<K, V, T> cmd, boolean internal) {
+        if (inflight != null) {
+            wrote(cmd);
+        }
+        cmd.setExecutor(executor);
+        cmd.setStats(stats);
+        Timer timer = deadlineTimer;
+        if (timer != null) {
+            cmd.setDeadline(timer, deadline, TimeUnit.NANOSECONDS);
+        }
+        if (latencies != null) {
+            cmd.markDispatched();
+        }
+
+        if (queue == null)
+            throw new RedisException("Connection is closed");
+
+        String down = this.down;
+        if (down != null) {
+            reject(cmd, down);
+            return cmd;
+        }
+
+        InflightLimiter limiter = this.limiter;
+        if (limiter != null) {
+            if (internal) {
+                limiter.force(cmd);
+            } else if (!limiter.acquire(cmd, isConnect)) {
+                reject(cmd, "Too many commands in flight");
+                return cmd;
+            }
+        }
+
+        MultiOutput<K, V> multi = internal ? null : this.multi;
+        if (multi != null) {
+            // a MULTI block must see its commands in the order they are written
+            synchronized (multi) {
                 multi.add(cmd);
+                outbound.offer(cmd);
             }
+        } else {
+            outbound.offer(cmd);
+        }
+        drain();
+        connectIfPending();
+        return cmd;
+    }
+
+    /**
+     * Queue a batch of commands and write them to the channel as one message,
+     * so they leave in a single flush.
+     *
+     * @param commands  Commands to send, in order.
+     */
+    public void dispatch(List<Command<K, V, ?>> commands) {
+        dispatch(commands, false);
+    }
 
-            queue.put(cmd);
+    private void dispatch(List<Command<K, V, ?>> commands, boolean internal) {
+        if (queue == null)
+            throw new RedisException("Connection is closed");
+        if (!internal) {
+            sendGets();
+        }
 
-            if (channel != null) {
+        ConnectionStats stats = this.stats;
+        Timer timer = deadlineTimer;
+        boolean timed = latencies != null;
+        boolean coalesced = inflight != null;
+        for (Command<K, V, ?> cmd : commands) {
+            if (coalesced) {
+                wrote(cmd);
+            }
+            cmd.setExecutor(executor);
+            cmd.setStats(stats);
+            if (timed) {
+                cmd.markDispatched();
+            }
+            if (timer != null) {
+                cmd.setDeadline(timer, deadline, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        String down = this.down;
+        if (down != null) {
+            for (Command<K, V, ?> cmd : commands) {
+                reject(cmd, down);
+            }
+            return;
+        }
+
+        InflightLimiter limiter = this.limiter;
+        if (limiter != null && internal) {
+            for (Command<K, V, ?> cmd : commands) {
+                limiter.force(cmd);
+            }
+        } else if (limiter != null) {
+            List<Command<K, V, ?>> accepted = new ArrayList<Command<K, V, ?>>(commands.size());
+            for (Command<K, V, ?> cmd : commands) {
+                if (limiter.acquire(cmd, isConnect)) {
+                    accepted.add(cmd);
+                } else {
+                    reject(cmd, "Too many commands in flight");
+                }
+            }
+            if (accepted.isEmpty())
+                return;
+            commands = accepted;
+        }
+        outbound.offer(commands);
+        drain();
+        connectIfPending();
+    }
+
+    /**
+     * Keep reads sent before a command that may write from being shared with
+     * reads dispatched after it. Any command but GET and HGET counts as one.
+     */
+    private void wrote(Command<K, V, ?> cmd) {
+        if (cmd.type != GET && cmd.type != HGET) {
+            writes.incrementAndGet();
+        }
+    }
+
+    private void reject(Command<K, V, ?> cmd, String error) {
+        cmd.fail(error);
+    }
+
+    /**
+     * Move dispatched commands to the in-flight queue and write them to the
+     * channel. Any number of threads may dispatch concurrently without locking:
+     * the first one in becomes the single writer and keeps draining until no
+     * work is left, so the in-flight queue always matches the order in which
+     * commands reach the server. The writer does not hand the rest over to
+     * another thread, where it could wait behind blocking callbacks.
+     */
+    private void drain() {
+        if (wip.getAndIncrement() != 0)
+            return;
+
+        int missed = 1;
+        do {
+            Object next;
+            while ((next = outbound.poll()) != null) {
+                if (next == CONNECTED) {
+                    if (probeTimer != null) {
+                        probe(connected);
+                    } else {
+                        replay(connected, true);
+                    }
+                } else if (next instanceof Ready) {
+                    Channel channel = ((Ready) next).channel;
+                    if (channel == connected && channel.isConnected()) {
+                        ready(channel);
+                        replay(channel, false);
+                    }
+                } else if (next == CLOSED) {
+                    fail("Connection closed");
+                } else if (next instanceof ConnectFailed) {
+                    failQueued(((ConnectFailed) next).error);
+                } else {
+                    send(next);
+                }
+            }
+            dropOldest();
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void send(Object next) {
+        Queue<Command<K, V, ?>> queue = this.queue;
+        if (next instanceof Command) {
+            Command<K, V, ?> cmd = (Command<K, V, ?>) next;
+            if (queue == null) {
+                release(cmd);
+                reject(cmd, "Connection is closed");
+                return;
+            }
+            queue.offer(cmd);
+        } else {
+            List<Command<K, V, ?>> commands = (List<Command<K, V, ?>>) next;
+            if (queue == null) {
+                for (Command<K, V, ?> cmd : commands) {
+                    release(cmd);
+                    reject(cmd, "Connection is closed");
+                }
+                return;
+            }
+            queue.addAll(commands);
+        }
+
+        if (channel != null) {
+            channel.write(next);
+        }
+    }
+
+    /**
+     * Write the commands that restore the password and database of the
+     * connection, followed by a PING, to a new channel ahead of everything
+     * still queued. Queued commands are replayed once the PING replied. Only
+     * called by the writer.
+     */
+    private void probe(final Channel channel) {
+        if (queue == null)
+            return;
+
+        List<Command<K, V, ?>> probe = restore();
+        Command<K, V, String> ping = new Command<K, V, String>(PING, new StatusOutput<K, V>(codec), null, false);
+        probe.add(ping);
+        InflightLimiter limiter = this.limiter;
+        if (limiter != null) {
+            for (Command<K, V, ?> cmd : probe) {
+                limiter.force(cmd);
+            }
+        }
+
+        List<Command<K, V, ?>> queued = new ArrayList<Command<K, V, ?>>(queue);
+        queue.clear();
+        queue.addAll(probe);
+        queue.addAll(queued);
+        for (Command<K, V, ?> cmd : probe) {
+            channel.write(cmd);
+        }
+
+        final Command<K, V, String> result = ping;
+        ping.setDeadline(probeTimer, probeTimeout, TimeUnit.NANOSECONDS);
+        ping.onComplete(new Runnable() {
+            @Override
+            public void run() {
+                if (result.isCancelled() || result.getOutput().hasError()) {
+                    channel.close();
+                } else {
+                    outbound.offer(new Ready(channel));
+                    drain();
+                }
+            }
+        });
+    }
+
+    private void ready(Channel channel) {
+        isConnect = true;
+        down = null;
+        RedisWatchdog watchdog = channel.getPipeline().get(RedisWatchdog.class);
+        if (watchdog != null) {
+            watchdog.ready();
+        }
+    }
+
+    /**
+     * Create the commands that restore the password and database of the
+     * connection on a new channel.
+     */
+    private List<Command<K, V, ?>> restore() {
+        List<Command<K, V, ?>> tmp = new ArrayList<Command<K, V, ?>>(3);
+
+        if (password != null) {
+            CommandArgs<K, V> args = new CommandArgs<K, V>(codec).add(password);
+            tmp.add(new Command<K, V, String>(AUTH, new StatusOutput<K, V>(codec), args, false));
+        }
+
+        if (db != 0) {
+            CommandArgs<K, V> args = new CommandArgs<K, V>(codec).add(db);
+            tmp.add(new Command<K, V, String>(SELECT, new StatusOutput<K, V>(codec), args, false));
+        }
+        return tmp;
+    }
+
+    /**
+     * Re-send everything still in flight on a new channel, after restoring the
+     * password and database of the connection unless a probe already did.
+     * Only called by the writer.
+     */
+    private void replay(Channel channel, boolean restore) {
+        if (queue == null)
+            return;
+
+        this.channel = channel;
+        List<Command<K, V, ?>> tmp = restore ? restore() : new ArrayList<Command<K, V, ?>>(queue.size());
+
+        InflightLimiter limiter = this.limiter;
+        if (limiter != null) {
+            for (Command<K, V, ?> cmd : tmp) {
+                limiter.force(cmd);
+            }
+        }
+
+        tmp.addAll(queue);
+        queue.clear();
+
+        for (Command<K, V, ?> cmd : tmp) {
+            if (!cmd.isCancelled()) {
+                queue.add(cmd);
                 channel.write(cmd);
+            } else {
+                release(cmd);
             }
-        } catch (NullPointerException e) {
-            throw new RedisException("Connection is closed");
-        } catch (InterruptedException e) {
-            throw new RedisCmdInterruptedException(e);
         }
 
-        return cmd;
+        tmp.clear();
+    }
+
+    /**
+     * Fail everything still in flight once the connection was closed for good.
+     * Only called by the writer.
+     */
+    private void fail(String error) {
+        if (queue == null)
+            return;
+        for (Command<K, V, ?> cmd : queue) {
+            release(cmd);
+            reject(cmd, error);
+        }
+        queue.clear();
+        queue = null;
+        channel = null;
+    }
+
+    private void failQueued(String error) {
+        Queue<Command<K, V, ?>> queue = this.queue;
+        if (queue == null)
+            return;
+        Command<K, V, ?> cmd;
+        while ((cmd = queue.poll()) != null) {
+            release(cmd);
+            reject(cmd, error);
+        }
+    }
+
+    /**
+     * With {@link InflightLimiter.Policy#DROP_OLDEST}, fail the oldest queued
+     * commands while the connection is down and more commands are queued than
+     * the limits allow. Nothing is written while disconnected, so everything
+     * still queued will be replayed and any of it may be dropped. Only called
+     * by the writer.
+     */
+    private void dropOldest() {
+        InflightLimiter limiter = this.limiter;
+        Queue<Command<K, V, ?>> queue = this.queue;
+        if (limiter == null || limiter.getPolicy() != InflightLimiter.Policy.DROP_OLDEST || isConnect || queue == null)
+            return;
+
+        Command<K, V, ?> cmd;
+        while (limiter.isOverLimit() && (cmd = queue.poll()) != null) {
+            limiter.release(cmd);
+            limiter.dropped();
+            reject(cmd, "Command dropped, too many commands in flight");
+        }
+    }
+
+    private void release(Command<K, V, ?> cmd) {
+        InflightLimiter limiter = this.limiter;
+        if (limiter != null) {
+            limiter.release(cmd);
+        }
+    }
+
+    /**
+     * Start a batch of commands for this connection that is sent in one flush
+     * by {@link RedisBatch#execute()}.
+     *
+     * @return A new batch.
+     */
+    public RedisBatch<K, V> batch() {
+        return new RedisBatch<K, V>(this);
     }
 
     public <T> T await(Command<K, V, T> cmd) {
         if (!cmd.await(timeout, TimeUnit.SECONDS)) {
-            cmd.cancel(true);
+            cmd.timeout();
             throw new RedisException("Command timed out");
         }
+        if (cmd.isCancelled())
+            throw new RedisException(cmd.isTimedOut() ? "Command timed out" : "Command cancelled");
         CommandOut<K, V, T> output = cmd.getOutput();
         if (output.hasError())
             throw new RedisException(output.getError());
@@ -1157,4 +2050,161 @@ public class RedisHandler<K, V> extends SimpleChannelUpstreamHandler {
     public boolean isConnect() {
         return isConnect;
     }
+
+    /**
+     * Check whether this shard should take traffic: it is connected, or opened
+     * lazily and not requested yet, and its circuit breaker, if health
+     * checked, is closed.
+     *
+     * @return true if the shard is available.
+     */
+    public boolean isAvailable() {
+        ShardHealth health = this.health;
+        return (isConnect || isPending()) && (health == null || health.allowRequest());
+    }
+
+    /**
+     * Set the circuit breaker that decides whether this shard takes traffic.
+     *
+     * @param health Health of this shard, or null.
+     *
+     * @see jmind.redis.health.HealthChecker
+     */
+    public void setHealth(ShardHealth health) {
+        this.health = health;
+    }
+
+    public ShardHealth getHealth() {
+        return health;
+    }
+
+    /**
+     * Signals the writer that a lazy connect failed.
+     */
+    private static final class ConnectFailed {
+        final String error;
+
+        ConnectFailed(String error) {
+            this.error = error;
+        }
+    }
+
+    /**
+     * Signals the writer that the readiness probe of a channel succeeded.
+     */
+    private static final class Ready {
+        final Channel channel;
+
+        Ready(Channel channel) {
+            this.channel = channel;
+        }
+    }
+
+    /**
+     * Identity of a coalesced read: command type, key, hash field and the
+     * number of writes dispatched before it.
+     */
+    private static final class Read {
+        private final RedisCommand type;
+        private final Object key;
+        private final Object field;
+        private final long writes;
+
+        Read(RedisCommand type, Object key, Object field, long writes) {
+            this.type = type;
+            this.key = key;
+            this.field = field;
+            this.writes = writes;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Read))
+                return false;
+            Read that = (Read) o;
+            return type == that.type && writes == that.writes && key.equals(that.key)
+                    && (field == null ? that.field == null : field.equals(that.field));
+        }
+
+        @Override
+        public int hashCode() {
+            int h = 31 * (31 * type.hashCode() + (int) (writes ^ (writes >>> 32))) + key.hashCode();
+            return field == null ? h : 31 * h + field.hashCode();
+        }
+    }
+
+    /**
+     * GET calls collected for one MGET. Runs as the timer task that sends the
+     * batch once its window has passed.
+     */
+    private class GetBatch implements Runnable {
+        final List<K> keys = new ArrayList<K>();
+        final List<CompletableFuture<V>> futures = new ArrayList<CompletableFuture<V>>();
+        ScheduledFuture<?> timer;
+
+        @Override
+        public void run() {
+            synchronized (batchLock) {
+                if (batch != this)
+                    return;
+                batch = null;
+            }
+            send();
+        }
+
+        @SuppressWarnings("unchecked")
+        void send() {
+            final Command<K, V, List<V>> cmd;
+            try {
+                CommandArgs<K, V> args = new CommandArgs<K, V>(codec).addKeys((K[]) keys.toArray());
+                cmd = enqueue(new Command<K, V, List<V>>(MGET, new ValueListOutput<K, V>(codec), args,
+                        multi != null), false);
+            } catch (RuntimeException e) {
+                for (CompletableFuture<V> future : futures) {
+                    future.completeExceptionally(e);
+                }
+                return;
+            }
+
+            cmd.onComplete(new Runnable() {
+                @Override
+                public void run() {
+                    if (executor == null) {
+                        fanOut(cmd);
+                        return;
+                    }
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            fanOut(cmd);
+                        }
+                    });
+                }
+            });
+        }
+
+        void fanOut(Command<K, V, List<V>> cmd) {
+            CommandOut<K, V, List<V>> output = cmd.getOutput();
+            if (cmd.isTimedOut()) {
+                RedisException error = new RedisException("Command timed out");
+                for (CompletableFuture<V> future : futures) {
+                    future.completeExceptionally(error);
+                }
+            } else if (cmd.isCancelled()) {
+                for (CompletableFuture<V> future : futures) {
+                    future.cancel(false);
+                }
+            } else if (output.hasError()) {
+                RedisException error = new RedisException(output.getError());
+                for (CompletableFuture<V> future : futures) {
+                    future.completeExceptionally(error);
+                }
+            } else {
+                List<V> values = output.get();
+                for (int i = 0; i < futures.size(); i++) {
+                    futures.get(i).complete(values.get(i));
+                }
+            }
+        }
+    }
 }
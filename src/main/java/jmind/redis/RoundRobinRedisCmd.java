@@ -23,7 +23,7 @@ public class RoundRobinRedisCmd<K, V> extends RedisCmd<K, V> {
         RedisHandler<K, V> shard = null;
         for (int i = 0; i < size; i++) {
             shard = shards.getShard(null);
-            if (shard.isConnect())
+            if (shard.isAvailable())
                 return shard;
         }
         return shard;
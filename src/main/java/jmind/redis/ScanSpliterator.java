@@ -0,0 +1,149 @@
+package jmind.redis;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import jmind.redis.out.ScanResult;
+
+/**
+ * Lazily walks one or more cursor iterations, typically one SCAN per shard.
+ * Nothing is sent until the first element is requested. From then on every
+ * source has one page in flight: as soon as a page is taken the next one is
+ * requested, so the servers work while the caller consumes. Pages are taken
+ * from whichever source replied first.
+ *
+ * A spliterator is not thread-safe, but {@link #trySplit()} hands whole
+ * sources, or the rest of the current page, to a new spliterator so it can
+ * be used from parallel streams. Like the SCAN command itself, an element may
+ * be returned more than once.
+ *
+ * @param <T> Element type.
+ *
+ * @author wbxie
+ */
+public class ScanSpliterator<T> implements Spliterator<T> {
+    private final RedisCmd<?, ?> cmd;
+    private final List<Source<T>> sources;
+    private boolean started;
+    private List<T> page;
+    private int index;
+
+    /**
+     * Create a spliterator over the supplied cursor iterations.
+     *
+     * @param cmd       Client whose timeout applies to every page.
+     * @param sources   Iterations to walk.
+     */
+    public ScanSpliterator(RedisCmd<?, ?> cmd, List<Source<T>> sources) {
+        this.cmd = cmd;
+        this.sources = sources;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        if (page == null || index == page.size()) {
+            if (!nextPage())
+                return false;
+        }
+        action.accept(page.get(index++));
+        return true;
+    }
+
+    @Override
+    public Spliterator<T> trySplit() {
+        int size = sources.size();
+        if (size > 1) {
+            List<Source<T>> tail = sources.subList(size / 2, size);
+            ScanSpliterator<T> split = new ScanSpliterator<T>(cmd, new ArrayList<Source<T>>(tail));
+            split.started = started;
+            tail.clear();
+            return split;
+        }
+
+        if (page != null && page.size() - index > 1) {
+            List<T> rest = new ArrayList<T>(page.subList(index, page.size()));
+            page = null;
+            return Spliterators.spliterator(rest, NONNULL);
+        }
+        return null;
+    }
+
+    @Override
+    public long estimateSize() {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics() {
+        return NONNULL;
+    }
+
+    private boolean nextPage() {
+        if (!started) {
+            started = true;
+            for (Source<T> source : sources) {
+                source.request();
+            }
+        }
+
+        while (true) {
+            Source<T> next = null;
+            for (Iterator<Source<T>> it = sources.iterator(); it.hasNext();) {
+                Source<T> source = it.next();
+                if (source.pending == null) {
+                    it.remove();
+                } else if (next == null || !next.pending.isDone() && source.pending.isDone()) {
+                    next = source;
+                }
+            }
+            if (next == null)
+                return false;
+
+            List<T> values = next.take(cmd);
+            if (!values.isEmpty()) {
+                page = values;
+                index = 0;
+                return true;
+            }
+        }
+    }
+
+    /**
+     * One cursor iteration, such as a SCAN of a single shard or an HSCAN of a
+     * single key.
+     *
+     * @param <T> Element type.
+     */
+    public abstract static class Source<T> {
+        private String cursor = ScanResult.INITIAL;
+        private Future<ScanResult<T>> pending;
+
+        /**
+         * Send the command that returns the page following a cursor.
+         *
+         * @param cursor    Cursor to continue from.
+         *
+         * @return Future of the page.
+         */
+        protected abstract Future<ScanResult<T>> scan(String cursor);
+
+        void request() {
+            pending = scan(cursor);
+        }
+
+        List<T> take(RedisCmd<?, ?> cmd) {
+            ScanResult<T> result = cmd.await(pending);
+            pending = null;
+            cursor = result.cursor;
+            if (!result.isFinished()) {
+                request();
+            }
+            return result.values;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package jmind.redis;
+
+import static jmind.redis.protocol.RedisCommand.SENTINEL;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import jmind.redis.out.StringListOutput;
+import jmind.redis.protocol.Command;
+import jmind.redis.protocol.CommandArgs;
+import jmind.redis.protocol.RedisWatchdog;
+import jmind.redis.pubsub.RedisPubSubAdapter;
+import jmind.redis.pubsub.RedisPubSubListener;
+
+/**
+ * Resolves the masters of named groups through redis sentinels, and moves the
+ * connection of a group to its new master when a sentinel announces a
+ * failover on <code>+switch-master</code>.
+ *
+ * @author wbxie
+ */
+class SentinelResolver {
+    static final String SWITCH_MASTER = "+switch-master";
+
+    private final List<RedisHandler<String, String>> sentinels;
+    private final Map<String, Master> masters = new ConcurrentHashMap<String, Master>();
+
+    /**
+     * @param sentinels Connections to the sentinels, asked in order.
+     */
+    SentinelResolver(List<RedisHandler<String, String>> sentinels) {
+        this.sentinels = sentinels;
+    }
+
+    /**
+     * Ask the sentinels in turn for the master of a group, and wait for the
+     * first answer.
+     *
+     * @param name  Name of the master group.
+     *
+     * @return Address of the master.
+     *
+     * @throws RedisException if no sentinel knows the group, caused by the
+     *         last sentinel that failed to answer, if any.
+     */
+    @SuppressWarnings("unchecked")
+    InetSocketAddress resolve(String name) {
+        RedisException error = null;
+        for (RedisHandler<String, String> sentinel : sentinels) {
+            try {
+                Command<String, String, List<String>> cmd = (Command<String, String, List<String>>) sentinel
+                        .sentinelGetMasterAddrByName(name);
+                InetSocketAddress address = address(sentinel.await(cmd));
+                if (address != null)
+                    return address;
+            } catch (RedisException e) {
+                error = e;
+            }
+        }
+        throw new RedisException("Unable to resolve the master of " + name, error);
+    }
+
+    /**
+     * Follow failovers of a group.
+     *
+     * @param name      Name of the master group.
+     * @param address   Current address of the master.
+     * @param watchdog  Watchdog of the connection to the master.
+     */
+    void watch(String name, InetSocketAddress address, RedisWatchdog watchdog) {
+        masters.put(name, new Master(address, watchdog));
+    }
+
+    /**
+     * Move the connection of a group to its new master, unless it already
+     * points there.
+     *
+     * @param name      Name of the master group.
+     * @param address   Address of the new master.
+     */
+    void switched(String name, InetSocketAddress address) {
+        Master master = masters.get(name);
+        if (master == null)
+            return;
+        synchronized (master) {
+            if (address.equals(master.address))
+                return;
+            master.address = address;
+        }
+        master.watchdog.redirect(address);
+    }
+
+    /**
+     * Ask the sentinels for the master of every group without waiting, to
+     * catch up with failovers announced while no sentinel was subscribed.
+     */
+    void refresh() {
+        for (String name : masters.keySet()) {
+            refresh(name, sentinels.iterator());
+        }
+    }
+
+    private void refresh(final String name, final Iterator<RedisHandler<String, String>> candidates) {
+        while (candidates.hasNext()) {
+            RedisHandler<String, String> sentinel = candidates.next();
+            CommandArgs<String, String> args = new CommandArgs<String, String>(sentinel.codec)
+                    .add("get-master-addr-by-name").add(name);
+            final Command<String, String, List<String>> cmd;
+            try {
+                cmd = sentinel.dispatchInternal(new Command<String, String, List<String>>(SENTINEL,
+                        new StringListOutput<String, String>(sentinel.codec), args, false));
+            } catch (RedisException e) {
+                continue;
+            }
+            cmd.onComplete(new Runnable() {
+                @Override
+                public void run() {
+                    InetSocketAddress address = null;
+                    if (!cmd.isCancelled() && !cmd.getOutput().hasError()) {
+                        address = address(cmd.getOutput().get());
+                    }
+                    if (address != null) {
+                        switched(name, address);
+                    } else {
+                        refresh(name, candidates);
+                    }
+                }
+            });
+            return;
+        }
+    }
+
+    /**
+     * Get a listener for the <code>+switch-master</code> channel of a
+     * sentinel. Its messages are
+     * <code>&lt;name&gt; &lt;old ip&gt; &lt;old port&gt; &lt;new ip&gt; &lt;new port&gt;</code>.
+     * Every (re)subscription also refreshes all masters, and a message whose
+     * address cannot be parsed refreshes its group.
+     *
+     * @return The listener.
+     */
+    RedisPubSubListener<String, String> listener() {
+        return new RedisPubSubAdapter<String, String>() {
+            @Override
+            public void message(String channel, String message) {
+                if (!SWITCH_MASTER.equals(channel))
+                    return;
+                String[] parts = message.split(" ");
+                if (parts.length < 5)
+                    return;
+                InetSocketAddress address = address(Arrays.asList(parts[3], parts[4]));
+                if (address != null) {
+                    switched(parts[0], address);
+                } else if (masters.containsKey(parts[0])) {
+                    refresh(parts[0], sentinels.iterator());
+                }
+            }
+
+            @Override
+            public void subscribed(String channel, long count) {
+                refresh();
+            }
+        };
+    }
+
+    private static InetSocketAddress address(List<String> reply) {
+        if (reply == null || reply.size() < 2)
+            return null;
+        try {
+            return new InetSocketAddress(reply.get(0), Integer.parseInt(reply.get(1)));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static class Master {
+        volatile InetSocketAddress address;
+        final RedisWatchdog watchdog;
+
+        Master(InetSocketAddress address, RedisWatchdog watchdog) {
+            this.address = address;
+            this.watchdog = watchdog;
+        }
+    }
+}
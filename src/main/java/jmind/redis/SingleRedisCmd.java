@@ -1,12 +1,10 @@
 package jmind.redis;
 
-import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 
+import jmind.redis.out.KeyStreamingChannel;
 import jmind.redis.out.KeyValue;
 import jmind.redis.out.ZStoreArgs;
 
@@ -29,18 +27,8 @@ public class SingleRedisCmd<K, V> extends RedisCmd<K, V> {
         return getShard().keys(pattern);
     }
 
-    public long del(K... keys) {
-        try {
-            return getShard().del(keys).get();
-        } catch (InterruptedException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
-        } catch (ExecutionException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
-        }
-        return 0;
-
+    public Future<Long> keys(KeyStreamingChannel<K> channel, K pattern) {
+        return getShard().keys(channel, pattern);
     }
 
     public Future<V> randomkey() {
@@ -71,28 +59,6 @@ public class SingleRedisCmd<K, V> extends RedisCmd<K, V> {
         return getShard().objectRefcount(key);
     }
 
-    /*******************String*********************************/
-    public Future<String> mset(Map<K, V> map) {
-        return getShard().mset(map);
-    }
-
-    public Future<Boolean> msetnx(Map<K, V> map) {
-        return getShard().msetnx(map);
-    }
-
-    public List<V> mget(K... keys) {
-        try {
-            return getShard().mget(keys).get();
-        } catch (InterruptedException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
-        } catch (ExecutionException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
-        }
-        return Collections.emptyList();
-    }
-
     /************list**********/
     public Future<KeyValue<K, V>> blpop(long timeout, K... keys) {
         return getShard().blpop(timeout, keys);
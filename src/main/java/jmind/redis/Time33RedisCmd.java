@@ -22,7 +22,7 @@ public class Time33RedisCmd<K, V> extends RedisCmd<K, V> {
 
     public RedisHandler<K, V> getShard(K key) {
         RedisHandler<K, V> shard = shards.getShard(key.toString());
-        if(shard.isConnect())
+        if(shard.isAvailable())
         return shard;
         else{
             // 形成一个闭环，允许挂断一台
@@ -0,0 +1,298 @@
+package jmind.redis.health;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.TimerTask;
+
+import jmind.redis.RedisException;
+import jmind.redis.RedisHandler;
+import jmind.redis.protocol.Command;
+
+/**
+ * Periodically PINGs every shard and drives its {@link ShardHealth} circuit
+ * breaker. A closed shard is ejected when its probe error rate reaches the
+ * limit, its probe latency exceeds the maximum, or its latency is an outlier
+ * compared to the median of the other closed shards. No more than the
+ * configured share of shards is ejected at once, so a problem on the client
+ * side does not eject everything.
+ *
+ * A probe that has not replied by the next round and is older than the probe
+ * timeout fails; a disconnected shard fails without a probe. Shards opened
+ * lazily are not probed until their first command.
+ *
+ * @author wbxie
+ */
+public class HealthChecker implements TimerTask {
+    private final Timer timer;
+    private final long interval;
+    private final List<Probe> probes = new CopyOnWriteArrayList<Probe>();
+    private final List<HealthListener> listeners = new CopyOnWriteArrayList<HealthListener>();
+
+    private volatile long probeTimeout;
+    private volatile long maxLatency;
+    private volatile double outlierFactor = 3;
+    private volatile long outlierMinLatency = TimeUnit.MILLISECONDS.toNanos(1);
+    private volatile double maxErrorRate = 0.5;
+    private volatile long openTime;
+    private volatile int halfOpenProbes = 3;
+    private volatile int maxEjectionPercent = 50;
+
+    private Timeout next;
+    private boolean stopped;
+
+    /**
+     * Create a new health checker.
+     *
+     * @param timer     Timer that runs the probes.
+     * @param interval  Time between probes of a shard.
+     * @param unit      Unit of time for the interval.
+     */
+    public HealthChecker(Timer timer, long interval, TimeUnit unit) {
+        this.timer = timer;
+        this.interval = unit.toNanos(interval);
+        this.probeTimeout = this.interval;
+        this.openTime = 5 * this.interval;
+    }
+
+    /**
+     * Set the time after which an unanswered probe fails. Defaults to the
+     * interval.
+     */
+    public void setProbeTimeout(long timeout, TimeUnit unit) {
+        this.probeTimeout = unit.toNanos(timeout);
+    }
+
+    /**
+     * Set the probe latency above which a shard is ejected, or 0 to only
+     * eject outliers. Disabled by default.
+     */
+    public void setMaxLatency(long latency, TimeUnit unit) {
+        this.maxLatency = unit.toNanos(latency);
+    }
+
+    /**
+     * Eject a shard whose latency is more than factor times the median of the
+     * closed shards, and above the supplied minimum. Needs at least three
+     * closed shards. Defaults to 3 times and 1 millisecond.
+     *
+     * @param factor        Multiple of the median, or 0 to disable.
+     * @param minLatency    Latency below which no shard is an outlier.
+     * @param unit          Unit of time for the minimum latency.
+     */
+    public void setOutlier(double factor, long minLatency, TimeUnit unit) {
+        this.outlierFactor = factor;
+        this.outlierMinLatency = unit.toNanos(minLatency);
+    }
+
+    /**
+     * Set the share of failed probes at which a shard is ejected. Defaults to
+     * 0.5.
+     */
+    public void setMaxErrorRate(double rate) {
+        this.maxErrorRate = rate;
+    }
+
+    /**
+     * Set how long an ejected shard stays open before it is probed for
+     * recovery. Defaults to five intervals.
+     */
+    public void setOpenTime(long time, TimeUnit unit) {
+        this.openTime = unit.toNanos(time);
+    }
+
+    /**
+     * Set the number of consecutive healthy probes that close a half-open
+     * shard. Defaults to 3.
+     */
+    public void setHalfOpenProbes(int probes) {
+        this.halfOpenProbes = probes;
+    }
+
+    /**
+     * Set the maximum share of shards ejected at the same time. At least one
+     * shard may always be ejected. Defaults to 50.
+     */
+    public void setMaxEjectionPercent(int percent) {
+        this.maxEjectionPercent = percent;
+    }
+
+    public void addListener(HealthListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(HealthListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Start checking a shard. Its handler routes around it while ejected.
+     *
+     * @param address   Address of the shard.
+     * @param handler   Connection to the shard.
+     *
+     * @return The health of the shard.
+     */
+    public ShardHealth add(String address, RedisHandler<?, ?> handler) {
+        ShardHealth health = new ShardHealth(address);
+        handler.setHealth(health);
+        probes.add(new Probe(handler, health));
+        start();
+        return health;
+    }
+
+    /**
+     * Get the health of every checked shard.
+     *
+     * @return Health of all shards.
+     */
+    public List<ShardHealth> getShards() {
+        List<ShardHealth> shards = new ArrayList<ShardHealth>(probes.size());
+        for (Probe probe : probes) {
+            shards.add(probe.health);
+        }
+        return shards;
+    }
+
+    public synchronized void start() {
+        if (next == null && !stopped) {
+            next = timer.newTimeout(this, interval, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public synchronized void stop() {
+        stopped = true;
+        if (next != null) {
+            next.cancel();
+            next = null;
+        }
+    }
+
+    @Override
+    public void run(Timeout timeout) throws Exception {
+        try {
+            long now = System.nanoTime();
+            for (Probe probe : probes) {
+                probe.send(now);
+            }
+            evaluate(now);
+        } finally {
+            synchronized (this) {
+                next = stopped ? null : timer.newTimeout(this, interval, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    private void evaluate(long now) {
+        List<Double> latencies = new ArrayList<Double>(probes.size());
+        int ejected = 0;
+        for (Probe probe : probes) {
+            if (probe.health.allowRequest()) {
+                latencies.add(probe.health.getLatency());
+            } else {
+                ejected++;
+            }
+        }
+        Collections.sort(latencies);
+        double median = latencies.isEmpty() ? 0 : latencies.get(latencies.size() / 2);
+        int maxEjected = Math.max(1, probes.size() * maxEjectionPercent / 100);
+
+        for (Probe probe : probes) {
+            ShardHealth health = probe.health;
+            switch (health.getState()) {
+            case OPEN:
+                report(health, health.halfOpen(now, openTime, halfOpenProbes));
+                break;
+            case CLOSED:
+                if (ejected < maxEjected && isUnhealthy(health, median, latencies.size())) {
+                    report(health, health.open(now));
+                    ejected++;
+                }
+                break;
+            default:
+            }
+        }
+    }
+
+    private boolean isUnhealthy(ShardHealth health, double median, int closed) {
+        if (health.getErrorRate() >= maxErrorRate)
+            return true;
+        double latency = health.getLatency();
+        if (maxLatency > 0 && latency > maxLatency)
+            return true;
+        return outlierFactor > 0 && closed >= 3 && latency > outlierMinLatency && latency > outlierFactor * median;
+    }
+
+    private boolean isHealthy(long nanos) {
+        return maxLatency <= 0 || nanos <= maxLatency;
+    }
+
+    private void report(ShardHealth health, ShardHealth.State from) {
+        if (from == null)
+            return;
+        ShardHealth.State to = health.getState();
+        for (HealthListener listener : listeners) {
+            listener.stateChanged(health, from, to);
+        }
+    }
+
+    /**
+     * Probe state of one shard. Only touched by the timer thread, apart from
+     * the completion of the PING.
+     */
+    private class Probe {
+        private final RedisHandler<?, ?> handler;
+        private final ShardHealth health;
+        private Command<?, ?, String> pending;
+        private long sentAt;
+
+        Probe(RedisHandler<?, ?> handler, ShardHealth health) {
+            this.handler = handler;
+            this.health = health;
+        }
+
+        @SuppressWarnings("unchecked")
+        void send(long now) {
+            if (pending != null && !pending.isDone()) {
+                if (now - sentAt < probeTimeout)
+                    return;
+                pending.timeout();
+            }
+
+            pending = null;
+            if (handler.isPending())
+                return;
+            if (!handler.isConnect()) {
+                report(health, health.failure(0));
+                return;
+            }
+
+            final long sent = now;
+            final Command<?, ?, String> cmd;
+            try {
+                cmd = (Command<?, ?, String>) handler.pingInternal();
+            } catch (RedisException e) {
+                report(health, health.failure(0));
+                return;
+            }
+            sentAt = sent;
+            pending = cmd;
+            cmd.onComplete(new Runnable() {
+                @Override
+                public void run() {
+                    long nanos = System.nanoTime() - sent;
+                    if (cmd.isCancelled() || cmd.getOutput().hasError()) {
+                        report(health, health.failure(nanos));
+                    } else {
+                        report(health, health.success(nanos, isHealthy(nanos)));
+                    }
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package jmind.redis.health;
+
+/**
+ * Receives the circuit breaker transitions of shards.
+ *
+ * @author wbxie
+ */
+public interface HealthListener {
+
+    /**
+     * Called when a shard's circuit breaker changed state. Runs on the health
+     * checker's timer thread or a netty I/O thread and must not block.
+     *
+     * @param health    Health of the shard.
+     * @param from      Previous state.
+     * @param to        New state.
+     */
+    void stateChanged(ShardHealth health, ShardHealth.State from, ShardHealth.State to);
+}
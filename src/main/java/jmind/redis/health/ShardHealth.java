@@ -0,0 +1,155 @@
+package jmind.redis.health;
+
+/**
+ * Circuit breaker of one shard, fed by the probes of a {@link HealthChecker}.
+ * Keeps an exponentially weighted moving average of the probe latency and of
+ * the probe error rate.
+ * <ul>
+ * <li>CLOSED: the shard takes traffic.</li>
+ * <li>OPEN: the shard was ejected because it failed, was too slow or was an
+ * outlier; it takes no traffic until the open time has passed.</li>
+ * <li>HALF_OPEN: the shard still takes no traffic, and closes again after a
+ * number of consecutive healthy probes. Any failed probe opens it again.</li>
+ * </ul>
+ *
+ * @author wbxie
+ */
+public class ShardHealth {
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private static final double ALPHA = 0.3;
+
+    private final String address;
+    private volatile State state = State.CLOSED;
+    private double latency;
+    private double errorRate;
+    private boolean sampled;
+    private long openedAt;
+    private int successes;
+
+    public ShardHealth(String address) {
+        this.address = address;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * Check whether the shard may take traffic.
+     *
+     * @return true while the breaker is closed.
+     */
+    public boolean allowRequest() {
+        return state == State.CLOSED;
+    }
+
+    /**
+     * Get the moving average of the probe latency.
+     *
+     * @return Latency in nanoseconds.
+     */
+    public synchronized double getLatency() {
+        return latency;
+    }
+
+    /**
+     * Get the moving average of failed probes.
+     *
+     * @return Error rate between 0 and 1.
+     */
+    public synchronized double getErrorRate() {
+        return errorRate;
+    }
+
+    /**
+     * Record a probe that succeeded.
+     *
+     * @param nanos     Latency of the probe.
+     * @param healthy   Whether the latency is acceptable.
+     *
+     * @return The state before the probe, if the probe changed it, else null.
+     */
+    synchronized State success(long nanos, boolean healthy) {
+        sample(nanos, 0);
+        if (state == State.HALF_OPEN) {
+            if (!healthy)
+                return open(System.nanoTime());
+            if (--successes <= 0) {
+                errorRate = 0;
+                return transition(State.CLOSED);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Record a probe that failed or timed out.
+     *
+     * @param nanos     Time the probe took until it failed.
+     *
+     * @return The state before the probe, if the probe changed it, else null.
+     */
+    synchronized State failure(long nanos) {
+        sample(nanos, 1);
+        if (state == State.HALF_OPEN)
+            return open(System.nanoTime());
+        return null;
+    }
+
+    /**
+     * Eject the shard.
+     *
+     * @param now   Current {@link System#nanoTime()}.
+     *
+     * @return The previous state, or null if already open.
+     */
+    synchronized State open(long now) {
+        openedAt = now;
+        return state != State.OPEN ? transition(State.OPEN) : null;
+    }
+
+    /**
+     * Move an open breaker to half-open once it was open long enough.
+     *
+     * @param now       Current {@link System#nanoTime()}.
+     * @param openTime  Minimum time the breaker stays open.
+     * @param probes    Healthy probes required to close again.
+     *
+     * @return The previous state, if changed, else null.
+     */
+    synchronized State halfOpen(long now, long openTime, int probes) {
+        if (state != State.OPEN || now - openedAt < openTime)
+            return null;
+        successes = probes;
+        return transition(State.HALF_OPEN);
+    }
+
+    private void sample(long nanos, int error) {
+        if (!sampled) {
+            latency = nanos;
+            errorRate = error;
+            sampled = true;
+        } else {
+            latency += ALPHA * (nanos - latency);
+            errorRate += ALPHA * (error - errorRate);
+        }
+    }
+
+    private State transition(State to) {
+        State from = state;
+        state = to;
+        return from;
+    }
+
+    @Override
+    public String toString() {
+        return address + " " + state;
+    }
+}
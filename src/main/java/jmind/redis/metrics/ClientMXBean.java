@@ -0,0 +1,44 @@
+package jmind.redis.metrics;
+
+import java.util.Map;
+
+/**
+ * Management interface of a client, aggregated over all of its shards.
+ *
+ * @author wbxie
+ */
+public interface ClientMXBean {
+
+    int getShards();
+
+    int getConnectedShards();
+
+    /**
+     * @return Addresses of the shards that are currently disconnected.
+     */
+    String[] getDisconnected();
+
+    /**
+     * @return Commands waiting for their reply, over all shards.
+     */
+    int getQueueDepth();
+
+    /**
+     * @return Commands waiting for their reply, by shard address.
+     */
+    Map<String, Integer> getQueueDepths();
+
+    long getReconnects();
+
+    long getBytesWritten();
+
+    long getBytesRead();
+
+    long getCommands();
+
+    double getCommandsPerSecond();
+
+    long getTimeouts();
+
+    long getRejected();
+}
@@ -0,0 +1,183 @@
+package jmind.redis.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import jmind.redis.RedisException;
+
+/**
+ * {@link ClientMXBean} that sums the {@link ShardMonitor}s of a client, and
+ * registers itself and every shard with the platform MBean server as
+ * <code>jmind.redis:type=Client,name=&lt;name&gt;</code> and
+ * <code>jmind.redis:type=Shard,name=&lt;name&gt;,address=&lt;address&gt;</code>.
+ *
+ * @author wbxie
+ */
+public class ClientMonitor implements ClientMXBean {
+    private static final String DOMAIN = "jmind.redis";
+
+    private final String name;
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    private final List<ShardMonitor> shards = new CopyOnWriteArrayList<ShardMonitor>();
+    private final List<ObjectName> registered = new CopyOnWriteArrayList<ObjectName>();
+
+    /**
+     * Create a monitor and register it.
+     *
+     * @param name  Name of the client, unique within the JVM.
+     */
+    public ClientMonitor(String name) {
+        this.name = name;
+        register(this, DOMAIN + ":type=Client,name=" + ObjectName.quote(name));
+    }
+
+    /**
+     * Add a shard to the aggregate and register its MBean.
+     *
+     * @param shard Monitor of the shard.
+     */
+    public void add(ShardMonitor shard) {
+        shards.add(shard);
+        register(shard, DOMAIN + ":type=Shard,name=" + ObjectName.quote(name) + ",address="
+                + ObjectName.quote(shard.getAddress()));
+    }
+
+    /**
+     * Unregister this monitor and all of its shards.
+     */
+    public void unregister() {
+        for (ObjectName objectName : registered) {
+            try {
+                server.unregisterMBean(objectName);
+            } catch (JMException e) {
+                // already gone
+            }
+        }
+        registered.clear();
+        shards.clear();
+    }
+
+    private void register(Object bean, String objectName) {
+        try {
+            ObjectName on = new ObjectName(objectName);
+            server.registerMBean(bean, on);
+            registered.add(on);
+        } catch (JMException e) {
+            throw new RedisException("Unable to register MBean " + objectName, e);
+        }
+    }
+
+    @Override
+    public int getShards() {
+        return shards.size();
+    }
+
+    @Override
+    public int getConnectedShards() {
+        int connected = 0;
+        for (ShardMonitor shard : shards) {
+            if (shard.isConnected())
+                connected++;
+        }
+        return connected;
+    }
+
+    @Override
+    public String[] getDisconnected() {
+        List<String> disconnected = new ArrayList<String>();
+        for (ShardMonitor shard : shards) {
+            if (!shard.isConnected())
+                disconnected.add(shard.getAddress());
+        }
+        return disconnected.toArray(new String[disconnected.size()]);
+    }
+
+    @Override
+    public int getQueueDepth() {
+        int depth = 0;
+        for (ShardMonitor shard : shards) {
+            depth += shard.getQueueDepth();
+        }
+        return depth;
+    }
+
+    @Override
+    public Map<String, Integer> getQueueDepths() {
+        Map<String, Integer> depths = new LinkedHashMap<String, Integer>();
+        for (ShardMonitor shard : shards) {
+            depths.put(shard.getAddress(), shard.getQueueDepth());
+        }
+        return depths;
+    }
+
+    @Override
+    public long getReconnects() {
+        long reconnects = 0;
+        for (ShardMonitor shard : shards) {
+            reconnects += shard.getReconnects();
+        }
+        return reconnects;
+    }
+
+    @Override
+    public long getBytesWritten() {
+        long bytes = 0;
+        for (ShardMonitor shard : shards) {
+            bytes += shard.getBytesWritten();
+        }
+        return bytes;
+    }
+
+    @Override
+    public long getBytesRead() {
+        long bytes = 0;
+        for (ShardMonitor shard : shards) {
+            bytes += shard.getBytesRead();
+        }
+        return bytes;
+    }
+
+    @Override
+    public long getCommands() {
+        long commands = 0;
+        for (ShardMonitor shard : shards) {
+            commands += shard.getCommands();
+        }
+        return commands;
+    }
+
+    @Override
+    public double getCommandsPerSecond() {
+        double rate = 0;
+        for (ShardMonitor shard : shards) {
+            rate += shard.getCommandsPerSecond();
+        }
+        return rate;
+    }
+
+    @Override
+    public long getTimeouts() {
+        long timeouts = 0;
+        for (ShardMonitor shard : shards) {
+            timeouts += shard.getTimeouts();
+        }
+        return timeouts;
+    }
+
+    @Override
+    public long getRejected() {
+        long rejected = 0;
+        for (ShardMonitor shard : shards) {
+            rejected += shard.getRejected();
+        }
+        return rejected;
+    }
+}
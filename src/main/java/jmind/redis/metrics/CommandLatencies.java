@@ -0,0 +1,133 @@
+package jmind.redis.metrics;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import jmind.redis.protocol.Command;
+import jmind.redis.protocol.RedisCommand;
+
+/**
+ * Latencies of all commands of a client, keyed by command type and by shard
+ * address. Shared by every connection of the client; each connection records
+ * through its own {@link Recorder}.
+ *
+ * @author wbxie
+ */
+public class CommandLatencies {
+    private final AtomicReferenceArray<LatencyStats> commands = new AtomicReferenceArray<LatencyStats>(
+            RedisCommand.values().length);
+    private final ConcurrentMap<String, LatencyStats> shards = new ConcurrentHashMap<String, LatencyStats>();
+
+    /**
+     * Get the recorder for a connection.
+     *
+     * @param shard Address of the shard the connection is opened to.
+     *
+     * @return Recorder that adds to this registry.
+     */
+    public Recorder recorder(String shard) {
+        LatencyStats stats = shards.get(shard);
+        if (stats == null) {
+            LatencyStats created = new LatencyStats();
+            stats = shards.putIfAbsent(shard, created);
+            if (stats == null) {
+                stats = created;
+            }
+        }
+        return new Recorder(stats);
+    }
+
+    /**
+     * Get the latencies of one command type.
+     *
+     * @param type  Command type.
+     *
+     * @return The latencies, or null if no such command completed yet.
+     */
+    public LatencyStats get(RedisCommand type) {
+        return commands.get(type.ordinal());
+    }
+
+    /**
+     * Get the latencies of every command type that completed at least once.
+     *
+     * @return Latencies keyed by command type.
+     */
+    public Map<RedisCommand, LatencyStats> byCommand() {
+        Map<RedisCommand, LatencyStats> map = new EnumMap<RedisCommand, LatencyStats>(RedisCommand.class);
+        for (RedisCommand type : RedisCommand.values()) {
+            LatencyStats stats = commands.get(type.ordinal());
+            if (stats != null) {
+                map.put(type, stats);
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Get the latencies of every shard.
+     *
+     * @return Latencies keyed by shard address.
+     */
+    public Map<String, LatencyStats> byShard() {
+        return Collections.unmodifiableMap(shards);
+    }
+
+    public void reset() {
+        for (LatencyStats stats : byCommand().values()) {
+            stats.reset();
+        }
+        for (LatencyStats stats : shards.values()) {
+            stats.reset();
+        }
+    }
+
+    private LatencyStats command(RedisCommand type) {
+        int i = type.ordinal();
+        LatencyStats stats = commands.get(i);
+        if (stats == null) {
+            commands.compareAndSet(i, null, new LatencyStats());
+            stats = commands.get(i);
+        }
+        return stats;
+    }
+
+    /**
+     * Records completed commands of one connection.
+     */
+    public class Recorder {
+        private final LatencyStats shard;
+
+        Recorder(LatencyStats shard) {
+            this.shard = shard;
+        }
+
+        /**
+         * Get the registry this recorder adds to.
+         *
+         * @return The registry.
+         */
+        public CommandLatencies getLatencies() {
+            return CommandLatencies.this;
+        }
+
+        /**
+         * Record a command whose reply was decoded.
+         *
+         * @param cmd   Completed command.
+         */
+        public void record(Command<?, ?, ?> cmd) {
+            long dispatched = cmd.getDispatchedAt();
+            if (dispatched == 0)
+                return;
+            long written = cmd.getWrittenAt();
+            long completed = cmd.getCompletedAt();
+            command(cmd.type).record(dispatched, written, completed);
+            shard.record(dispatched, written, completed);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package jmind.redis.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Traffic counters of one connection, updated by its handlers and read by
+ * its {@link ShardMXBean}.
+ *
+ * @author wbxie
+ */
+public class ConnectionStats {
+    private static final long RATE_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder commands = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+
+    private long sampledAt = System.nanoTime();
+    private long sampledCommands;
+    private double rate;
+
+    public void written(int bytes) {
+        bytesWritten.add(bytes);
+    }
+
+    public void read(int bytes) {
+        bytesRead.add(bytes);
+    }
+
+    public void completed() {
+        commands.increment();
+    }
+
+    public void timedOut() {
+        timeouts.increment();
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    public long getCommands() {
+        return commands.sum();
+    }
+
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    /**
+     * Get the number of replies per second, averaged over the time since the
+     * previous sample. A new sample is taken at most once per second, so
+     * concurrent readers see the same rate.
+     *
+     * @return Commands completed per second.
+     */
+    public synchronized double getCommandsPerSecond() {
+        long now = System.nanoTime();
+        long elapsed = now - sampledAt;
+        if (elapsed >= RATE_INTERVAL) {
+            long count = commands.sum();
+            rate = (count - sampledCommands) * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+            sampledCommands = count;
+            sampledAt = now;
+        }
+        return rate;
+    }
+}
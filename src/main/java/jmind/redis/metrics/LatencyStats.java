@@ -0,0 +1,57 @@
+package jmind.redis.metrics;
+
+/**
+ * Latencies of the phases of a command's life:
+ * <ul>
+ * <li>queue: from dispatch until the command was written to the socket, the
+ * time spent waiting on the client.</li>
+ * <li>server: from the write until the reply was decoded, the round trip
+ * including the time spent on the server.</li>
+ * <li>total: from dispatch until the reply was decoded.</li>
+ * </ul>
+ *
+ * @author wbxie
+ */
+public class LatencyStats {
+    private final LatencyHistogram queue = new LatencyHistogram();
+    private final LatencyHistogram server = new LatencyHistogram();
+    private final LatencyHistogram total = new LatencyHistogram();
+
+    /**
+     * Record one command. Phases whose timestamps are missing are skipped.
+     *
+     * @param dispatched    {@link System#nanoTime()} at dispatch.
+     * @param written       {@link System#nanoTime()} once written, or 0.
+     * @param completed     {@link System#nanoTime()} once the reply was decoded.
+     */
+    public void record(long dispatched, long written, long completed) {
+        if (written != 0 && written - dispatched >= 0 && completed - written >= 0) {
+            queue.record(written - dispatched);
+            server.record(completed - written);
+        }
+        total.record(completed - dispatched);
+    }
+
+    public LatencyHistogram getQueue() {
+        return queue;
+    }
+
+    public LatencyHistogram getServer() {
+        return server;
+    }
+
+    public LatencyHistogram getTotal() {
+        return total;
+    }
+
+    public void reset() {
+        queue.reset();
+        server.reset();
+        total.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "queue[" + queue.snapshot() + "] server[" + server.snapshot() + "] total[" + total.snapshot() + "]";
+    }
+}
@@ -0,0 +1,44 @@
+package jmind.redis.metrics;
+
+/**
+ * Management interface of the connection to one shard.
+ *
+ * @author wbxie
+ */
+public interface ShardMXBean {
+
+    String getAddress();
+
+    boolean isConnected();
+
+    /**
+     * @return Commands written and waiting for their reply.
+     */
+    int getQueueDepth();
+
+    /**
+     * @return Failed reconnect attempts since the connection was lost, 0 while
+     *         connected.
+     */
+    int getReconnectAttempts();
+
+    /**
+     * @return Number of times the connection was re-established.
+     */
+    long getReconnects();
+
+    long getBytesWritten();
+
+    long getBytesRead();
+
+    long getCommands();
+
+    double getCommandsPerSecond();
+
+    long getTimeouts();
+
+    /**
+     * @return Commands rejected or dropped because too many were in flight.
+     */
+    long getRejected();
+}
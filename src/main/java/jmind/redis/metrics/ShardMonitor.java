@@ -0,0 +1,78 @@
+package jmind.redis.metrics;
+
+import jmind.redis.RedisHandler;
+import jmind.redis.protocol.RedisWatchdog;
+
+/**
+ * {@link ShardMXBean} backed by a live connection.
+ *
+ * @author wbxie
+ */
+public class ShardMonitor implements ShardMXBean {
+    private final String address;
+    private final RedisHandler<?, ?> handler;
+    private final RedisWatchdog watchdog;
+    private final ConnectionStats stats;
+
+    public ShardMonitor(String address, RedisHandler<?, ?> handler, RedisWatchdog watchdog, ConnectionStats stats) {
+        this.address = address;
+        this.handler = handler;
+        this.watchdog = watchdog;
+        this.stats = stats;
+    }
+
+    @Override
+    public String getAddress() {
+        return address;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return handler.isConnect();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return handler.getQueueDepth();
+    }
+
+    @Override
+    public int getReconnectAttempts() {
+        return watchdog.getAttempts();
+    }
+
+    @Override
+    public long getReconnects() {
+        return watchdog.getReconnects();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return stats.getBytesWritten();
+    }
+
+    @Override
+    public long getBytesRead() {
+        return stats.getBytesRead();
+    }
+
+    @Override
+    public long getCommands() {
+        return stats.getCommands();
+    }
+
+    @Override
+    public double getCommandsPerSecond() {
+        return stats.getCommandsPerSecond();
+    }
+
+    @Override
+    public long getTimeouts() {
+        return stats.getTimeouts();
+    }
+
+    @Override
+    public long getRejected() {
+        return handler.getRejected();
+    }
+}
@@ -0,0 +1,58 @@
+package jmind.redis.out;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import jmind.redis.codec.RedisCodec;
+
+/**
+ * Output of CLUSTER SLOTS: one {@link SlotRange} per range, served by the
+ * first node listed for the range. Replicas are skipped.
+ *
+ * @author wbxie
+ */
+public class ClusterSlotsOutput<K, V> extends CommandOut<K, V, List<SlotRange>> {
+    private int field;
+    private int nodeField;
+    private long from;
+    private long to;
+    private String host;
+    private long port;
+
+    public ClusterSlotsOutput(RedisCodec<K, V> codec) {
+        super(codec, new ArrayList<SlotRange>());
+    }
+
+    @Override
+    public void set(long integer) {
+        if (field == 0) {
+            from = integer;
+        } else if (field == 1) {
+            to = integer;
+        } else if (field == 2 && nodeField == 1) {
+            port = integer;
+        }
+    }
+
+    @Override
+    public void set(ByteBuffer bytes) {
+        if (field == 2 && nodeField == 0) {
+            host = bytes == null ? null : decodeAscii(bytes);
+        }
+    }
+
+    @Override
+    public void complete(int depth) {
+        if (depth == 3) {
+            nodeField++;
+        } else if (depth == 2) {
+            field++;
+            nodeField = 0;
+        } else if (depth == 1) {
+            output.add(new SlotRange((int) from, (int) to, host, (int) port));
+            field = 0;
+            host = null;
+        }
+    }
+}
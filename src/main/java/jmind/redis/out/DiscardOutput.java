@@ -0,0 +1,29 @@
+package jmind.redis.out;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Output that ignores the reply. Replies to commands that were cancelled or
+ * timed out while in flight are decoded into it, so the connection stays in
+ * sync without touching the caller's output.
+ *
+ * @author wbxie
+ */
+public class DiscardOutput<K, V> extends CommandOut<K, V, Void> {
+
+    public DiscardOutput() {
+        super(null, null);
+    }
+
+    @Override
+    public void set(ByteBuffer bytes) {
+    }
+
+    @Override
+    public void set(long integer) {
+    }
+
+    @Override
+    public void setError(ByteBuffer error) {
+    }
+}
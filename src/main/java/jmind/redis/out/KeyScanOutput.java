@@ -0,0 +1,23 @@
+package jmind.redis.out;
+
+import java.nio.ByteBuffer;
+
+import jmind.redis.codec.RedisCodec;
+
+/**
+ * Page of keys returned by SCAN.
+ *
+ * @param <K> Key type.
+ *
+ * @author wbxie
+ */
+public class KeyScanOutput<K, V> extends ScanOutput<K, V, K> {
+    public KeyScanOutput(RedisCodec<K, V> codec) {
+        super(codec);
+    }
+
+    @Override
+    protected void element(ByteBuffer bytes) {
+        add(codec.decodeKey(bytes));
+    }
+}
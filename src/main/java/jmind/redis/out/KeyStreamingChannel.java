@@ -0,0 +1,20 @@
+package jmind.redis.out;
+
+/**
+ * Receives the keys of a multi-bulk reply one at a time, as they are
+ * decoded, instead of collecting them in memory.
+ *
+ * Callbacks run on the I/O thread of the connection and must not block.
+ *
+ * @param <K> Key type.
+ *
+ * @author wbxie
+ */
+public interface KeyStreamingChannel<K> {
+    /**
+     * Key decoded from the reply.
+     *
+     * @param key   Key.
+     */
+    void onKey(K key);
+}
@@ -0,0 +1,27 @@
+package jmind.redis.out;
+
+import java.nio.ByteBuffer;
+
+import jmind.redis.codec.RedisCodec;
+
+/**
+ * Streams keys to a {@link KeyStreamingChannel}.
+ *
+ * @param <K> Key type.
+ *
+ * @author wbxie
+ */
+public class KeyStreamingOutput<K, V> extends StreamingOutput<K, V> {
+    private final KeyStreamingChannel<K> channel;
+
+    public KeyStreamingOutput(RedisCodec<K, V> codec, KeyStreamingChannel<K> channel) {
+        super(codec);
+        this.channel = channel;
+    }
+
+    @Override
+    protected boolean emit(ByteBuffer bytes) {
+        channel.onKey(codec.decodeKey(bytes));
+        return true;
+    }
+}
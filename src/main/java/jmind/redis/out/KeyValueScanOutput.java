@@ -0,0 +1,33 @@
+package jmind.redis.out;
+
+import java.nio.ByteBuffer;
+
+import jmind.redis.codec.RedisCodec;
+
+/**
+ * Page of hash fields and values returned by HSCAN.
+ *
+ * @param <K> Key type.
+ * @param <V> Value type.
+ *
+ * @author wbxie
+ */
+public class KeyValueScanOutput<K, V> extends ScanOutput<K, V, KeyValue<K, V>> {
+    private K key;
+
+    public KeyValueScanOutput(RedisCodec<K, V> codec) {
+        super(codec);
+    }
+
+    @Override
+    protected void element(ByteBuffer bytes) {
+        if (key == null) {
+            key = codec.decodeKey(bytes);
+            return;
+        }
+
+        V value = (bytes == null) ? null : codec.decodeValue(bytes);
+        add(new KeyValue<K, V>(key, value));
+        key = null;
+    }
+}
@@ -0,0 +1,22 @@
+package jmind.redis.out;
+
+/**
+ * Receives the field/value pairs of a hash reply one at a time, as they are
+ * decoded, instead of collecting them in a map.
+ *
+ * Callbacks run on the I/O thread of the connection and must not block.
+ *
+ * @param <K> Key type.
+ * @param <V> Value type.
+ *
+ * @author wbxie
+ */
+public interface KeyValueStreamingChannel<K, V> {
+    /**
+     * Pair decoded from the reply.
+     *
+     * @param key   Key or hash field.
+     * @param value Value, or null for a nil element.
+     */
+    void onKeyValue(K key, V value);
+}
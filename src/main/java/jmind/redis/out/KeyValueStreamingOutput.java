@@ -0,0 +1,37 @@
+package jmind.redis.out;
+
+import java.nio.ByteBuffer;
+
+import jmind.redis.codec.RedisCodec;
+
+/**
+ * Streams field/value pairs to a {@link KeyValueStreamingChannel}.
+ *
+ * @param <K> Key type.
+ * @param <V> Value type.
+ *
+ * @author wbxie
+ */
+public class KeyValueStreamingOutput<K, V> extends StreamingOutput<K, V> {
+    private final KeyValueStreamingChannel<K, V> channel;
+    private K key;
+
+    public KeyValueStreamingOutput(RedisCodec<K, V> codec, KeyValueStreamingChannel<K, V> channel) {
+        super(codec);
+        this.channel = channel;
+    }
+
+    @Override
+    protected boolean emit(ByteBuffer bytes) {
+        if (key == null) {
+            key = codec.decodeKey(bytes);
+            return false;
+        }
+
+        V value = (bytes == null) ? null : codec.decodeValue(bytes);
+        K k = key;
+        key = null;
+        channel.onKeyValue(k, value);
+        return true;
+    }
+}
@@ -2,9 +2,9 @@ package jmind.redis.out;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import jmind.redis.RedisException;
 import jmind.redis.codec.RedisCodec;
@@ -20,7 +20,7 @@ public class MultiOutput<K, V> extends CommandOut<K, V, List<Object>> {
 
     public MultiOutput(RedisCodec<K, V> codec) {
         super(codec, new ArrayList<Object>());
-        queue = new LinkedList<Command<K, V, ?>>();
+        queue = new ConcurrentLinkedQueue<Command<K, V, ?>>();
     }
 
     public void add(Command<K, V, ?> cmd) {
@@ -33,6 +33,18 @@ public class MultiOutput<K, V> extends CommandOut<K, V, List<Object>> {
         }
     }
 
+    /**
+     * Fail the commands still waiting for their reply, because the EXEC that
+     * carries it was cancelled or timed out and its reply will be discarded.
+     *
+     * @param error Error message.
+     */
+    public void fail(String error) {
+        for (Command<K, V, ?> c : queue) {
+            c.fail(error);
+        }
+    }
+
     @Override
     public void set(long integer) {
         queue.peek().getOutput().set(integer);
@@ -0,0 +1,53 @@
+package jmind.redis.out;
+
+import static jmind.redis.protocol.CommandKeyword.COUNT;
+import static jmind.redis.protocol.CommandKeyword.MATCH;
+
+import jmind.redis.protocol.CommandArgs;
+
+/**
+ * Argument list builder for the redis <a href="http://redis.io/commands/scan">SCAN</a>
+ * family of commands. Static import the methods from {@link Builder} and chain the
+ * method calls: <code>match("user:*").count(500)</code>.
+ *
+ * @author wbxie
+ */
+public class ScanArgs {
+    private String match;
+    private Long count;
+
+    /**
+     * Static builder methods.
+     */
+    public static class Builder {
+        public static ScanArgs match(String pattern) {
+            return new ScanArgs().match(pattern);
+        }
+
+        public static ScanArgs count(long count) {
+            return new ScanArgs().count(count);
+        }
+    }
+
+    public ScanArgs match(String pattern) {
+        this.match = pattern;
+        return this;
+    }
+
+    public ScanArgs count(long count) {
+        this.count = count;
+        return this;
+    }
+
+    public <K, V> void build(CommandArgs<K, V> args) {
+        if (match != null) {
+            args.add(MATCH);
+            args.add(match);
+        }
+
+        if (count != null) {
+            args.add(COUNT);
+            args.add(count);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package jmind.redis.out;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import jmind.redis.codec.RedisCodec;
+
+/**
+ * Output of a cursor command: the next cursor followed by a page of elements.
+ *
+ * @param <T> Element type.
+ *
+ * @author wbxie
+ */
+public abstract class ScanOutput<K, V, T> extends CommandOut<K, V, ScanResult<T>> {
+    private String cursor;
+    private final List<T> values = new ArrayList<T>();
+
+    public ScanOutput(RedisCodec<K, V> codec) {
+        super(codec, null);
+    }
+
+    @Override
+    public ScanResult<T> get() {
+        if (output == null && cursor != null) {
+            output = new ScanResult<T>(cursor, values);
+        }
+        return output;
+    }
+
+    @Override
+    public void set(ByteBuffer bytes) {
+        if (cursor == null) {
+            cursor = decodeAscii(bytes);
+            return;
+        }
+        element(bytes);
+    }
+
+    /**
+     * Add one bulk of the page.
+     *
+     * @param bytes Bulk bytes, or null.
+     */
+    protected abstract void element(ByteBuffer bytes);
+
+    protected void add(T value) {
+        values.add(value);
+    }
+}
@@ -0,0 +1,40 @@
+package jmind.redis.out;
+
+import java.util.List;
+
+/**
+ * One page of a SCAN, HSCAN, SSCAN or ZSCAN iteration: the cursor to continue
+ * from and the elements returned with it.
+ *
+ * @param <T> Element type.
+ *
+ * @author wbxie
+ */
+public class ScanResult<T> {
+    /**
+     * Cursor that starts and ends an iteration.
+     */
+    public static final String INITIAL = "0";
+
+    public final String cursor;
+    public final List<T> values;
+
+    public ScanResult(String cursor, List<T> values) {
+        this.cursor = cursor;
+        this.values = values;
+    }
+
+    /**
+     * Check whether the server has no more pages to return.
+     *
+     * @return true if this was the last page.
+     */
+    public boolean isFinished() {
+        return INITIAL.equals(cursor);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("(%s, %s)", cursor, values);
+    }
+}
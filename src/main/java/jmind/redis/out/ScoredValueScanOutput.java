@@ -0,0 +1,33 @@
+package jmind.redis.out;
+
+import java.nio.ByteBuffer;
+
+import jmind.base.lang.ScoreValue;
+import jmind.redis.codec.RedisCodec;
+
+/**
+ * Page of sorted set members and their scores returned by ZSCAN.
+ *
+ * @param <V> Value type.
+ *
+ * @author wbxie
+ */
+public class ScoredValueScanOutput<K, V> extends ScanOutput<K, V, ScoreValue<V>> {
+    private V value;
+
+    public ScoredValueScanOutput(RedisCodec<K, V> codec) {
+        super(codec);
+    }
+
+    @Override
+    protected void element(ByteBuffer bytes) {
+        if (value == null) {
+            value = codec.decodeValue(bytes);
+            return;
+        }
+
+        double score = Double.parseDouble(decodeAscii(bytes));
+        add(new ScoreValue<V>(score, value));
+        value = null;
+    }
+}
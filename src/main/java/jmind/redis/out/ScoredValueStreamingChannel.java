@@ -0,0 +1,22 @@
+package jmind.redis.out;
+
+import jmind.base.lang.ScoreValue;
+
+/**
+ * Receives the members of a sorted set reply with their scores, one at a
+ * time, as they are decoded, instead of collecting them in memory.
+ *
+ * Callbacks run on the I/O thread of the connection and must not block.
+ *
+ * @param <V> Value type.
+ *
+ * @author wbxie
+ */
+public interface ScoredValueStreamingChannel<V> {
+    /**
+     * Member decoded from the reply.
+     *
+     * @param value Member and its score.
+     */
+    void onValue(ScoreValue<V> value);
+}
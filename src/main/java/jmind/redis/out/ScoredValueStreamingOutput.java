@@ -0,0 +1,38 @@
+package jmind.redis.out;
+
+import java.nio.ByteBuffer;
+
+import jmind.base.lang.ScoreValue;
+import jmind.redis.codec.RedisCodec;
+
+/**
+ * Streams sorted set members and their scores to a
+ * {@link ScoredValueStreamingChannel}.
+ *
+ * @param <V> Value type.
+ *
+ * @author wbxie
+ */
+public class ScoredValueStreamingOutput<K, V> extends StreamingOutput<K, V> {
+    private final ScoredValueStreamingChannel<V> channel;
+    private V value;
+
+    public ScoredValueStreamingOutput(RedisCodec<K, V> codec, ScoredValueStreamingChannel<V> channel) {
+        super(codec);
+        this.channel = channel;
+    }
+
+    @Override
+    protected boolean emit(ByteBuffer bytes) {
+        if (value == null) {
+            value = codec.decodeValue(bytes);
+            return false;
+        }
+
+        double score = Double.parseDouble(decodeAscii(bytes));
+        V v = value;
+        value = null;
+        channel.onValue(new ScoreValue<V>(score, v));
+        return true;
+    }
+}
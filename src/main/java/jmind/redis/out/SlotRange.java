@@ -0,0 +1,25 @@
+package jmind.redis.out;
+
+/**
+ * A range of cluster hash slots and the master that serves it.
+ *
+ * @author wbxie
+ */
+public class SlotRange {
+    public final int from;
+    public final int to;
+    public final String host;
+    public final int port;
+
+    public SlotRange(int from, int to, String host, int port) {
+        this.from = from;
+        this.to = to;
+        this.host = host;
+        this.port = port;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[%d-%d] %s:%d", from, to, host, port);
+    }
+}
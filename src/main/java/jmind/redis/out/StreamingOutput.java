@@ -0,0 +1,51 @@
+package jmind.redis.out;
+
+import java.nio.ByteBuffer;
+
+import jmind.redis.codec.RedisCodec;
+
+/**
+ * Output that hands the elements of a multi-bulk reply to a streaming channel
+ * as they are decoded. Only the element being decoded is held in memory and
+ * the output itself is the number of elements delivered.
+ *
+ * An exception thrown by the channel does not disturb decoding of the
+ * connection: the rest of the reply is consumed silently and the command
+ * completes with an error.
+ *
+ * @author wbxie
+ */
+public abstract class StreamingOutput<K, V> extends CommandOut<K, V, Long> {
+    private long count;
+
+    public StreamingOutput(RedisCodec<K, V> codec) {
+        super(codec, null);
+    }
+
+    @Override
+    public Long get() {
+        return count;
+    }
+
+    @Override
+    public void set(ByteBuffer bytes) {
+        if (error != null)
+            return;
+        try {
+            if (emit(bytes)) {
+                count++;
+            }
+        } catch (RuntimeException e) {
+            error = "Streaming channel failed: " + e;
+        }
+    }
+
+    /**
+     * Decode one bulk of the reply and pass it on.
+     *
+     * @param bytes Bulk bytes, or null.
+     *
+     * @return true if an element was delivered to the channel.
+     */
+    protected abstract boolean emit(ByteBuffer bytes);
+}
@@ -0,0 +1,23 @@
+package jmind.redis.out;
+
+import java.nio.ByteBuffer;
+
+import jmind.redis.codec.RedisCodec;
+
+/**
+ * Page of set members returned by SSCAN.
+ *
+ * @param <V> Value type.
+ *
+ * @author wbxie
+ */
+public class ValueScanOutput<K, V> extends ScanOutput<K, V, V> {
+    public ValueScanOutput(RedisCodec<K, V> codec) {
+        super(codec);
+    }
+
+    @Override
+    protected void element(ByteBuffer bytes) {
+        add(bytes == null ? null : codec.decodeValue(bytes));
+    }
+}
@@ -0,0 +1,20 @@
+package jmind.redis.out;
+
+/**
+ * Receives the values of a multi-bulk reply one at a time, as they are
+ * decoded, instead of collecting them in memory.
+ *
+ * Callbacks run on the I/O thread of the connection and must not block.
+ *
+ * @param <V> Value type.
+ *
+ * @author wbxie
+ */
+public interface ValueStreamingChannel<V> {
+    /**
+     * Value decoded from the reply.
+     *
+     * @param value Value, or null for a nil element.
+     */
+    void onValue(V value);
+}
@@ -0,0 +1,27 @@
+package jmind.redis.out;
+
+import java.nio.ByteBuffer;
+
+import jmind.redis.codec.RedisCodec;
+
+/**
+ * Streams values to a {@link ValueStreamingChannel}.
+ *
+ * @param <V> Value type.
+ *
+ * @author wbxie
+ */
+public class ValueStreamingOutput<K, V> extends StreamingOutput<K, V> {
+    private final ValueStreamingChannel<V> channel;
+
+    public ValueStreamingOutput(RedisCodec<K, V> codec, ValueStreamingChannel<V> channel) {
+        super(codec);
+        this.channel = channel;
+    }
+
+    @Override
+    protected boolean emit(ByteBuffer bytes) {
+        channel.onValue(bytes == null ? null : codec.decodeValue(bytes));
+        return true;
+    }
+}
@@ -0,0 +1,38 @@
+package jmind.redis.protocol;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exponential backoff with full jitter. The first attempt is immediate, so a
+ * short network blip costs no more than the reconnect itself. Attempt n
+ * waits a random time between 0 and <code>min(cap, base * 2^(n-2))</code>,
+ * which spreads clients that lost their connections at the same moment.
+ *
+ * @author wbxie
+ */
+public class BackoffReconnectPolicy implements ReconnectPolicy {
+    private final long base;
+    private final long cap;
+
+    /**
+     * Create a new policy.
+     *
+     * @param base  Upper bound of the delay before the second attempt.
+     * @param cap   Maximum upper bound of any delay.
+     * @param unit  Unit of time for base and cap.
+     */
+    public BackoffReconnectPolicy(long base, long cap, TimeUnit unit) {
+        this.base = Math.max(1, unit.toMillis(base));
+        this.cap = Math.max(this.base, unit.toMillis(cap));
+    }
+
+    @Override
+    public long delay(int attempt) {
+        if (attempt <= 1)
+            return 0;
+        int shift = Math.min(attempt - 2, 62 - (63 - Long.numberOfLeadingZeros(base)));
+        long bound = Math.min(cap, base << shift);
+        return ThreadLocalRandom.current().nextLong(bound + 1);
+    }
+}
@@ -4,26 +4,49 @@ package jmind.redis.protocol;
 
 import org.jboss.netty.buffer.ChannelBuffer;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.*;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.TimerTask;
 
 import jmind.redis.RedisCmdInterruptedException;
+import jmind.redis.RedisException;
+import jmind.redis.metrics.ConnectionStats;
 import jmind.redis.out.CommandOut;
 
 /**
  * A redis command and its result. All successfully executed commands will
  * eventually return a {@link CommandOut} object.
  *
+ * Besides blocking on {@link #get()}, callers may chain non-blocking stages
+ * with {@link #thenApply}, {@link #thenCompose} and friends. Those run when the
+ * command completes, on the command's executor rather than the netty I/O thread.
+ *
  * @param <T> Command output type.
  *
  * @author wbxie
  */
 public class Command<K, V, T> implements Future<T> {
-    private static final byte[] CRLF = "\r\n".getBytes(Charsets.UTF8);
-
     public final RedisCommand type;
     protected CommandArgs<K, V> args;
     protected CommandOut<K, V, T> output;
     protected CountDownLatch latch;
+    protected Executor executor;
+    protected ConnectionStats stats;
+    private volatile CompletableFuture<T> stage;
+    private List<Runnable> listeners;
+    private volatile boolean cancelled;
+    private volatile boolean timedOut;
+    private volatile Timeout deadline;
+    private volatile long dispatchedAt;
+    private volatile long writtenAt;
+    private volatile long completedAt;
 
     /**
      * Create a new command with the supplied type and args.
@@ -40,9 +63,23 @@ public class Command<K, V, T> implements Future<T> {
         this.latch  = new CountDownLatch(multi ? 2 : 1);
     }
 
+    /**
+     * Create a command with the same type and args that decodes its reply into
+     * the output of this one, so this command can be sent again, to another
+     * server, after a cluster redirect. Clears the error the previous reply
+     * left in the output.
+     *
+     * @return A new command sharing this command's output.
+     */
+    public Command<K, V, T> copy() {
+        output.setError((String) null);
+        return new Command<K, V, T>(type, output, args, false);
+    }
+
     /**
      * Cancel the command and notify any waiting consumers. This does
-     * not cause the redis server to stop executing the command.
+     * not cause the redis server to stop executing the command; its reply
+     * is still read and discarded when it arrives.
      *
      * @param ignored Ignored parameter.
      *
@@ -50,23 +87,81 @@ public class Command<K, V, T> implements Future<T> {
      */
     @Override
     public boolean cancel(boolean ignored) {
-        boolean cancelled = false;
-        if (latch.getCount() == 1) {
-            latch.countDown();
-            output = null;
-            cancelled = true;
+        return abort(false);
+    }
+
+    /**
+     * Cancel the command because its deadline passed or the caller gave up
+     * waiting for its reply, and count it as a timeout of its connection.
+     *
+     * @return true if the command was cancelled.
+     */
+    public boolean timeout() {
+        boolean cancelled = abort(true);
+        if (cancelled && stats != null) {
+            stats.timedOut();
         }
         return cancelled;
     }
 
     /**
-     * Check if the command has been cancelled.
+     * Fail the command with an error instead of a reply, and notify any
+     * waiting consumers. Unlike {@link #complete()} this releases a command
+     * queued inside MULTI too, which otherwise waits for both its QUEUED and
+     * its EXEC reply.
+     *
+     * @param error Error message.
+     *
+     * @return true if the command failed, false if it was already done.
+     */
+    public boolean fail(String error) {
+        synchronized (this) {
+            if (latch.getCount() == 0)
+                return false;
+            output.setError(error);
+            while (latch.getCount() > 0) {
+                latch.countDown();
+            }
+        }
+        cancelDeadline();
+        notifyListeners();
+        notifyStage();
+        return true;
+    }
+
+    private boolean abort(boolean timedOut) {
+        synchronized (this) {
+            if (latch.getCount() == 0)
+                return false;
+            this.cancelled = true;
+            this.timedOut = timedOut;
+            while (latch.getCount() > 0) {
+                latch.countDown();
+            }
+        }
+        cancelDeadline();
+        notifyListeners();
+        notifyStage();
+        return true;
+    }
+
+    /**
+     * Check if the command has been cancelled, which includes timing out.
      *
      * @return True if the command was cancelled.
      */
     @Override
     public boolean isCancelled() {
-        return latch.getCount() == 0 && output == null;
+        return cancelled;
+    }
+
+    /**
+     * Check if the command was cancelled because it timed out.
+     *
+     * @return True if the command timed out.
+     */
+    public boolean isTimedOut() {
+        return timedOut;
     }
 
     /**
@@ -89,10 +184,10 @@ public class Command<K, V, T> implements Future<T> {
     public T get() {
         try {
             latch.await();
-            return output.get();
         } catch (InterruptedException e) {
             throw new RedisCmdInterruptedException(e);
         }
+        return result();
     }
 
     /**
@@ -115,6 +210,14 @@ public class Command<K, V, T> implements Future<T> {
         } catch (InterruptedException e) {
             throw new RedisCmdInterruptedException(e);
         }
+        return result();
+    }
+
+    private T result() {
+        if (timedOut)
+            throw new RedisException("Command timed out");
+        if (cancelled)
+            throw new CancellationException();
         return output.get();
     }
 
@@ -145,53 +248,235 @@ public class Command<K, V, T> implements Future<T> {
     }
 
     /**
-     * Mark this command complete and notify all waiting threads.
+     * Set the executor completion stages run on. When null they run on the
+     * thread that completes the command.
+     *
+     * @param executor Executor for completion stages.
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Set the counters of the connection this command is sent on.
+     *
+     * @param stats Connection counters, or null.
+     */
+    public void setStats(ConnectionStats stats) {
+        this.stats = stats;
+    }
+
+    /**
+     * Fail the command with {@link #timeout()} unless it completes within the
+     * supplied time. The deadline runs on the supplied timer, so it fires
+     * whether or not anyone waits for the command.
+     *
+     * @param timer     Timer that enforces the deadline.
+     * @param timeout   Maximum time until the reply.
+     * @param unit      Unit of time for the timeout.
+     */
+    public void setDeadline(Timer timer, long timeout, TimeUnit unit) {
+        if (isDone())
+            return;
+        deadline = timer.newTimeout(new TimerTask() {
+            @Override
+            public void run(Timeout t) throws Exception {
+                timeout();
+            }
+        }, timeout, unit);
+        if (isDone()) {
+            cancelDeadline();
+        }
+    }
+
+    /**
+     * Mark this command complete and notify all waiting threads and
+     * registered completion stages. Does nothing once the command was
+     * cancelled.
      */
     public void complete() {
-        latch.countDown();
+        synchronized (this) {
+            if (cancelled)
+                return;
+            latch.countDown();
+            if (latch.getCount() != 0)
+                return;
+        }
+        cancelDeadline();
+        notifyListeners();
+        notifyStage();
+    }
+
+    private void cancelDeadline() {
+        Timeout deadline = this.deadline;
+        if (deadline != null) {
+            this.deadline = null;
+            deadline.cancel();
+        }
     }
 
     /**
-     * Encode and write this command to the supplied buffer using the new
-     * <a href="http://redis.io/topics/protocol">Unified Request Protocol</a>.
+     * Run a listener once this command completes or is cancelled. Listeners
+     * run on the thread that completes the command, usually the netty I/O
+     * thread, and must not block. If the command is already done the
+     * listener runs immediately.
      *
-     * @param buf Buffer to write to.
+     * @param listener Completion listener.
      */
-    void encode(ChannelBuffer buf) {
-        buf.writeByte('*');
-        writeInt(buf, 1 + (args != null ? args.count() : 0));
-        buf.writeBytes(CRLF);
-        buf.writeByte('$');
-        writeInt(buf, type.bytes.length);
-        buf.writeBytes(CRLF);
-        buf.writeBytes(type.bytes);
-        buf.writeBytes(CRLF);
-        if (args != null) {
-            buf.writeBytes(args.buffer());
+    public void onComplete(Runnable listener) {
+        synchronized (this) {
+            if (!isDone()) {
+                if (listeners == null) {
+                    listeners = new ArrayList<Runnable>(2);
+                }
+                listeners.add(listener);
+                return;
+            }
         }
+        listener.run();
+    }
+
+    /**
+     * Record the {@link System#nanoTime()} at which the command was dispatched.
+     * Commands that are never marked are not included in latency statistics.
+     */
+    public void markDispatched() {
+        dispatchedAt = System.nanoTime();
+    }
+
+    /**
+     * Record the {@link System#nanoTime()} at which the command was written to
+     * the socket.
+     */
+    public void markWritten() {
+        writtenAt = System.nanoTime();
+    }
+
+    /**
+     * Record the {@link System#nanoTime()} at which the reply was decoded.
+     */
+    public void markCompleted() {
+        completedAt = System.nanoTime();
+    }
+
+    public long getDispatchedAt() {
+        return dispatchedAt;
+    }
+
+    public long getWrittenAt() {
+        return writtenAt;
+    }
+
+    public long getCompletedAt() {
+        return completedAt;
     }
 
     /**
-     * Write the textual value of a positive integer to the supplied buffer.
+     * Get a {@link CompletableFuture} that completes with the command output,
+     * or exceptionally with a {@link RedisException} when redis replied with an
+     * error.
      *
-     * @param buf   Buffer to write to.
-     * @param value Value to write.
+     * @return The completion stage of this command.
      */
-    protected static void writeInt(ChannelBuffer buf, int value) {
-        if (value < 10) {
-            buf.writeByte('0' + value);
+    public CompletableFuture<T> toCompletableFuture() {
+        CompletableFuture<T> stage = this.stage;
+        if (stage == null) {
+            synchronized (this) {
+                stage = this.stage;
+                if (stage == null) {
+                    stage = new CompletableFuture<T>();
+                    this.stage = stage;
+                }
+            }
+            if (isDone()) {
+                notifyStage();
+            }
+        }
+        return stage;
+    }
+
+    public <U> CompletableFuture<U> thenApply(Function<? super T, ? extends U> fn) {
+        return toCompletableFuture().thenApply(fn);
+    }
+
+    public <U> CompletableFuture<U> thenCompose(Function<? super T, ? extends CompletionStage<U>> fn) {
+        return toCompletableFuture().thenCompose(fn);
+    }
+
+    public CompletableFuture<Void> thenAccept(Consumer<? super T> action) {
+        return toCompletableFuture().thenAccept(action);
+    }
+
+    public CompletableFuture<T> whenComplete(BiConsumer<? super T, ? super Throwable> action) {
+        return toCompletableFuture().whenComplete(action);
+    }
+
+    private void notifyListeners() {
+        List<Runnable> listeners;
+        synchronized (this) {
+            listeners = this.listeners;
+            this.listeners = null;
+        }
+        if (listeners != null) {
+            for (Runnable listener : listeners) {
+                listener.run();
+            }
+        }
+    }
+
+    private void notifyStage() {
+        final CompletableFuture<T> stage = this.stage;
+        if (stage == null || stage.isDone())
+            return;
+
+        if (executor == null) {
+            completeStage(stage);
             return;
         }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                completeStage(stage);
+            }
+        });
+    }
+
+    private void completeStage(CompletableFuture<T> stage) {
+        if (timedOut) {
+            stage.completeExceptionally(new RedisException("Command timed out"));
+        } else if (cancelled) {
+            stage.cancel(false);
+        } else if (output.hasError()) {
+            stage.completeExceptionally(new RedisException(output.getError()));
+        } else {
+            stage.complete(output.get());
+        }
+    }
 
-        StringBuilder sb = new StringBuilder(8);
-        while (value > 0) {
-            int digit = value % 10;
-            sb.append((char) ('0' + digit));
-            value /= 10;
+    /**
+     * Encode and write this command to the supplied buffer using the new
+     * <a href="http://redis.io/topics/protocol">Unified Request Protocol</a>.
+     *
+     * @param buf Buffer to write to.
+     */
+    void encode(ChannelBuffer buf) {
+        RespEncoder.writeArrayHeader(buf, 1 + (args != null ? args.count() : 0));
+        buf.writeBytes(type.encoded);
+        if (args != null) {
+            args.encode(buf);
         }
+    }
 
-        for (int i = sb.length() - 1; i >= 0; i--) {
-            buf.writeByte(sb.charAt(i));
+    /**
+     * Exact number of bytes written by {@link #encode(ChannelBuffer)}.
+     *
+     * @return The encoded length of this command.
+     */
+    int encodedLength() {
+        int length = RespEncoder.arrayHeaderLength(1 + (args != null ? args.count() : 0)) + type.encoded.length;
+        if (args != null) {
+            length += args.encodedLength();
         }
+        return length;
     }
 }
@@ -1,39 +1,78 @@
 package jmind.redis.protocol;
 
-import static java.lang.Math.max;
-
-import java.nio.BufferOverflowException;
-import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Map;
 
 import jmind.redis.codec.RedisCodec;
 
+import org.jboss.netty.buffer.ChannelBuffer;
+
 /**
- * Redis command argument encoder.
+ * Redis command argument encoder. Arguments are kept as the byte arrays
+ * produced by the codec and the exact size of their encoding is tracked, so
+ * a command can be written into a buffer allocated once at its final size.
+ * Integers and keywords are written at encode time from their value or
+ * precomputed bytes, without intermediate strings.
  *
  * @author wbxie
  */
 public class CommandArgs<K, V> {
-    private static final byte[] CRLF = "\r\n".getBytes(Charsets.UTF8);
+    private static final byte RAW = 0;
+    private static final byte ENCODED = 1;
+    private static final byte INTEGER = 2;
 
     private RedisCodec<K, V> codec;
-    private ByteBuffer buffer;
+    private byte[][] args;
+    private byte[] kinds;
+    private long[] integers;
     private int count;
+    private int length;
 
     public CommandArgs(RedisCodec<K, V> codec) {
         this.codec = codec;
-        this.buffer = ByteBuffer.allocate(32);
-    }
-
-    public ByteBuffer buffer() {
-        buffer.flip();
-        return buffer;
+        this.args = new byte[8][];
+        this.kinds = new byte[8];
     }
 
     public int count() {
         return count;
     }
 
+    /**
+     * Number of bytes written by {@link #encode(ChannelBuffer)}.
+     *
+     * @return The encoded length of all arguments.
+     */
+    public int encodedLength() {
+        return length;
+    }
+
+    /**
+     * Write all arguments as bulk strings.
+     *
+     * @param buf Buffer to write to.
+     */
+    public void encode(ChannelBuffer buf) {
+        for (int i = 0; i < count; i++) {
+            switch (kinds[i]) {
+            case ENCODED:
+                buf.writeBytes(args[i]);
+                break;
+            case INTEGER:
+                long n = integers[i];
+                RespEncoder.writeBulkHeader(buf, RespEncoder.length(n));
+                RespEncoder.writeLong(buf, n);
+                buf.writeBytes(RespEncoder.CRLF);
+                break;
+            default:
+                byte[] arg = args[i];
+                RespEncoder.writeBulkHeader(buf, arg.length);
+                buf.writeBytes(arg);
+                buf.writeBytes(RespEncoder.CRLF);
+            }
+        }
+    }
+
     public CommandArgs<K, V> addKey(K key) {
         return write(codec.encodeKey(key));
     }
@@ -57,9 +96,7 @@ public class CommandArgs<K, V> {
     }
 
     public CommandArgs<K, V> add(Map<K, V> map) {
-        if (map.size() > 2) {
-            realloc(buffer.capacity() + 16 * map.size());
-        }
+        ensureCapacity(count + 2 * map.size());
 
         for (Map.Entry<K, V> entry : map.entrySet()) {
             write(codec.encodeKey(entry.getKey()));
@@ -70,15 +107,26 @@ public class CommandArgs<K, V> {
     }
 
     public CommandArgs<K, V> add(String s) {
-        return write(s);
+        return write(s.getBytes(Charsets.UTF8));
     }
 
     public CommandArgs<K, V> add(long n) {
-        return write(Long.toString(n));
+        byte[] cached = RespEncoder.bulk(n);
+        if (cached != null)
+            return writeEncoded(cached);
+
+        ensureCapacity(count + 1);
+        if (integers == null) {
+            integers = new long[args.length];
+        }
+        integers[count] = n;
+        kinds[count++] = INTEGER;
+        length += RespEncoder.bulkLength(RespEncoder.length(n));
+        return this;
     }
 
     public CommandArgs<K, V> add(double n) {
-        return write(Double.toString(n));
+        return write(Double.toString(n).getBytes(Charsets.UTF8));
     }
 
     public CommandArgs<K, V> add(byte[] value) {
@@ -86,92 +134,37 @@ public class CommandArgs<K, V> {
     }
 
     public CommandArgs<K, V> add(CommandKeyword keyword) {
-        return write(keyword.bytes);
+        return writeEncoded(keyword.encoded);
     }
 
     public CommandArgs<K, V> add(RedisCommand type) {
-        return write(type.bytes);
+        return writeEncoded(type.encoded);
     }
 
     private CommandArgs<K, V> write(byte[] arg) {
-        buffer.mark();
-
-        if (buffer.remaining() < arg.length) {
-            int estimate = buffer.remaining() + arg.length + 10;
-            realloc(max(buffer.capacity() * 2, estimate));
-        }
-
-        while (true) {
-            try {
-                buffer.put((byte) '$');
-                write(arg.length);
-                buffer.put(CRLF);
-                buffer.put(arg);
-                buffer.put(CRLF);
-                break;
-            } catch (BufferOverflowException e) {
-                buffer.reset();
-                realloc(buffer.capacity() * 2);
-            }
-        }
-
-        count++;
+        ensureCapacity(count + 1);
+        args[count] = arg;
+        kinds[count++] = RAW;
+        length += RespEncoder.bulkLength(arg.length);
         return this;
     }
 
-    private CommandArgs<K, V> write(String arg) {
-        int length = arg.length();
-
-        buffer.mark();
-
-        if (buffer.remaining() < length) {
-            int estimate = buffer.remaining() + length + 10;
-            realloc(max(buffer.capacity() * 2, estimate));
-        }
-
-        while (true) {
-            try {
-                buffer.put((byte) '$');
-                write(length);
-                buffer.put(CRLF);
-                for (int i = 0; i < length; i++) {
-                    buffer.put((byte) arg.charAt(i));
-                }
-                buffer.put(CRLF);
-                break;
-            } catch (BufferOverflowException e) {
-                buffer.reset();
-                realloc(buffer.capacity() * 2);
-            }
-        }
-
-        count++;
+    private CommandArgs<K, V> writeEncoded(byte[] bulk) {
+        ensureCapacity(count + 1);
+        args[count] = bulk;
+        kinds[count++] = ENCODED;
+        length += bulk.length;
         return this;
     }
 
-    private void write(long value) {
-        if (value < 10) {
-            buffer.put((byte) ('0' + value));
-            return;
-        }
-
-        StringBuilder sb = new StringBuilder(8);
-        while (value > 0) {
-            long digit = value % 10;
-            sb.append((char) ('0' + digit));
-            value /= 10;
-        }
-
-        for (int i = sb.length() - 1; i >= 0; i--) {
-            buffer.put((byte) sb.charAt(i));
+    private void ensureCapacity(int size) {
+        if (size > args.length) {
+            int capacity = Math.max(size, args.length * 2);
+            args = Arrays.copyOf(args, capacity);
+            kinds = Arrays.copyOf(kinds, capacity);
+            if (integers != null) {
+                integers = Arrays.copyOf(integers, capacity);
+            }
         }
     }
-
-    private void realloc(int size) {
-        ByteBuffer buffer = ByteBuffer.allocate(size);
-        this.buffer.flip();
-        buffer.put(this.buffer);
-        buffer.mark();
-        this.buffer = buffer;
-    }
 }
@@ -1,68 +1,400 @@
 package jmind.redis.protocol;
 
-import java.util.concurrent.BlockingQueue;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
 
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
 import org.jboss.netty.channel.ChannelHandler;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.channel.ChannelStateEvent;
 import org.jboss.netty.channel.Channels;
 import org.jboss.netty.channel.MessageEvent;
 import org.jboss.netty.channel.SimpleChannelHandler;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.TimerTask;
+
+import jmind.redis.metrics.CommandLatencies;
+import jmind.redis.metrics.ConnectionStats;
+import jmind.redis.out.DiscardOutput;
 
 /**
  * A netty {@link ChannelHandler} responsible for writing redis commands and
  * reading responses from the server.
  *
+ * When auto-flush is enabled commands written while a previous write is still
+ * in flight are encoded into one shared outbound buffer, which is flushed as a
+ * single write once the in-flight write completes, the batch is full or the
+ * maximum delay has passed.
+ *
  * @author wbxie
  */
 public class CommandHandler<K, V> extends SimpleChannelHandler {
-    protected BlockingQueue<Command<K, V, ?>> queue;
+    private static final int MAX_RETAINED_BUFFER = 64 * 1024;
+
+    protected Queue<Command<K, V, ?>> queue;
     protected ChannelBuffer buffer;
     protected RedisStateMachine<K, V> rsm;
+    private final DiscardOutput<K, V> discard = new DiscardOutput<K, V>();
+
+    private final Object lock = new Object();
+    private boolean autoFlush;
+    private int maxBatchSize;
+    private long maxDelay;
+    private Timer timer;
+
+    private ChannelBuffer pending;
+    private List<ChannelFuture> pendingFutures = new ArrayList<ChannelFuture>();
+    private int pendingCount;
+    private long pendingSince;
+    private Timeout flushTimeout;
+    private boolean flushing;
+    private int inFlight;
+    private volatile CommandLatencies.Recorder latencies;
+    private volatile ConnectionStats stats;
+    private volatile InflightLimiter limiter;
 
     /**
      * Initialize a new instance that handles commands from the supplied queue.
      *
      * @param queue The command queue.
      */
-    public CommandHandler(BlockingQueue<Command<K, V, ?>> queue) {
+    public CommandHandler(Queue<Command<K, V, ?>> queue) {
         this.queue = queue;
     }
 
+    /**
+     * Enable coalescing of commands written while another write is in flight.
+     *
+     * @param maxBatchSize  Maximum number of commands per write.
+     * @param maxDelay      Maximum time a command may wait for the in-flight write.
+     * @param unit          Unit of time for the delay.
+     * @param timer         Timer used to enforce the delay, or null to only flush
+     *                      on write completion.
+     */
+    public void setAutoFlush(int maxBatchSize, long maxDelay, TimeUnit unit, Timer timer) {
+        synchronized (lock) {
+            this.autoFlush = true;
+            this.maxBatchSize = maxBatchSize;
+            this.maxDelay = unit.toNanos(maxDelay);
+            this.timer = timer;
+        }
+    }
+
+    /**
+     * Record the write and reply time of every command into the supplied
+     * recorder.
+     *
+     * @param latencies Recorder of this connection, or null to stop recording.
+     */
+    public void setLatencies(CommandLatencies.Recorder latencies) {
+        this.latencies = latencies;
+    }
+
+    /**
+     * Count bytes written and read and commands completed on this connection.
+     *
+     * @param stats Connection counters, or null to stop counting.
+     */
+    public void setStats(ConnectionStats stats) {
+        this.stats = stats;
+    }
+
+    /**
+     * Return the permit of every command whose reply was read.
+     *
+     * @param limiter Limiter shared with the connection's RedisHandler, or null.
+     */
+    public void setLimiter(InflightLimiter limiter) {
+        this.limiter = limiter;
+    }
+
     @Override
     public void channelOpen(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
         buffer = ChannelBuffers.dynamicBuffer(ctx.getChannel().getConfig().getBufferFactory());
         rsm = new RedisStateMachine<K, V>();
+        synchronized (lock) {
+            inFlight = 0;
+        }
+    }
+
+    @Override
+    public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        List<ChannelFuture> futures;
+        synchronized (lock) {
+            futures = pendingFutures;
+            pendingFutures = new ArrayList<ChannelFuture>();
+            pending = null;
+            pendingCount = 0;
+            cancelFlushTimeout();
+        }
+        // unwritten commands stay queued and are replayed by the RedisHandler on reconnect
+        for (ChannelFuture future : futures) {
+            future.setFailure(new ClosedChannelException());
+        }
+        super.channelClosed(ctx, e);
     }
 
     @Override
     public void writeRequested(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
-        Command<?, ?, ?> cmd = (Command<?, ?, ?>) e.getMessage();
+        final Object msg = e.getMessage();
         Channel channel = ctx.getChannel();
-        ChannelBuffer buf = ChannelBuffers.dynamicBuffer(channel.getConfig().getBufferFactory());
-        cmd.encode(buf);
-        Channels.write(ctx, e.getFuture(), buf);
+
+        if (latencies != null) {
+            e.getFuture().addListener(new ChannelFutureListener() {
+                @Override
+                public void operationComplete(ChannelFuture future) throws Exception {
+                    if (future.isSuccess()) {
+                        markWritten(msg);
+                    }
+                }
+            });
+        }
+
+        ConnectionStats stats = this.stats;
+        if (!autoFlush) {
+            int length = encodedLength(msg);
+            ChannelBuffer buf = channel.getConfig().getBufferFactory().getBuffer(length);
+            encode(msg, buf);
+            if (stats != null) {
+                stats.written(length);
+            }
+            Channels.write(ctx, e.getFuture(), buf);
+            return;
+        }
+
+        synchronized (lock) {
+            if (pending == null) {
+                pending = ChannelBuffers.dynamicBuffer(encodedLength(msg), channel.getConfig().getBufferFactory());
+                pendingSince = System.nanoTime();
+                if (inFlight > 0 && timer != null && maxDelay > 0) {
+                    flushTimeout = timer.newTimeout(new FlushTask(ctx), maxDelay, TimeUnit.NANOSECONDS);
+                }
+            }
+            int start = pending.writerIndex();
+            pendingCount += encode(msg, pending);
+            pendingFutures.add(e.getFuture());
+            if (stats != null) {
+                stats.written(pending.writerIndex() - start);
+            }
+        }
+        flush(ctx);
     }
 
+    /**
+     * Encode a single {@link Command}, or a batch of commands written together.
+     *
+     * @param msg   Command or collection of commands.
+     * @param buf   Buffer to write to.
+     *
+     * @return The number of commands encoded.
+     */
+    private int encode(Object msg, ChannelBuffer buf) {
+        if (msg instanceof Collection) {
+            Collection<?> batch = (Collection<?>) msg;
+            for (Object cmd : batch) {
+                ((Command<?, ?, ?>) cmd).encode(buf);
+            }
+            return batch.size();
+        }
+        ((Command<?, ?, ?>) msg).encode(buf);
+        return 1;
+    }
+
+    private void markWritten(Object msg) {
+        if (msg instanceof Collection) {
+            for (Object cmd : (Collection<?>) msg) {
+                ((Command<?, ?, ?>) cmd).markWritten();
+            }
+        } else {
+            ((Command<?, ?, ?>) msg).markWritten();
+        }
+    }
+
+    /**
+     * Exact number of bytes {@link #encode(Object, ChannelBuffer)} writes.
+     *
+     * @param msg   Command or collection of commands.
+     *
+     * @return The encoded length.
+     */
+    private int encodedLength(Object msg) {
+        if (msg instanceof Collection) {
+            int length = 0;
+            for (Object cmd : (Collection<?>) msg) {
+                length += ((Command<?, ?, ?>) cmd).encodedLength();
+            }
+            return length;
+        }
+        return ((Command<?, ?, ?>) msg).encodedLength();
+    }
+
+    /**
+     * Write the shared outbound buffer when no write is in flight, the batch is
+     * full or the oldest pending command waited long enough. Only one thread
+     * writes at a time so batches reach the channel in dispatch order.
+     *
+     * @param ctx   Channel handler context.
+     */
+    protected void flush(final ChannelHandlerContext ctx) {
+        while (true) {
+            ChannelBuffer buf;
+            final List<ChannelFuture> futures;
+            synchronized (lock) {
+                if (flushing || pending == null)
+                    return;
+                boolean full = pendingCount >= maxBatchSize;
+                boolean late = System.nanoTime() - pendingSince >= maxDelay;
+                if (inFlight > 0 && !full && !late)
+                    return;
+
+                buf = pending;
+                futures = pendingFutures;
+                pending = null;
+                pendingCount = 0;
+                pendingFutures = new ArrayList<ChannelFuture>(futures.size());
+                cancelFlushTimeout();
+                flushing = true;
+                inFlight++;
+            }
+
+            ChannelFuture future = Channels.future(ctx.getChannel());
+            future.addListener(new ChannelFutureListener() {
+                @Override
+                public void operationComplete(ChannelFuture future) throws Exception {
+                    for (ChannelFuture f : futures) {
+                        if (future.isSuccess()) {
+                            f.setSuccess();
+                        } else {
+                            f.setFailure(future.getCause());
+                        }
+                    }
+                    synchronized (lock) {
+                        inFlight--;
+                    }
+                    flush(ctx);
+                }
+            });
+
+            try {
+                Channels.write(ctx, future, buf);
+            } finally {
+                synchronized (lock) {
+                    flushing = false;
+                }
+            }
+        }
+    }
+
+    private void cancelFlushTimeout() {
+        if (flushTimeout != null) {
+            flushTimeout.cancel();
+            flushTimeout = null;
+        }
+    }
+
+    /**
+     * Decode replies straight from the received buffer, behind whatever was
+     * left over from the previous read, so complete elements are never copied.
+     * Only an element split across reads is accumulated in {@link #buffer}.
+     */
     @Override
     public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
         ChannelBuffer input = (ChannelBuffer) e.getMessage();
         if (!input.readable())
             return;
 
-        buffer.discardReadBytes();
-        buffer.writeBytes(input);
+        ConnectionStats stats = this.stats;
+        if (stats != null) {
+            stats.read(input.readableBytes());
+        }
+
+        if (buffer.readable()) {
+            int buffered = buffer.readableBytes();
+            ChannelBuffer composite = ChannelBuffers.wrappedBuffer(buffer, input);
+            decode(ctx, composite);
+            int consumed = composite.readerIndex();
+            if (consumed < buffered) {
+                buffer.skipBytes(consumed);
+                buffer.discardReadBytes();
+                buffer.writeBytes(input);
+            } else {
+                buffer.clear();
+                input.skipBytes(consumed - buffered);
+                if (input.readable()) {
+                    buffer.writeBytes(input);
+                }
+            }
+        } else {
+            decode(ctx, input);
+            if (input.readable()) {
+                buffer.clear();
+                buffer.writeBytes(input);
+            }
+        }
 
-        decode(ctx, buffer);
+        if (!buffer.readable() && buffer.capacity() > MAX_RETAINED_BUFFER) {
+            buffer = ChannelBuffers.dynamicBuffer(ctx.getChannel().getConfig().getBufferFactory());
+        }
     }
 
-    protected void decode(ChannelHandlerContext ctx, ChannelBuffer buffer) throws InterruptedException {
-        while (!queue.isEmpty() && rsm.decode(buffer, queue.peek().getOutput())) {
-            Command<K, V, ?> cmd = queue.take();
+    /**
+     * Decode replies in the order their commands were written. Replies to
+     * commands that were cancelled or timed out are still read, into a
+     * {@link DiscardOutput}, so later replies match their commands.
+     */
+    protected void decode(ChannelHandlerContext ctx, ChannelBuffer buffer) {
+        CommandLatencies.Recorder latencies = this.latencies;
+        ConnectionStats stats = this.stats;
+        InflightLimiter limiter = this.limiter;
+        Command<K, V, ?> cmd;
+        while ((cmd = queue.peek()) != null) {
+            boolean cancelled = cmd.isCancelled();
+            if (!rsm.decode(buffer, cancelled ? discard : cmd.getOutput()))
+                break;
+            queue.poll();
+            if (limiter != null) {
+                limiter.release(cmd);
+            }
+            if (cancelled)
+                continue;
+
+            if (latencies != null) {
+                cmd.markCompleted();
+            }
             cmd.complete();
+            if (latencies != null) {
+                latencies.record(cmd);
+            }
+            if (stats != null) {
+                stats.completed();
+            }
+        }
+    }
+
+    /**
+     * Flushes the pending buffer once the maximum delay has passed.
+     */
+    private class FlushTask implements TimerTask {
+        private final ChannelHandlerContext ctx;
+
+        FlushTask(ChannelHandlerContext ctx) {
+            this.ctx = ctx;
+        }
+
+        @Override
+        public void run(Timeout timeout) throws Exception {
+            if (!timeout.isCancelled()) {
+                flush(ctx);
+            }
         }
     }
 }
@@ -6,11 +6,17 @@ package jmind.redis.protocol;
  * @author wbxie
  */
 public enum CommandKeyword {
-    AFTER, AGGREGATE, ALPHA, AND, ASC, BEFORE, BY, COUNT, DESC, ENCODING, FLUSH, GETNAME, IDLETIME, KILL, LEN, LIMIT, LIST, LOAD, MAX, MIN, NO, NOSAVE, NOT, ONE, OR, REFCOUNT, RESET, RESETSTAT, SETNAME, STORE, SUM, WEIGHTS, WITHSCORES, XOR;
+    AFTER, AGGREGATE, ALPHA, AND, ASC, BEFORE, BY, COUNT, DESC, ENCODING, FLUSH, GETNAME, IDLETIME, KILL, LEN, LIMIT, LIST, LOAD, MATCH, MAX, MIN, NO, NOSAVE, NOT, ONE, OR, REFCOUNT, RESET, RESETSTAT, SETNAME, SLOTS, STORE, SUM, WEIGHTS, WITHSCORES, XOR;
 
     public byte[] bytes;
 
+    /**
+     * The name encoded as a complete bulk string, <code>$len\r\nNAME\r\n</code>.
+     */
+    public final byte[] encoded;
+
     private CommandKeyword() {
         bytes = name().getBytes(Charsets.UTF8);
+        encoded = RespEncoder.bulk(bytes);
     }
 }
@@ -0,0 +1,193 @@
+package jmind.redis.protocol;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import jmind.redis.RedisCmdInterruptedException;
+
+/**
+ * Bounds the commands of one connection that were dispatched but have not
+ * been answered yet, by count and by encoded size. A permit is taken when a
+ * command is dispatched and returned when its reply was read or it was
+ * dropped from the connection.
+ *
+ * @author wbxie
+ */
+public class InflightLimiter {
+    /**
+     * What to do with a command that does not fit.
+     */
+    public enum Policy {
+        /** Wait for room up to the configured time, then reject. */
+        BLOCK,
+        /** Reject immediately. */
+        FAIL_FAST,
+        /**
+         * Accept the command and drop the oldest queued commands while the
+         * connection is down. Commands already written to a live connection
+         * cannot be dropped, so this rejects like {@link #FAIL_FAST} while
+         * connected.
+         */
+        DROP_OLDEST
+    }
+
+    private final int maxCommands;
+    private final long maxBytes;
+    private final Policy policy;
+    private final long maxWait;
+
+    private final AtomicInteger commands = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+    private final LongAdder rejected = new LongAdder();
+    private final AtomicInteger waiters = new AtomicInteger();
+
+    /**
+     * Create a new limiter.
+     *
+     * @param maxCommands   Maximum number of commands in flight, or 0 for no limit.
+     * @param maxBytes      Maximum encoded size of commands in flight, or 0 for no limit.
+     * @param policy        Policy for commands that do not fit.
+     * @param maxWait       Maximum time to wait for room with {@link Policy#BLOCK}.
+     * @param unit          Unit of time for the wait.
+     */
+    public InflightLimiter(int maxCommands, long maxBytes, Policy policy, long maxWait, TimeUnit unit) {
+        this.maxCommands = maxCommands > 0 ? maxCommands : Integer.MAX_VALUE;
+        this.maxBytes = maxBytes > 0 ? maxBytes : Long.MAX_VALUE;
+        this.policy = policy;
+        this.maxWait = unit.toNanos(maxWait);
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Take a permit for a command about to be dispatched. With
+     * {@link Policy#BLOCK} this may wait, so it must not be called on a netty
+     * I/O thread.
+     *
+     * @param cmd       Command to dispatch.
+     * @param connected Whether the connection is currently up.
+     *
+     * @return true if the command may be dispatched, false if it was rejected.
+     */
+    public boolean acquire(Command<?, ?, ?> cmd, boolean connected) {
+        int size = cmd.encodedLength();
+        if (tryAcquire(size))
+            return true;
+
+        switch (policy) {
+        case DROP_OLDEST:
+            if (!connected) {
+                add(size);
+                return true;
+            }
+            break;
+        case BLOCK:
+            if (await(size))
+                return true;
+            break;
+        default:
+        }
+        rejected.increment();
+        return false;
+    }
+
+    /**
+     * Take a permit regardless of the limits, for commands the connection
+     * sends on its own.
+     *
+     * @param cmd   Command to dispatch.
+     */
+    public void force(Command<?, ?, ?> cmd) {
+        add(cmd.encodedLength());
+    }
+
+    /**
+     * Return the permit of a command that was answered or dropped.
+     *
+     * @param cmd   Command that left the connection.
+     */
+    public void release(Command<?, ?, ?> cmd) {
+        commands.decrementAndGet();
+        bytes.addAndGet(-cmd.encodedLength());
+        if (waiters.get() > 0) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Count a command that was dropped to make room for newer ones.
+     */
+    public void dropped() {
+        rejected.increment();
+    }
+
+    /**
+     * Check whether more commands are in flight than the limits allow, which
+     * only happens with {@link Policy#DROP_OLDEST} while disconnected.
+     *
+     * @return true if the oldest commands should be dropped.
+     */
+    public boolean isOverLimit() {
+        return commands.get() > maxCommands || bytes.get() > maxBytes;
+    }
+
+    public int getCommands() {
+        return commands.get();
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * Get the number of commands that were rejected or dropped.
+     *
+     * @return Rejected commands since the limiter was created.
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    private boolean tryAcquire(int size) {
+        if (commands.incrementAndGet() <= maxCommands) {
+            long total = bytes.addAndGet(size);
+            // a command larger than the byte limit still goes out on an idle connection
+            if (total <= maxBytes || total == size)
+                return true;
+            bytes.addAndGet(-size);
+        }
+        commands.decrementAndGet();
+        return false;
+    }
+
+    private void add(int size) {
+        commands.incrementAndGet();
+        bytes.addAndGet(size);
+    }
+
+    private boolean await(int size) {
+        long deadline = System.nanoTime() + maxWait;
+        waiters.incrementAndGet();
+        try {
+            synchronized (this) {
+                while (!tryAcquire(size)) {
+                    long nanos = deadline - System.nanoTime();
+                    if (nanos <= 0)
+                        return false;
+                    TimeUnit.NANOSECONDS.timedWait(this, nanos);
+                }
+                return true;
+            }
+        } catch (InterruptedException e) {
+            throw new RedisCmdInterruptedException(e);
+        } finally {
+            waiters.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package jmind.redis.protocol;
+
+/**
+ * Decides how long {@link RedisWatchdog} waits before each reconnect attempt.
+ *
+ * @author wbxie
+ */
+public interface ReconnectPolicy {
+
+    /**
+     * Get the delay before a reconnect attempt.
+     *
+     * @param attempt   Number of the attempt since the connection was lost,
+     *                  starting at 1.
+     *
+     * @return Delay in milliseconds, 0 to reconnect right away.
+     */
+    long delay(int attempt);
+}
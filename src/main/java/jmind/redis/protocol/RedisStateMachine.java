@@ -1,15 +1,9 @@
 package jmind.redis.protocol;
 
 import static jmind.redis.protocol.Charsets.buffer;
-import static jmind.redis.protocol.RedisStateMachine.State.Type.BULK;
-import static jmind.redis.protocol.RedisStateMachine.State.Type.BYTES;
-import static jmind.redis.protocol.RedisStateMachine.State.Type.ERROR;
-import static jmind.redis.protocol.RedisStateMachine.State.Type.INTEGER;
-import static jmind.redis.protocol.RedisStateMachine.State.Type.MULTI;
-import static jmind.redis.protocol.RedisStateMachine.State.Type.SINGLE;
 
 import java.nio.ByteBuffer;
-import java.util.LinkedList;
+import java.util.Arrays;
 
 import jmind.redis.RedisException;
 import jmind.redis.out.CommandOut;
@@ -25,22 +19,29 @@ import org.jboss.netty.buffer.ChannelBuffer;
 public class RedisStateMachine<K, V> {
     private static final ByteBuffer QUEUED = buffer("QUEUED");
 
-    static class State {
-        enum Type {
-            SINGLE, ERROR, INTEGER, BULK, MULTI, BYTES
-        }
-
-        Type type = null;
-        int count = -1;
-    }
+    private static final byte NONE = 0;
+    private static final byte SINGLE = 1;
+    private static final byte ERROR = 2;
+    private static final byte INTEGER = 3;
+    private static final byte BULK = 4;
+    private static final byte MULTI = 5;
+    private static final byte BYTES = 6;
 
-    private LinkedList<State> stack;
+    /**
+     * Parse stack kept as parallel primitive arrays so that decoding a reply,
+     * however many elements it has, allocates no state objects. Entry
+     * <code>depth - 1</code> is the top of the stack.
+     */
+    private byte[] types;
+    private int[] counts;
+    private int depth;
 
     /**
      * Initialize a new instance.
      */
     public RedisStateMachine() {
-        stack = new LinkedList<State>();
+        types = new byte[8];
+        counts = new int[8];
     }
 
     /**
@@ -56,23 +57,23 @@ public class RedisStateMachine<K, V> {
         int length, end;
         ByteBuffer bytes;
 
-        if (stack.isEmpty()) {
-            stack.add(new State());
+        if (depth == 0) {
+            push();
         }
 
         loop:
 
-        while (!stack.isEmpty()) {
-            State state = stack.peek();
+        while (depth > 0) {
+            int top = depth - 1;
 
-            if (state.type == null) {
+            if (types[top] == NONE) {
                 if (!buffer.readable())
                     break;
-                state.type = readReplyType(buffer);
+                types[top] = readReplyType(buffer);
                 buffer.markReaderIndex();
             }
 
-            switch (state.type) {
+            switch (types[top]) {
             case SINGLE:
                 if ((bytes = readLine(buffer)) == null)
                     break loop;
@@ -97,39 +98,49 @@ public class RedisStateMachine<K, V> {
                 if (length == -1) {
                     output.set(null);
                 } else {
-                    state.type = BYTES;
-                    state.count = length + 2;
+                    types[top] = BYTES;
+                    counts[top] = length + 2;
                     buffer.markReaderIndex();
                     continue loop;
                 }
                 break;
             case MULTI:
-                if (state.count == -1) {
+                if (counts[top] == -1) {
                     if ((end = findLineEnd(buffer)) == -1)
                         break loop;
                     length = (int) readLong(buffer, buffer.readerIndex(), end);
-                    state.count = length;
+                    counts[top] = length;
                     buffer.markReaderIndex();
                 }
 
-                if (state.count <= 0)
+                if (counts[top] <= 0)
                     break;
 
-                state.count--;
-                stack.addFirst(new State());
+                counts[top]--;
+                push();
                 continue loop;
             case BYTES:
-                if ((bytes = readBytes(buffer, state.count)) == null)
+                if ((bytes = readBytes(buffer, counts[top])) == null)
                     break loop;
                 output.set(bytes);
             }
 
             buffer.markReaderIndex();
-            stack.remove();
-            output.complete(stack.size());
+            depth--;
+            output.complete(depth);
         }
 
-        return stack.isEmpty();
+        return depth == 0;
+    }
+
+    private void push() {
+        if (depth == types.length) {
+            types = Arrays.copyOf(types, depth * 2);
+            counts = Arrays.copyOf(counts, depth * 2);
+        }
+        types[depth] = NONE;
+        counts[depth] = -1;
+        depth++;
     }
 
     private int findLineEnd(ChannelBuffer buffer) {
@@ -138,7 +149,7 @@ public class RedisStateMachine<K, V> {
         return (index > 0 && buffer.getByte(index - 1) == '\r') ? index : -1;
     }
 
-    private State.Type readReplyType(ChannelBuffer buffer) {
+    private byte readReplyType(ChannelBuffer buffer) {
         switch (buffer.readByte()) {
         case '+':
             return SINGLE;
@@ -28,10 +28,17 @@ public class RedisWatchdog extends SimpleChannelUpstreamHandler implements Timer
     private Channel channel;
     private final ChannelGroup channels;
     private Timer timer;
-    private boolean reconnect;
-    private int attempts;
-    private final SocketAddress serverAddress;
+    private volatile boolean reconnect;
+    private boolean scheduled;
+    private Timeout pending;
+    private volatile int attempts;
+    private volatile long reconnects;
+    private boolean connected;
+    private ReconnectPolicy policy = new BackoffReconnectPolicy(100, 30000, TimeUnit.MILLISECONDS);
+    private volatile SocketAddress serverAddress;
     private Class<? extends ChannelHandler> handlerType;
+    private ChannelHandler commandHandler;
+    private ChannelHandler connection;
 
     /**
      * Create a new watchdog that adds to new connections to the supplied {@link ChannelGroup}
@@ -55,25 +62,155 @@ public class RedisWatchdog extends SimpleChannelUpstreamHandler implements Timer
         this.reconnect = reconnect;
     }
 
+    /**
+     * Stop reconnecting for good: cancel a scheduled reconnect attempt and
+     * close the current channel, which may still be connecting.
+     */
+    public void stop() {
+        Channel channel;
+        synchronized (this) {
+            reconnect = false;
+            if (pending != null) {
+                pending.cancel();
+                pending = null;
+                scheduled = false;
+            }
+            channel = this.channel;
+        }
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    /**
+     * Set the policy that decides the delay before each reconnect attempt.
+     * Defaults to a {@link BackoffReconnectPolicy} from 100 milliseconds up to
+     * 30 seconds.
+     *
+     * @param policy Reconnect policy.
+     */
+    public void setReconnectPolicy(ReconnectPolicy policy) {
+        this.policy = policy;
+    }
+
+    /**
+     * Get the number of reconnect attempts since the connection was lost.
+     *
+     * @return Attempts so far, 0 while connected.
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * Get the number of times the connection was re-established.
+     *
+     * @return Successful reconnects.
+     */
+    public long getReconnects() {
+        return reconnects;
+    }
+
+    /**
+     * Reset the backoff once the connection is usable. Called by the
+     * connection handler when the channel connected, or when its readiness
+     * probe succeeded, so a server that accepts connections but fails the
+     * probe is retried with increasing delays.
+     */
+    public void ready() {
+        attempts = 0;
+    }
+
+    /**
+     * Remember the handlers of the first channel, so channels can be
+     * re-created even if that channel never connected.
+     */
+    @Override
+    public void channelOpen(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        synchronized (this) {
+            channel = ctx.getChannel();
+            if (commandHandler == null) {
+                commandHandler = ctx.getPipeline().get(CommandHandler.class);
+                connection = ctx.getPipeline().get(handlerType);
+            }
+        }
+        ctx.sendUpstream(e);
+    }
+
     @Override
     public void channelConnected(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
-        channel = ctx.getChannel();
-        channels.add(channel);
-        attempts = 0;
+        channels.add(ctx.getChannel());
+        if (connected) {
+            reconnects++;
+        }
+        connected = true;
         ctx.sendUpstream(e);
     }
 
     @Override
     public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
-        if (reconnect) {
-            if (attempts < 8)
-                attempts++;
-            int timeout = 2 << attempts;
-            timer.newTimeout(this, timeout, TimeUnit.SECONDS);
+        boolean current;
+        synchronized (this) {
+            current = ctx.getChannel() == channel;
+        }
+        if (current) {
+            scheduleReconnect();
         }
         ctx.sendUpstream(e);
     }
 
+    /**
+     * Schedule a reconnect attempt according to the reconnect policy, unless
+     * one is already scheduled or reconnecting is off. Used directly for a
+     * shard whose first connect failed.
+     */
+    public void scheduleReconnect() {
+        synchronized (this) {
+            if (!reconnect || scheduled)
+                return;
+            scheduled = true;
+            if (attempts < Integer.MAX_VALUE)
+                attempts++;
+            pending = timer.newTimeout(this, policy.delay(attempts), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Get the address the connection reconnects to.
+     *
+     * @return The server address.
+     */
+    public SocketAddress getServerAddress() {
+        return serverAddress;
+    }
+
+    /**
+     * Move the connection to another server, such as a newly promoted master.
+     * The current channel is closed and the connection reconnects to the new
+     * address right away, skipping any backoff in progress. Commands queued
+     * meanwhile are replayed on the new channel.
+     *
+     * @param address   Address of the new server.
+     */
+    public void redirect(SocketAddress address) {
+        Channel channel;
+        synchronized (this) {
+            serverAddress = address;
+            attempts = 0;
+            channel = this.channel;
+            if (pending != null) {
+                pending.cancel();
+                pending = null;
+                scheduled = false;
+            }
+        }
+        if (channel != null && channel.isOpen()) {
+            channel.close();
+        } else {
+            scheduleReconnect();
+        }
+    }
+
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e) throws Exception {
         e.getCause().printStackTrace();
@@ -84,7 +221,7 @@ public class RedisWatchdog extends SimpleChannelUpstreamHandler implements Timer
     /**
      * Reconnect to the remote address that the closed channel was connected to.
      * This creates a new {@link ChannelPipeline} with the same handler instances
-     * contained in the old channel's pipeline.
+     * contained in the first channel's pipeline.
      *
      * @param timeout Timer task handle.
      *
@@ -92,10 +229,17 @@ public class RedisWatchdog extends SimpleChannelUpstreamHandler implements Timer
      */
     @Override
     public void run(Timeout timeout) throws Exception {
-        ChannelPipeline old = channel.getPipeline();
-        CommandHandler<?, ?> handler = old.get(CommandHandler.class);
-        ChannelPipeline pipeline = Channels.pipeline(this, handler, old.get(handlerType));
-        Channel c = bootstrap.getFactory().newChannel(pipeline);
+        Channel c;
+        synchronized (this) {
+            if (timeout != pending)
+                return;
+            scheduled = false;
+            pending = null;
+            if (!reconnect)
+                return;
+            ChannelPipeline pipeline = Channels.pipeline(this, commandHandler, connection);
+            c = bootstrap.getFactory().newChannel(pipeline);
+        }
         c.getConfig().setOptions(bootstrap.getOptions());
         c.connect(serverAddress);
 
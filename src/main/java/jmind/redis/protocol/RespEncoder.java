@@ -0,0 +1,164 @@
+package jmind.redis.protocol;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+
+/**
+ * Allocation-free helpers for writing the
+ * <a href="http://redis.io/topics/protocol">Unified Request Protocol</a>.
+ * Array and bulk headers of common sizes and small integer arguments are
+ * precomputed, everything else is written digit by digit straight into the
+ * buffer.
+ *
+ * @author wbxie
+ */
+public final class RespEncoder {
+    static final byte[] CRLF = "\r\n".getBytes(Charsets.UTF8);
+
+    private static final byte[][] ARRAY_HEADERS = headers('*', 128);
+    private static final byte[][] BULK_HEADERS = headers('$', 1024);
+    private static final byte[][] INTEGERS = integers(1024);
+    private static final byte[] MIN_LONG = Long.toString(Long.MIN_VALUE).getBytes(Charsets.UTF8);
+
+    private RespEncoder() {
+    }
+
+    /**
+     * Encode a name as a complete bulk string, <code>$len\r\nNAME\r\n</code>.
+     *
+     * @param name  Raw bytes of the name.
+     *
+     * @return The encoded bulk string.
+     */
+    public static byte[] bulk(byte[] name) {
+        byte[] header = header('$', name.length);
+        byte[] bulk = new byte[header.length + name.length + 2];
+        System.arraycopy(header, 0, bulk, 0, header.length);
+        System.arraycopy(name, 0, bulk, header.length, name.length);
+        bulk[bulk.length - 2] = '\r';
+        bulk[bulk.length - 1] = '\n';
+        return bulk;
+    }
+
+    /**
+     * Precomputed bulk string of a small non-negative integer.
+     *
+     * @param value Integer argument.
+     *
+     * @return The encoded bulk string, or null if the value is not cached.
+     */
+    public static byte[] bulk(long value) {
+        return value >= 0 && value < INTEGERS.length ? INTEGERS[(int) value] : null;
+    }
+
+    /**
+     * Write <code>*count\r\n</code>.
+     */
+    public static void writeArrayHeader(ChannelBuffer buf, int count) {
+        if (count < ARRAY_HEADERS.length) {
+            buf.writeBytes(ARRAY_HEADERS[count]);
+            return;
+        }
+        buf.writeByte('*');
+        writeLong(buf, count);
+        buf.writeBytes(CRLF);
+    }
+
+    /**
+     * Write <code>$length\r\n</code>.
+     */
+    public static void writeBulkHeader(ChannelBuffer buf, int length) {
+        if (length < BULK_HEADERS.length) {
+            buf.writeBytes(BULK_HEADERS[length]);
+            return;
+        }
+        buf.writeByte('$');
+        writeLong(buf, length);
+        buf.writeBytes(CRLF);
+    }
+
+    /**
+     * Write the decimal ASCII form of a value without allocating.
+     *
+     * @param buf   Buffer to write to.
+     * @param value Value to write.
+     */
+    public static void writeLong(ChannelBuffer buf, long value) {
+        if (value < 0) {
+            if (value == Long.MIN_VALUE) {
+                buf.writeBytes(MIN_LONG);
+                return;
+            }
+            buf.writeByte('-');
+            value = -value;
+        }
+
+        if (value < 10) {
+            buf.writeByte((int) ('0' + value));
+            return;
+        }
+
+        int digits = digits(value);
+        buf.ensureWritableBytes(digits);
+        int start = buf.writerIndex();
+        for (int i = start + digits - 1; i >= start; i--) {
+            buf.setByte(i, (int) ('0' + value % 10));
+            value /= 10;
+        }
+        buf.writerIndex(start + digits);
+    }
+
+    /**
+     * Number of bytes {@link #writeLong} writes for a value.
+     */
+    public static int length(long value) {
+        if (value < 0)
+            return value == Long.MIN_VALUE ? MIN_LONG.length : 1 + digits(-value);
+        return digits(value);
+    }
+
+    /**
+     * Size of a bulk string of the given length: <code>$len\r\n...\r\n</code>.
+     */
+    public static int bulkLength(int length) {
+        return 1 + digits(length) + 2 + length + 2;
+    }
+
+    /**
+     * Size of an array header: <code>*count\r\n</code>.
+     */
+    public static int arrayHeaderLength(int count) {
+        return 1 + digits(count) + 2;
+    }
+
+    /**
+     * Number of decimal digits of a non-negative value.
+     */
+    static int digits(long value) {
+        int digits = 1;
+        while (value >= 10) {
+            value /= 10;
+            digits++;
+        }
+        return digits;
+    }
+
+    private static byte[][] headers(char type, int size) {
+        byte[][] headers = new byte[size][];
+        for (int i = 0; i < size; i++) {
+            headers[i] = header(type, i);
+        }
+        return headers;
+    }
+
+    private static byte[][] integers(int size) {
+        byte[][] integers = new byte[size][];
+        for (int i = 0; i < size; i++) {
+            integers[i] = bulk(Integer.toString(i).getBytes(Charsets.UTF8));
+        }
+        return integers;
+    }
+
+    private static byte[] header(char type, int value) {
+        return (type + Integer.toString(value) + "\r\n").getBytes(Charsets.UTF8);
+    }
+}
@@ -0,0 +1,75 @@
+package jmind.redis.protocol;
+
+/**
+ * Maps keys to redis cluster hash slots: the CRC16 (XMODEM) of the key, or of
+ * its hash tag, modulo 16384. A hash tag is the part between the first
+ * <code>{</code> and the next <code>}</code>, if not empty, so keys sharing a
+ * tag share a slot.
+ *
+ * @author wbxie
+ */
+public class SlotHash {
+    /**
+     * Number of hash slots of a redis cluster.
+     */
+    public static final int SLOTS = 16384;
+
+    private static final int[] TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i << 8;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 0x8000) != 0 ? (crc << 1) ^ 0x1021 : crc << 1;
+            }
+            TABLE[i] = crc & 0xffff;
+        }
+    }
+
+    private SlotHash() {
+    }
+
+    /**
+     * Get the hash slot of an encoded key.
+     *
+     * @param key   Encoded key.
+     *
+     * @return The slot, from 0 to 16383.
+     */
+    public static int slot(byte[] key) {
+        int start = 0;
+        int end = key.length;
+        for (int i = 0; i < key.length; i++) {
+            if (key[i] == '{') {
+                for (int j = i + 1; j < key.length; j++) {
+                    if (key[j] == '}') {
+                        if (j > i + 1) {
+                            start = i + 1;
+                            end = j;
+                        }
+                        break;
+                    }
+                }
+                break;
+            }
+        }
+        return crc16(key, start, end) & (SLOTS - 1);
+    }
+
+    /**
+     * CRC16 with the XMODEM polynomial, as used by redis cluster.
+     *
+     * @param bytes Bytes to hash.
+     * @param start First byte, inclusive.
+     * @param end   Last byte, exclusive.
+     *
+     * @return The checksum.
+     */
+    public static int crc16(byte[] bytes, int start, int end) {
+        int crc = 0;
+        for (int i = start; i < end; i++) {
+            crc = ((crc << 8) ^ TABLE[((crc >>> 8) ^ bytes[i]) & 0xff]) & 0xffff;
+        }
+        return crc;
+    }
+}
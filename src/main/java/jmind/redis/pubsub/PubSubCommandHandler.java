@@ -1,6 +1,6 @@
 package jmind.redis.pubsub;
 
-import java.util.concurrent.BlockingQueue;
+import java.util.Queue;
 
 import jmind.redis.codec.RedisCodec;
 import jmind.redis.out.CommandOut;
@@ -31,19 +31,19 @@ public class PubSubCommandHandler<K, V> extends CommandHandler<K, V> {
      * @param queue Command queue.
      * @param codec Codec.
      */
-    public PubSubCommandHandler(BlockingQueue<Command<K, V, ?>> queue, RedisCodec<K, V> codec) {
+    public PubSubCommandHandler(Queue<Command<K, V, ?>> queue, RedisCodec<K, V> codec) {
         super(queue);
         this.codec = codec;
         this.output = new PubSubOut<K, V>(codec);
     }
 
     @Override
-    protected void decode(ChannelHandlerContext ctx, ChannelBuffer buffer) throws InterruptedException {
+    protected void decode(ChannelHandlerContext ctx, ChannelBuffer buffer) {
         while (output.type() == null && !queue.isEmpty()) {
             CommandOut<K, V, ?> output = queue.peek().getOutput();
             if (!rsm.decode(buffer, output))
                 return;
-            queue.take().complete();
+            queue.poll().complete();
             if (output instanceof PubSubOut)
                 Channels.fireMessageReceived(ctx, output);
         }
@@ -9,8 +9,8 @@ import java.lang.reflect.Array;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Queue;
 import java.util.Set;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 import jmind.redis.RedisHandler;
@@ -49,7 +49,7 @@ public class RedisPubSub<K, V> extends RedisHandler<K, V> {
      * @param timeout   Maximum time to wait for a responses.
      * @param unit      Unit of time for the timeout.
      */
-    public RedisPubSub(BlockingQueue<Command<K, V, ?>> queue, RedisCodec<K, V> codec, int timeout) {
+    public RedisPubSub(Queue<Command<K, V, ?>> queue, RedisCodec<K, V> codec, int timeout) {
         super(queue, codec, timeout);
         listeners = new CopyOnWriteArrayList<RedisPubSubListener<K, V>>();
         channels = new HashSet<K>();
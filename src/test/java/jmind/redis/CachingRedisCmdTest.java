@@ -0,0 +1,227 @@
+package jmind.redis;
+
+import static jmind.redis.FakeRedisServer.await;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import jmind.redis.pubsub.RedisPubSub;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * {@link CachingRedisCmd} against a server in the test JVM. Completion stages
+ * run on the I/O thread, so a cache fill is done once a later command on the
+ * same connection replied, see {@link #settle()}.
+ *
+ * @author wbxie
+ */
+public class CachingRedisCmdTest {
+    private Server server;
+    private RedisBootstrap bootstrap;
+    private RedisCmd<String, String> target;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new Server();
+        bootstrap = new RedisBootstrap(server.getAddress(), 5);
+        bootstrap.setCallbackExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        target = bootstrap.connectAsync();
+    }
+
+    @After
+    public void tearDown() {
+        bootstrap.shutdown();
+        server.close();
+    }
+
+    @Test
+    public void servesCachedValuesUntilTheKeyIsWritten() {
+        CachingRedisCmd<String, String> cache = cache(10, 1, TimeUnit.MINUTES);
+        server.data.put("a", "1");
+
+        assertEquals("1", cache.await(cache.get("a")));
+        settle();
+        assertEquals("1", cache.await(cache.get("a")));
+        assertEquals(1, server.count("GET"));
+        assertEquals(1, cache.hitCount());
+        assertEquals(1, cache.missCount());
+
+        cache.await(cache.set("a", "2"));
+        assertEquals(0, cache.size());
+        assertEquals("2", cache.await(cache.get("a")));
+        assertEquals(2, server.count("GET"));
+    }
+
+    @Test
+    public void expiresEntriesWithTheirKey() throws InterruptedException {
+        CachingRedisCmd<String, String> cache = cache(10, 1, TimeUnit.MINUTES);
+        server.data.put("expiring", "1");
+        server.data.put("lasting", "2");
+        server.pttls.put("expiring", 100L);
+
+        cache.get("expiring");
+        cache.get("lasting");
+        settle();
+        assertEquals(2, cache.size());
+
+        Thread.sleep(150);
+        assertEquals("1", cache.await(cache.get("expiring")));
+        assertEquals("2", cache.await(cache.get("lasting")));
+        assertEquals(3, server.count("GET"));
+        assertEquals(1, cache.hitCount());
+    }
+
+    @Test
+    public void expiresEntriesAfterTheMaxTtl() throws InterruptedException {
+        CachingRedisCmd<String, String> cache = cache(10, 100, TimeUnit.MILLISECONDS);
+        server.data.put("a", "1");
+        server.pttls.put("a", 60000L);
+
+        cache.get("a");
+        settle();
+        assertEquals(1, cache.size());
+
+        Thread.sleep(150);
+        cache.await(cache.get("a"));
+        assertEquals(2, server.count("GET"));
+    }
+
+    @Test
+    public void evictsTheEldestEntriesOverTheMaxWeight() {
+        CachingRedisCmd<String, String> cache = cache(10, 1, TimeUnit.MINUTES);
+        cache.setWeigher(new CachingRedisCmd.Weigher<String, String>() {
+            @Override
+            public int weigh(String field, String value) {
+                return value.length();
+            }
+        });
+        server.data.put("a", "aaaa");
+        server.data.put("b", "bbbbb");
+        server.data.put("c", "ccc");
+
+        cache.get("a");
+        cache.get("b");
+        settle();
+        assertEquals(9, cache.weight());
+
+        cache.get("c");
+        settle();
+        assertEquals(2, cache.size());
+        assertEquals(8, cache.weight());
+
+        cache.await(cache.get("b"));
+        cache.await(cache.get("c"));
+        assertEquals(2, cache.hitCount());
+        cache.await(cache.get("a"));
+        assertEquals(4, server.count("GET"));
+    }
+
+    @Test
+    public void discardsAFillThatRacedAWrite() {
+        CachingRedisCmd<String, String> cache = cache(10, 1, TimeUnit.MINUTES);
+        server.data.put("a", "old");
+        server.hold();
+
+        Future<String> read = cache.get("a");
+        Future<String> write = cache.set("a", "new");
+        server.release();
+
+        assertEquals("old", cache.await(read));
+        cache.await(write);
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.weight());
+        assertEquals("new", cache.await(cache.get("a")));
+        assertEquals(2, server.count("GET"));
+    }
+
+    @Test
+    public void discardsAFillThatRacedAnInvalidation() {
+        CachingRedisCmd<String, String> cache = cache(10, 1, TimeUnit.MINUTES);
+        server.data.put("a", "old");
+        server.hold();
+
+        Future<String> read = cache.get("a");
+        cache.clear();
+        server.release();
+
+        assertEquals("old", cache.await(read));
+        settle();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void clearsTheCacheWhenResubscribed() throws Exception {
+        final CachingRedisCmd<String, String> cache = cache(10, 1, TimeUnit.MINUTES);
+        server.data.put("a", "1");
+        RedisPubSub<String, String> pubsub = bootstrap.connectPubSub();
+        cache.listenInvalidations(pubsub, "invalidations");
+        server.awaitCommands("SUBSCRIBE", 1);
+
+        cache.get("a");
+        settle();
+        assertEquals(1, cache.size());
+        server.publish("invalidations", "a");
+        awaitSize(cache, 0);
+
+        cache.get("a");
+        settle();
+        assertEquals(1, cache.size());
+        server.disconnect();
+        server.awaitCommands("SUBSCRIBE", 2);
+        awaitSize(cache, 0);
+    }
+
+    private CachingRedisCmd<String, String> cache(long maxWeight, long maxTtl, TimeUnit unit) {
+        return new CachingRedisCmd<String, String>(target, maxWeight, maxTtl, unit);
+    }
+
+    /**
+     * Wait until the stages of every command sent so far have run.
+     */
+    private void settle() {
+        target.await(target.getShard("a").ping());
+    }
+
+    private static void awaitSize(final CachingRedisCmd<String, String> cache, final int size) throws Exception {
+        await("the cache holds " + size + " entries", new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return cache.size() == size;
+            }
+        });
+    }
+
+    /**
+     * A server that answers PTTL from a map.
+     */
+    private static class Server extends FakeRedisServer {
+        final Map<String, Long> pttls = new ConcurrentHashMap<String, Long>();
+
+        Server() throws IOException {
+        }
+
+        @Override
+        protected String reply(List<String> command) {
+            String name = command.get(0);
+            Long pttl = pttls.get(command.get(command.size() - 1));
+            if ("PTTL".equals(name) && pttl != null)
+                return integer(pttl);
+            return super.reply(command);
+        }
+    }
+}
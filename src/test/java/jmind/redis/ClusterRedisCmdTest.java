@@ -0,0 +1,248 @@
+package jmind.redis;
+
+import static jmind.redis.FakeRedisServer.array;
+import static jmind.redis.FakeRedisServer.bulk;
+import static jmind.redis.FakeRedisServer.error;
+import static jmind.redis.FakeRedisServer.integer;
+import static jmind.redis.FakeRedisServer.status;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import jmind.redis.protocol.InflightLimiter;
+import jmind.redis.protocol.SlotHash;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * {@link ClusterRedisCmd} against two cluster nodes in the test JVM, which
+ * split the slots in half.
+ *
+ * @author wbxie
+ */
+public class ClusterRedisCmdTest {
+    private static final int HALF = SlotHash.SLOTS / 2;
+
+    private final Cluster cluster = new Cluster();
+    private Node first;
+    private Node second;
+    private RedisBootstrap bootstrap;
+
+    @Before
+    public void setUp() throws IOException {
+        first = new Node(cluster);
+        second = new Node(cluster);
+        cluster.owners = new Node[] { first, second };
+        cluster.announced = new Node[] { first, second };
+    }
+
+    @After
+    public void tearDown() {
+        if (bootstrap != null) {
+            bootstrap.shutdown();
+        }
+        first.close();
+        second.close();
+    }
+
+    @Test
+    public void routesKeysBySlot() {
+        ClusterRedisCmd<String, String> cmd = connect();
+
+        for (int i = 0; i < 50; i++) {
+            assertEquals("OK", cmd.await(cmd.set("key" + i, "value" + i)));
+        }
+        for (int i = 0; i < 50; i++) {
+            assertEquals("value" + i, cmd.await(cmd.get("key" + i)));
+        }
+
+        assertTrue(first.data.size() > 0);
+        assertTrue(second.data.size() > 0);
+        assertEquals(50, first.data.size() + second.data.size());
+        assertEquals(0, first.redirects + second.redirects);
+    }
+
+    @Test
+    public void followsMovedAndRefreshesTheSlots() throws Exception {
+        cluster.announced = new Node[] { first, first };
+        ClusterRedisCmd<String, String> cmd = connect();
+        String key = key(HALF);
+        int slot = SlotHash.slot(key.getBytes("UTF-8"));
+        second.data.put(key, "moved");
+
+        cluster.announced = cluster.owners;
+        assertEquals("moved", cmd.await(cmd.get(key)));
+
+        assertEquals(1, first.redirects);
+        assertTrue(cmd.await(cmd.refresh()));
+        assertSame(cmd.getNode(slot), cmd.getNode(SlotHash.SLOTS - 1));
+        assertTrue(cmd.getNode(slot) != cmd.getNode(0));
+        assertEquals("moved", cmd.await(cmd.get(key)));
+        assertEquals(1, first.redirects);
+    }
+
+    @Test
+    public void followsAskWithAsking() throws Exception {
+        ClusterRedisCmd<String, String> cmd = connect();
+        String key = key(0);
+        int slot = SlotHash.slot(key.getBytes("UTF-8"));
+        cluster.migrating.add(key);
+        second.data.put(key, "migrated");
+
+        assertEquals("migrated", cmd.await(cmd.get(key)));
+        assertEquals("migrated", cmd.await(cmd.get(key)));
+
+        assertEquals(2, first.redirects);
+        assertEquals(Arrays.asList("ASKING", "GET", "ASKING", "GET"), names(second.getCommands()));
+        assertSame(cmd.getNode(0), cmd.getNode(slot));
+    }
+
+    @Test
+    public void admitsTheAskingPairBeyondTheLimit() throws Exception {
+        String key = key(0);
+        cluster.migrating.add(key);
+        second.data.put(key, "migrated");
+        bootstrap = new RedisBootstrap(first.getAddress(), 5);
+        bootstrap.setInflightLimit(1, 0, InflightLimiter.Policy.FAIL_FAST, 0, TimeUnit.SECONDS);
+        ClusterRedisCmd<String, String> cmd = bootstrap.connectCluster();
+
+        assertEquals("migrated", cmd.await(cmd.get(key)));
+    }
+
+    @Test
+    public void splitsMultiKeyCommandsBySlot() {
+        ClusterRedisCmd<String, String> cmd = connect();
+        List<String> keys = new ArrayList<String>();
+        List<String> values = new ArrayList<String>();
+        for (int i = 0; i < 20; i++) {
+            keys.add("key" + i);
+            values.add(i % 3 == 0 ? null : "value" + i);
+            if (i % 3 != 0) {
+                cmd.await(cmd.set("key" + i, "value" + i));
+            }
+        }
+
+        assertEquals(values, cmd.mget(keys.toArray(new String[keys.size()])));
+        assertEquals(0, first.crossSlot + second.crossSlot);
+    }
+
+    private ClusterRedisCmd<String, String> connect() {
+        bootstrap = new RedisBootstrap(first.getAddress(), 5);
+        return bootstrap.connectCluster();
+    }
+
+    /**
+     * A key whose slot is at or above the given one, in the half of the slots
+     * that holds it.
+     */
+    private static String key(int from) throws IOException {
+        for (int i = 0;; i++) {
+            String key = "key" + i;
+            int slot = SlotHash.slot(key.getBytes("UTF-8"));
+            if (slot >= from && slot < from + HALF)
+                return key;
+        }
+    }
+
+    private static List<String> names(List<List<String>> commands) {
+        List<String> names = new ArrayList<String>();
+        for (List<String> command : commands) {
+            names.add(command.get(0));
+        }
+        return names;
+    }
+
+    /**
+     * Slot layout shared by the nodes. Each half of the slots is owned by a
+     * node, and CLUSTER SLOTS announces the halves as listed in announced.
+     */
+    private static class Cluster {
+        volatile Node[] owners;
+        volatile Node[] announced;
+        final Set<String> migrating = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+        Node owner(int slot) {
+            return owners[slot < HALF ? 0 : 1];
+        }
+
+        String slots() {
+            Node[] nodes = announced;
+            return array(range(0, HALF - 1, nodes[0]), range(HALF, SlotHash.SLOTS - 1, nodes[1]));
+        }
+
+        private static String range(int from, int to, Node node) {
+            return array(integer(from), integer(to), array(bulk("127.0.0.1"), integer(node.getPort())));
+        }
+    }
+
+    private static class Node extends FakeRedisServer {
+        private final Cluster cluster;
+        private final ThreadLocal<Boolean> asking = new ThreadLocal<Boolean>();
+        volatile int redirects;
+        volatile int crossSlot;
+
+        Node(Cluster cluster) throws IOException {
+            this.cluster = cluster;
+        }
+
+        @Override
+        protected String reply(List<String> command) {
+            String name = command.get(0).toUpperCase();
+            if ("CLUSTER".equals(name))
+                return cluster.slots();
+            if ("ASKING".equals(name)) {
+                asking.set(Boolean.TRUE);
+                return status("OK");
+            }
+            boolean asked = Boolean.TRUE.equals(asking.get());
+            asking.remove();
+            if (command.size() < 2)
+                return super.reply(command);
+
+            int slot = slot(command.get(1));
+            for (int i = 2; "MGET".equals(name) && i < command.size(); i++) {
+                if (slot(command.get(i)) != slot) {
+                    crossSlot++;
+                    return error("CROSSSLOT Keys in request don't hash to the same slot");
+                }
+            }
+            Node owner = cluster.owner(slot);
+            if (owner != this && !asked) {
+                redirects++;
+                return error("MOVED " + slot + " " + owner.getAddress());
+            }
+            if (owner == this && cluster.migrating.contains(command.get(1)) && !data.containsKey(command.get(1))) {
+                redirects++;
+                Node target = this == cluster.owners[0] ? cluster.owners[1] : cluster.owners[0];
+                return error("ASK " + slot + " " + target.getAddress());
+            }
+            if ("MGET".equals(name)) {
+                String[] values = new String[command.size() - 1];
+                for (int i = 1; i < command.size(); i++) {
+                    values[i - 1] = bulk(data.get(command.get(i)));
+                }
+                return array(values);
+            }
+            return super.reply(command);
+        }
+
+        private static int slot(String key) {
+            try {
+                return SlotHash.slot(key.getBytes("UTF-8"));
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
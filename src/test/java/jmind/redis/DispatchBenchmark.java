@@ -0,0 +1,141 @@
+package jmind.redis;
+
+import static jmind.redis.protocol.RedisCommand.GET;
+
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import jmind.redis.codec.Utf8Codec;
+import jmind.redis.out.ValueOutput;
+import jmind.redis.protocol.Command;
+import jmind.redis.protocol.CommandArgs;
+import jmind.redis.protocol.InflightLimiter;
+
+import org.jboss.netty.channel.Channel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Throughput of many threads dispatching on one connection through the
+ * lock-free {@link RedisHandler#dispatch(Command)}, against the synchronized
+ * dispatch into a {@link LinkedBlockingQueue} it replaced. Every operation
+ * also empties the in-flight queue, as the I/O thread would. Both bound the
+ * commands in flight to 1024, the lock-free one with a blocking
+ * {@link InflightLimiter} and the old one with a bounded queue, so producers
+ * that outpace the writer wait instead of growing the queue without limit.
+ * Run {@link #main} for 1 to 64 producer threads.
+ *
+ * @author wbxie
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(3)
+public class DispatchBenchmark {
+    private final Utf8Codec codec = new Utf8Codec();
+
+    private Connection lockFree;
+    private SynchronizedConnection synchronizedQueue;
+
+    @Setup
+    public void setup() {
+        lockFree = new Connection();
+        synchronizedQueue = new SynchronizedConnection();
+    }
+
+    @Benchmark
+    public Object lockFree() {
+        lockFree.handler.dispatch(command());
+        return lockFree.take();
+    }
+
+    @Benchmark
+    public Object synchronizedQueue() {
+        synchronizedQueue.dispatch(command());
+        return synchronizedQueue.take();
+    }
+
+    private Command<String, String, String> command() {
+        CommandArgs<String, String> args = new CommandArgs<String, String>(codec).addKey("key");
+        return new Command<String, String, String>(GET, new ValueOutput<String, String>(codec), args, false);
+    }
+
+    public static void main(String[] args) throws Exception {
+        for (int threads = 1; threads <= 64; threads *= 2) {
+            Options options = new OptionsBuilder().include(DispatchBenchmark.class.getSimpleName())
+                    .threads(threads).build();
+            new Runner(options).run();
+        }
+    }
+
+    private class Connection {
+        final Queue<Command<String, String, ?>> inflight = new ConcurrentLinkedQueue<Command<String, String, ?>>();
+        final RedisHandler<String, String> handler = new RedisHandler<String, String>(inflight, codec, 0);
+        final InflightLimiter limiter = new InflightLimiter(1024, 0, InflightLimiter.Policy.BLOCK, 1,
+                TimeUnit.SECONDS);
+
+        Connection() {
+            handler.setLimiter(limiter);
+        }
+
+        Object take() {
+            Command<String, String, ?> last = null;
+            Command<String, String, ?> next;
+            while ((next = inflight.poll()) != null) {
+                limiter.release(next);
+                last = next;
+            }
+            return last;
+        }
+    }
+
+    /**
+     * The dispatch of {@link RedisHandler} before it was made lock-free.
+     */
+    private static class SynchronizedConnection {
+        final BlockingQueue<Command<String, String, ?>> queue = new LinkedBlockingQueue<Command<String, String, ?>>(
+                1024);
+        Channel channel;
+
+        synchronized <T> Command<String, String, T> dispatch(Command<String, String, T> cmd) {
+            try {
+                queue.put(cmd);
+
+                if (channel != null) {
+                    channel.write(cmd);
+                }
+            } catch (NullPointerException e) {
+                throw new RedisException("Connection is closed");
+            } catch (InterruptedException e) {
+                throw new RedisCmdInterruptedException(e);
+            }
+
+            return cmd;
+        }
+
+        Object take() {
+            Command<String, String, ?> last = null;
+            Command<String, String, ?> next;
+            while ((next = queue.poll()) != null) {
+                last = next;
+            }
+            return last;
+        }
+    }
+}
@@ -0,0 +1,422 @@
+package jmind.redis;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A RESP server inside the test JVM, standing in for redis, cluster nodes or
+ * sentinels. Every connection is served by a thread of its own. By default it
+ * answers PING, GET, MGET, SET, MSET, MSETNX, DEL and PTTL from a map, where
+ * no key expires, and OK to everything else; override {@link #reply(List)} to
+ * script other replies.
+ *
+ * @author wbxie
+ */
+public class FakeRedisServer {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    protected final Map<String, String> data = new ConcurrentHashMap<String, String>();
+
+    private final ServerSocket server;
+    private final List<Socket> sockets = new CopyOnWriteArrayList<Socket>();
+    private final List<OutputStream> subscribers = new CopyOnWriteArrayList<OutputStream>();
+    private final List<List<String>> commands = Collections.synchronizedList(new ArrayList<List<String>>());
+    private final AtomicInteger connections = new AtomicInteger();
+    private volatile CountDownLatch held;
+
+    public FakeRedisServer() throws IOException {
+        this(0);
+    }
+
+    /**
+     * Start serving on a port of the loopback interface.
+     *
+     * @param port  Port to listen on, 0 for any free port.
+     */
+    public FakeRedisServer(int port) throws IOException {
+        server = new ServerSocket();
+        server.setReuseAddress(true);
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "fake-redis-" + getPort());
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Find a port nothing listens on, for a shard that is down.
+     */
+    public static int freePort() throws IOException {
+        ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        try {
+            return socket.getLocalPort();
+        } finally {
+            socket.close();
+        }
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    public String getAddress() {
+        return "127.0.0.1:" + getPort();
+    }
+
+    /**
+     * Get the number of connections accepted so far.
+     */
+    public int getConnections() {
+        return connections.get();
+    }
+
+    /**
+     * Get the number of connections the clients have not closed yet.
+     */
+    public int getOpenConnections() {
+        return sockets.size();
+    }
+
+    /**
+     * Get every command received so far, in order.
+     */
+    public List<List<String>> getCommands() {
+        synchronized (commands) {
+            return new ArrayList<List<String>>(commands);
+        }
+    }
+
+    /**
+     * Count the commands received so far with the supplied name.
+     */
+    public int count(String name) {
+        int count = 0;
+        for (List<String> command : getCommands()) {
+            if (name.equalsIgnoreCase(command.get(0))) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Send a message to every connection that subscribed to any channel.
+     */
+    public void publish(String channel, String message) throws IOException {
+        byte[] push = array(bulk("message"), bulk(channel), bulk(message)).getBytes(UTF8);
+        for (OutputStream out : subscribers) {
+            synchronized (out) {
+                out.write(push);
+                out.flush();
+            }
+        }
+    }
+
+    /**
+     * Keep reading commands but hold back their replies until
+     * {@link #release()}, so clients can send more while earlier commands
+     * are in flight.
+     */
+    public void hold() {
+        held = new CountDownLatch(1);
+    }
+
+    /**
+     * Answer the commands held back since {@link #hold()}.
+     */
+    public void release() {
+        CountDownLatch held = this.held;
+        this.held = null;
+        if (held != null) {
+            held.countDown();
+        }
+    }
+
+    /**
+     * Drop every open connection, as a crashing server would.
+     */
+    public void disconnect() {
+        for (Socket socket : sockets) {
+            close(socket);
+        }
+        sockets.clear();
+        subscribers.clear();
+    }
+
+    /**
+     * Refuse new connections, keeping the open ones.
+     */
+    public void stopListening() {
+        close(server);
+    }
+
+    /**
+     * Stop listening and drop every open connection.
+     */
+    public void close() {
+        release();
+        stopListening();
+        disconnect();
+    }
+
+    /**
+     * Answer a command.
+     *
+     * @param command   Name and arguments of the command.
+     *
+     * @return The complete RESP reply, or null to drop the connection.
+     */
+    protected String reply(List<String> command) {
+        String name = command.get(0).toUpperCase();
+        if ("PING".equals(name))
+            return status("PONG");
+        if ("GET".equals(name))
+            return bulk(data.get(command.get(1)));
+        if ("SET".equals(name)) {
+            data.put(command.get(1), command.get(2));
+            return status("OK");
+        }
+        if ("MGET".equals(name)) {
+            String[] values = new String[command.size() - 1];
+            for (int i = 1; i < command.size(); i++) {
+                values[i - 1] = bulk(data.get(command.get(i)));
+            }
+            return array(values);
+        }
+        if ("MSET".equals(name)) {
+            for (int i = 1; i < command.size(); i += 2) {
+                data.put(command.get(i), command.get(i + 1));
+            }
+            return status("OK");
+        }
+        if ("MSETNX".equals(name)) {
+            synchronized (data) {
+                for (int i = 1; i < command.size(); i += 2) {
+                    if (data.containsKey(command.get(i)))
+                        return integer(0);
+                }
+                for (int i = 1; i < command.size(); i += 2) {
+                    data.put(command.get(i), command.get(i + 1));
+                }
+            }
+            return integer(1);
+        }
+        if ("PTTL".equals(name))
+            return integer(data.containsKey(command.get(1)) ? -1 : -2);
+        if ("DEL".equals(name)) {
+            int removed = 0;
+            for (int i = 1; i < command.size(); i++) {
+                removed += data.remove(command.get(i)) != null ? 1 : 0;
+            }
+            return integer(removed);
+        }
+        return status("OK");
+    }
+
+    /**
+     * Poll a condition until it holds, as clients react to the server on
+     * threads of their own.
+     *
+     * @param what      What is awaited, reported if it never happens.
+     * @param condition Condition to poll.
+     *
+     * @throws AssertionError if the condition does not hold within 5 seconds.
+     */
+    public static void await(String what, Callable<Boolean> condition) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.call()) {
+            if (System.nanoTime() - deadline > 0)
+                throw new AssertionError("Timed out waiting until " + what);
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Wait until the server received a number of commands with a name.
+     */
+    public void awaitCommands(final String name, final int count) throws Exception {
+        await(count + " " + name + " commands", new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return count(name) >= count;
+            }
+        });
+    }
+
+    /**
+     * Wait until the server accepted a number of connections.
+     */
+    public void awaitConnections(final int count) throws Exception {
+        await(count + " connections", new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return getConnections() >= count;
+            }
+        });
+    }
+
+    /**
+     * Wait until the clients closed every connection.
+     */
+    public void awaitClosed() throws Exception {
+        await("every connection is closed", new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return getOpenConnections() == 0;
+            }
+        });
+    }
+
+    public static String status(String status) {
+        return "+" + status + "\r\n";
+    }
+
+    public static String error(String error) {
+        return "-" + error + "\r\n";
+    }
+
+    public static String integer(long value) {
+        return ":" + value + "\r\n";
+    }
+
+    public static String bulk(String value) {
+        if (value == null)
+            return "$-1\r\n";
+        return "$" + value.getBytes(UTF8).length + "\r\n" + value + "\r\n";
+    }
+
+    public static String array(String... elements) {
+        StringBuilder sb = new StringBuilder("*").append(elements.length).append("\r\n");
+        for (String element : elements) {
+            sb.append(element);
+        }
+        return sb.toString();
+    }
+
+    private void accept() {
+        while (!server.isClosed()) {
+            final Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException e) {
+                return;
+            }
+            connections.incrementAndGet();
+            sockets.add(socket);
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    serve(socket);
+                }
+            }, "fake-redis-" + getPort() + "-" + connections.get());
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private void serve(Socket socket) {
+        OutputStream out = null;
+        try {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            out = socket.getOutputStream();
+            List<String> command;
+            while ((command = read(in)) != null) {
+                commands.add(command);
+                CountDownLatch held = this.held;
+                if (held != null) {
+                    held.await();
+                }
+                String name = command.get(0).toUpperCase();
+                String reply;
+                if ("SUBSCRIBE".equals(name) || "PSUBSCRIBE".equals(name)) {
+                    subscribers.add(out);
+                    reply = array(bulk(name.toLowerCase()), bulk(command.get(1)), integer(1));
+                } else {
+                    reply = reply(command);
+                }
+                if (reply == null)
+                    break;
+                synchronized (out) {
+                    out.write(reply.getBytes(UTF8));
+                    out.flush();
+                }
+            }
+        } catch (IOException e) {
+            // connection dropped
+        } catch (InterruptedException e) {
+            // stopped while holding a reply
+        } finally {
+            subscribers.remove(out);
+            sockets.remove(socket);
+            close(socket);
+        }
+    }
+
+    private static List<String> read(InputStream in) throws IOException {
+        String line = readLine(in);
+        if (line == null)
+            return null;
+        if (line.charAt(0) != '*')
+            throw new IOException("Unexpected " + line);
+        int count = Integer.parseInt(line.substring(1));
+        List<String> command = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            int length = Integer.parseInt(readLine(in).substring(1));
+            byte[] bytes = new byte[length];
+            int read = 0;
+            while (read < length) {
+                int n = in.read(bytes, read, length - read);
+                if (n < 0)
+                    return null;
+                read += n;
+            }
+            readLine(in);
+            command.add(new String(bytes, UTF8));
+        }
+        return command;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0)
+                return null;
+            if (b != '\r') {
+                line.write(b);
+            }
+        }
+        return new String(line.toByteArray(), UTF8);
+    }
+
+    private static void close(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // already closed
+        }
+    }
+}
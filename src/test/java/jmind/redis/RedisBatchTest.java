@@ -0,0 +1,122 @@
+package jmind.redis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+
+import jmind.redis.codec.Utf8Codec;
+import jmind.redis.out.KeyStreamingChannel;
+import jmind.redis.out.ScanArgs;
+import jmind.redis.protocol.Command;
+
+import org.junit.Test;
+
+/**
+ * @author wbxie
+ */
+public class RedisBatchTest {
+    private final RedisHandler<String, String> handler = new RedisHandler<String, String>(
+            new ConcurrentLinkedQueue<Command<String, String, ?>>(), new Utf8Codec(), 1);
+
+    @Test
+    public void reportsCancelledAndUnansweredCommandsPerCommand() {
+        RedisBatch<String, String> batch = new RedisBatch<String, String>(handler);
+        Future<String> cancelled = batch.getShard("a").get("a");
+        Future<String> unanswered = batch.getShard("b").get("b");
+        cancelled.cancel(true);
+
+        List<Object> results = batch.executeAndWait();
+
+        assertEquals(2, results.size());
+        assertEquals("Command cancelled", ((RedisException) results.get(0)).getMessage());
+        assertEquals("Command timed out", ((RedisException) results.get(1)).getMessage());
+        assertTrue(unanswered.isCancelled());
+        assertTrue(((Command<?, ?, ?>) unanswered).isTimedOut());
+    }
+
+    @Test
+    public void sendsOneMessagePerShard() {
+        final Shard first = new Shard();
+        final Shard second = new Shard();
+        RedisCmd<String, String> cmd = new RedisCmd<String, String>(Arrays.<RedisHandler<String, String>> asList(
+                first, second)) {
+            @Override
+            public RedisHandler<String, String> getShard(String key) {
+                return key.startsWith("a") ? first : second;
+            }
+        };
+        KeyStreamingChannel<String> channel = new KeyStreamingChannel<String>() {
+            @Override
+            public void onKey(String key) {
+            }
+        };
+
+        RedisBatch<String, String> batch = cmd.batch();
+        batch.get("a1");
+        batch.get("b1");
+        batch.set("a2", "value");
+        batch.delAsync("a1", "b1", "b2");
+        batch.mgetAsync("a1", "b1");
+        batch.keys(channel, "*");
+        batch.publish("channel", "message");
+        assertEquals(0, first.messages.size() + second.messages.size());
+
+        List<Future<?>> futures = batch.execute();
+
+        assertEquals(10, futures.size());
+        assertEquals(Arrays.asList(6), first.messages);
+        assertEquals(Arrays.asList(4), second.messages);
+    }
+
+    @Test
+    public void refusesCommandsThatWaitForTheirReply() {
+        RedisBatch<String, String> batch = new RedisBatch<String, String>(handler);
+        try {
+            batch.del("a");
+            fail("waited inside a batch");
+        } catch (UnsupportedOperationException e) {
+            assertEquals("Use delAsync in a batch", e.getMessage());
+        }
+        try {
+            batch.mget("a");
+            fail("waited inside a batch");
+        } catch (UnsupportedOperationException e) {
+            assertEquals("Use mgetAsync in a batch", e.getMessage());
+        }
+        try {
+            batch.scanSpliterator(new ScanArgs());
+            fail("scanned inside a batch");
+        } catch (UnsupportedOperationException e) {
+            assertEquals("SCAN cannot be batched", e.getMessage());
+        }
+        assertEquals(0, batch.size());
+    }
+
+    /**
+     * A shard that records the size of every message it is asked to write.
+     */
+    private static class Shard extends RedisHandler<String, String> {
+        final List<Integer> messages = new ArrayList<Integer>();
+
+        Shard() {
+            super(new ConcurrentLinkedQueue<Command<String, String, ?>>(), new Utf8Codec(), 1);
+        }
+
+        @Override
+        public <T> Command<String, String, T> dispatch(Command<String, String, T> cmd) {
+            messages.add(1);
+            return cmd;
+        }
+
+        @Override
+        public void dispatch(List<Command<String, String, ?>> commands) {
+            messages.add(commands.size());
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package jmind.redis;
+
+import static jmind.redis.FakeRedisServer.await;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import jmind.redis.protocol.ReconnectPolicy;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Connect paths of {@link RedisBootstrap} against servers in the test JVM.
+ *
+ * @author wbxie
+ */
+public class RedisBootstrapTest {
+    private final List<FakeRedisServer> servers = new ArrayList<FakeRedisServer>();
+    private RedisBootstrap bootstrap;
+
+    @After
+    public void tearDown() {
+        if (bootstrap != null) {
+            bootstrap.shutdown();
+        }
+        for (FakeRedisServer server : servers) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void connectsEveryShardUpFront() throws Exception {
+        FakeRedisServer first = server(0);
+        FakeRedisServer second = server(0);
+        bootstrap = new RedisBootstrap(first.getAddress() + "," + second.getAddress(), 5);
+
+        RedisCmd<String, String> cmd = bootstrap.connectAsync();
+
+        for (RedisHandler<String, String> shard : cmd.getShards()) {
+            assertFalse(shard.isPending());
+            assertFalse(shard.isDown());
+            awaitConnected(shard);
+        }
+        first.awaitConnections(1);
+        assertEquals(1, first.getConnections());
+        second.awaitConnections(1);
+        assertEquals(1, second.getConnections());
+        assertEquals("OK", cmd.await(cmd.set("a", "1")));
+        assertEquals("1", cmd.await(cmd.get("a")));
+    }
+
+    @Test
+    public void connectsLazilyOnTheFirstCommand() throws Exception {
+        FakeRedisServer server = server(0);
+        bootstrap = new RedisBootstrap(server.getAddress(), 5);
+        bootstrap.setLazyConnect(true);
+
+        RedisCmd<String, String> cmd = bootstrap.connectAsync();
+        RedisHandler<String, String> shard = cmd.getShard("a");
+        assertTrue(shard.isPending());
+        assertEquals(0, server.getConnections());
+
+        assertNull(cmd.await(cmd.get("a")));
+        assertFalse(shard.isPending());
+        server.awaitConnections(1);
+        assertEquals(1, server.getConnections());
+    }
+
+    @Test
+    public void retriesALazyConnectOnTheNextCommand() throws Exception {
+        int port = FakeRedisServer.freePort();
+        bootstrap = new RedisBootstrap("127.0.0.1:" + port, 5);
+        bootstrap.setLazyConnect(true);
+        RedisCmd<String, String> cmd = bootstrap.connectAsync();
+
+        try {
+            cmd.await(cmd.get("a"));
+            fail("connected to a closed port");
+        } catch (RedisException e) {
+            assertEquals("Unable to connect to 127.0.0.1:" + port, e.getMessage());
+        }
+        assertTrue(cmd.getShard("a").isPending());
+
+        server(port);
+        assertNull(cmd.await(cmd.get("a")));
+    }
+
+    @Test
+    public void keepsUnreachableShardsAsPlaceholders() throws Exception {
+        FakeRedisServer live = server(0);
+        int port = FakeRedisServer.freePort();
+        bootstrap = new RedisBootstrap(live.getAddress() + ",127.0.0.1:" + port, 5);
+        bootstrap.setReconnectPolicy(fixed(20));
+
+        RedisCmd<String, String> cmd = bootstrap.connectAsync();
+        RedisHandler<String, String> up = cmd.getShards().get(0);
+        RedisHandler<String, String> down = cmd.getShards().get(1);
+
+        assertEquals(2, cmd.getShards().size());
+        assertFalse(up.isDown());
+        assertTrue(down.isDown());
+        try {
+            cmd.await(down.get("a"));
+            fail("sent to a shard that is down");
+        } catch (RedisException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Connection is down: Unable to connect to 127.0.0.1:" + port));
+        }
+
+        FakeRedisServer late = server(port);
+        awaitConnected(down);
+        assertFalse(down.isDown());
+        assertNull(cmd.await(down.get("a")));
+        late.awaitConnections(1);
+        assertEquals(1, late.getConnections());
+    }
+
+    @Test
+    public void stopsReconnectingPlaceholdersOnShutdown() throws Exception {
+        int port = FakeRedisServer.freePort();
+        bootstrap = new RedisBootstrap("127.0.0.1:" + port, 5);
+        bootstrap.setReconnectPolicy(fixed(200));
+        RedisCmd<String, String> cmd = bootstrap.connectAsync();
+        assertTrue(cmd.getShard("a").isDown());
+
+        bootstrap.shutdown();
+        bootstrap = null;
+        FakeRedisServer late = server(port);
+        Thread.sleep(500);
+
+        assertEquals(0, late.getConnections());
+    }
+
+    @Test
+    public void stopsLazyShardsOnShutdown() throws Exception {
+        FakeRedisServer server = server(0);
+        bootstrap = new RedisBootstrap(server.getAddress(), 5);
+        bootstrap.setLazyConnect(true);
+        RedisCmd<String, String> cmd = bootstrap.connectAsync();
+        RedisHandler<String, String> shard = cmd.getShard("a");
+
+        bootstrap.shutdown();
+        bootstrap = null;
+
+        assertFalse(shard.isPending());
+        try {
+            shard.get("a");
+            fail("sent on a closed connection");
+        } catch (RedisException e) {
+            assertEquals("Connection is closed", e.getMessage());
+        }
+        assertEquals(0, server.getConnections());
+    }
+
+    private FakeRedisServer server(int port) throws Exception {
+        FakeRedisServer server = new FakeRedisServer(port);
+        servers.add(server);
+        return server;
+    }
+
+    private static ReconnectPolicy fixed(final long millis) {
+        return new ReconnectPolicy() {
+            @Override
+            public long delay(int attempt) {
+                return millis;
+            }
+        };
+    }
+
+    private static void awaitConnected(final RedisHandler<?, ?> shard) throws Exception {
+        await("the shard is connected", new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return shard.isConnect() && !shard.isDown();
+            }
+        });
+    }
+}
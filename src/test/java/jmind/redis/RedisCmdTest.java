@@ -0,0 +1,267 @@
+package jmind.redis;
+
+import static jmind.redis.FakeRedisServer.error;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Commands of {@link RedisCmd} that span shards, against two servers in the
+ * test JVM.
+ *
+ * @author wbxie
+ */
+public class RedisCmdTest {
+    private Shard first;
+    private Shard second;
+    private RedisBootstrap bootstrap;
+    private RedisCmd<String, String> cmd;
+
+    @Before
+    public void setUp() throws Exception {
+        first = new Shard();
+        second = new Shard();
+        bootstrap = new RedisBootstrap(first.getAddress() + "," + second.getAddress(), 5);
+        cmd = spread(bootstrap.connectAsync().getShards());
+    }
+
+    @After
+    public void tearDown() {
+        bootstrap.shutdown();
+        first.close();
+        second.close();
+    }
+
+    @Test
+    public void returnsMgetValuesInTheOrderOfTheKeys() {
+        String[] keys = new String[20];
+        List<String> values = new ArrayList<String>();
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = "key" + i;
+            values.add(i % 4 == 0 ? null : "value" + i);
+            if (i % 4 != 0) {
+                cmd.await(cmd.set(keys[i], "value" + i));
+            }
+        }
+
+        assertEquals(values, cmd.await(cmd.mgetAsync(keys)));
+        assertEquals(1, count(first, "MGET"));
+        assertEquals(1, count(second, "MGET"));
+        assertEquals(keys.length, arguments(first, "MGET") + arguments(second, "MGET"));
+    }
+
+    @Test
+    public void sendsOneMgetWhenAllKeysAreOnOneShard() {
+        String[] keys = keysOf(cmd.getShards().get(0), 5);
+        for (String key : keys) {
+            cmd.await(cmd.set(key, key.toUpperCase()));
+        }
+
+        List<String> values = cmd.mget(keys);
+
+        for (int i = 0; i < keys.length; i++) {
+            assertEquals(keys[i].toUpperCase(), values.get(i));
+        }
+        assertEquals(1, count(first, "MGET") + count(second, "MGET"));
+    }
+
+    @Test
+    public void mergesTheRepliesOfEveryShard() {
+        Map<String, String> map = new LinkedHashMap<String, String>();
+        for (int i = 0; i < 10; i++) {
+            map.put("key" + i, "value" + i);
+        }
+
+        assertEquals("OK", cmd.await(cmd.mset(map)));
+        assertTrue(first.data.size() > 0);
+        assertTrue(second.data.size() > 0);
+        assertEquals(10, first.data.size() + second.data.size());
+        assertEquals(1, count(first, "MSET"));
+        assertEquals(1, count(second, "MSET"));
+
+        assertTrue(cmd.await(cmd.msetnx(Collections.singletonMap("other", "value"))));
+        Map<String, String> taken = new LinkedHashMap<String, String>();
+        taken.put("key0", "again");
+        taken.put("key1", "again");
+        assertFalse(cmd.await(cmd.msetnx(taken)));
+
+        assertEquals(Long.valueOf(10), cmd.await(cmd.delAsync(keys(12))));
+        assertEquals(1, first.data.size() + second.data.size());
+    }
+
+    @Test
+    public void reportsTheShardsThatFailed() {
+        cmd.await(cmd.mset(Collections.singletonMap("key0", "value")));
+        second.error = "ERR shard failed";
+        String[] keys = keys(10);
+
+        MultiShardFuture<String, String, Long> future = cmd.delAsync(keys);
+        try {
+            cmd.await(future);
+            fail("merged a failed shard");
+        } catch (RedisException e) {
+            assertEquals("1 of 2 shards failed: [ERR shard failed]", e.getMessage());
+        }
+
+        Map<RedisHandler<String, String>, String> errors = future.errors();
+        assertEquals(1, errors.size());
+        assertEquals("ERR shard failed", errors.get(cmd.getShards().get(1)));
+        assertEquals(1, count(first, "DEL"));
+    }
+
+    @Test
+    public void reportsShardErrorsWhenAllKeysAreOnOneShard() {
+        String[] keys = keysOf(cmd.getShards().get(1), 3);
+        second.error = "ERR shard failed";
+
+        MultiShardFuture<String, String, Long> del = cmd.delAsync(keys);
+        MultiShardFuture<String, String, String> mset = cmd.mset(Collections.singletonMap(keys[0], "value"));
+        MultiShardFuture<String, String, Boolean> msetnx = cmd.msetnx(Collections.singletonMap(keys[0], "value"));
+
+        for (MultiShardFuture<String, String, ?> future : Arrays.<MultiShardFuture<String, String, ?>> asList(del,
+                mset, msetnx)) {
+            try {
+                cmd.await(future);
+                fail("merged a failed shard");
+            } catch (RedisException e) {
+                assertEquals("1 of 1 shards failed: [ERR shard failed]", e.getMessage());
+            }
+            assertEquals(Collections.singletonMap(cmd.getShards().get(1), "ERR shard failed"), future.errors());
+        }
+    }
+
+    @Test
+    public void completesStagesOnTheCallbackExecutor() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, "callbacks");
+            }
+        });
+        RedisBootstrap callbacks = new RedisBootstrap(first.getAddress(), 5);
+        callbacks.setCallbackExecutor(executor);
+        try {
+            RedisCmd<String, String> cmd = callbacks.connectAsync();
+            cmd.await(cmd.set("a", "value"));
+            // hold the executor so the stage cannot complete before thenApply is registered
+            final CountDownLatch gate = new CountDownLatch(1);
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        gate.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+
+            CompletableFuture<String> thread = RedisCmd.toCompletableFuture(cmd.get("a")).thenApply(
+                    new Function<String, String>() {
+                        @Override
+                        public String apply(String value) {
+                            return Thread.currentThread().getName() + " " + value;
+                        }
+                    });
+            gate.countDown();
+
+            assertEquals("callbacks value", thread.get(5, TimeUnit.SECONDS));
+        } finally {
+            callbacks.shutdown();
+            executor.shutdown();
+        }
+    }
+
+    private static String[] keys(int count) {
+        String[] keys = new String[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = "key" + i;
+        }
+        return keys;
+    }
+
+    /**
+     * A client that spreads keys over the shards by their hash code, whatever
+     * the configured load balance does with a handful of keys.
+     */
+    private static RedisCmd<String, String> spread(final List<RedisHandler<String, String>> redis) {
+        return new RedisCmd<String, String>(redis) {
+            @Override
+            public RedisHandler<String, String> getShard(String key) {
+                return redis.get(Math.abs(key.hashCode() % redis.size()));
+            }
+        };
+    }
+
+    /**
+     * Keys that are routed to the given shard.
+     */
+    private String[] keysOf(RedisHandler<String, String> shard, int count) {
+        List<String> keys = new ArrayList<String>();
+        for (int i = 0; keys.size() < count; i++) {
+            if (cmd.getShard("key" + i) == shard) {
+                keys.add("key" + i);
+            }
+        }
+        assertTrue(keys.size() == count);
+        return keys.toArray(new String[count]);
+    }
+
+    private static int count(FakeRedisServer server, String name) {
+        int count = 0;
+        for (List<String> command : server.getCommands()) {
+            if (name.equals(command.get(0))) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * A server that replies with an error to everything but PING once told to.
+     */
+    private static class Shard extends FakeRedisServer {
+        volatile String error;
+
+        Shard() throws IOException {
+        }
+
+        @Override
+        protected String reply(List<String> command) {
+            String error = this.error;
+            if (error != null && !"PING".equalsIgnoreCase(command.get(0)))
+                return error(error);
+            return super.reply(command);
+        }
+    }
+
+    private static int arguments(FakeRedisServer server, String name) {
+        int arguments = 0;
+        for (List<String> command : server.getCommands()) {
+            if (name.equals(command.get(0))) {
+                arguments += command.size() - 1;
+            }
+        }
+        return arguments;
+    }
+}
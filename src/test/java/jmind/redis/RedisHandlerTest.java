@@ -0,0 +1,257 @@
+package jmind.redis;
+
+import static jmind.redis.FakeRedisServer.error;
+import static jmind.redis.protocol.RedisCommand.ASKING;
+import static jmind.redis.protocol.RedisCommand.GET;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import jmind.redis.codec.Utf8Codec;
+import jmind.redis.out.StatusOutput;
+import jmind.redis.out.ValueOutput;
+import jmind.redis.protocol.Command;
+import jmind.redis.protocol.CommandArgs;
+import jmind.redis.protocol.InflightLimiter;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * @author wbxie
+ */
+public class RedisHandlerTest {
+    private final Utf8Codec codec = new Utf8Codec();
+    private final RedisHandler<String, String> handler = new RedisHandler<String, String>(
+            new ConcurrentLinkedQueue<Command<String, String, ?>>(), codec, 1);
+    private FakeRedisServer server;
+    private RedisBootstrap bootstrap;
+
+    @After
+    public void tearDown() {
+        if (bootstrap != null) {
+            bootstrap.shutdown();
+        }
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void awaitsCancelledAndTimedOutCommands() {
+        Command<String, String, ?> cancelled = (Command<String, String, ?>) handler.get("a");
+        Command<String, String, ?> timedOut = (Command<String, String, ?>) handler.get("b");
+        cancelled.cancel(true);
+        timedOut.timeout();
+
+        assertTrue(handler.awaitAll(10, TimeUnit.MILLISECONDS, cancelled, timedOut));
+    }
+
+    @Test
+    public void awaitsFailedFutures() {
+        CompletableFuture<String> failed = new CompletableFuture<String>();
+        failed.completeExceptionally(new RedisException("failed"));
+        CompletableFuture<String> cancelled = new CompletableFuture<String>();
+        cancelled.cancel(true);
+
+        assertTrue(handler.awaitAll(10, TimeUnit.MILLISECONDS, failed, cancelled));
+    }
+
+    @Test
+    public void rejectsCommandsInsideMultiWithoutHanging() {
+        handler.setLimiter(new InflightLimiter(1, 0, InflightLimiter.Policy.FAIL_FAST, 0, TimeUnit.SECONDS));
+        handler.multi();
+        Command<String, String, ?> rejected = (Command<String, String, ?>) handler.get("a");
+
+        assertTrue(rejected.await(10, TimeUnit.MILLISECONDS));
+        assertEquals("Too many commands in flight", rejected.getOutput().getError());
+    }
+
+    @Test
+    public void failsCommandsQueuedInsideMultiWhenExecIsCancelledOrTimesOut() {
+        handler.multi();
+        Command<String, String, ?> cancelled = (Command<String, String, ?>) handler.get("a");
+        handler.exec().cancel(true);
+
+        handler.multi();
+        Command<String, String, ?> timedOut = (Command<String, String, ?>) handler.get("b");
+        ((Command<String, String, ?>) handler.exec()).timeout();
+
+        assertTrue(cancelled.await(10, TimeUnit.MILLISECONDS));
+        assertEquals("Command cancelled", cancelled.getOutput().getError());
+        assertTrue(timedOut.await(10, TimeUnit.MILLISECONDS));
+        assertEquals("Command timed out", timedOut.getOutput().getError());
+    }
+
+    @Test
+    public void sendsInternalCommandsWithoutWaitingForPermits() {
+        InflightLimiter limiter = new InflightLimiter(1, 0, InflightLimiter.Policy.BLOCK, 10, TimeUnit.SECONDS);
+        handler.setLimiter(limiter);
+        handler.get("a");
+
+        long start = System.nanoTime();
+        Future<String> ping = handler.pingInternal();
+        List<Command<String, String, ?>> redirect = new ArrayList<Command<String, String, ?>>();
+        redirect.add(new Command<String, String, String>(ASKING, new StatusOutput<String, String>(codec), null, false));
+        redirect.add(new Command<String, String, String>(GET, new ValueOutput<String, String>(codec),
+                new CommandArgs<String, String>(codec).addKey("b"), false));
+        handler.dispatchInternal(redirect);
+
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+        assertFalse(ping.isDone());
+        assertEquals(4, limiter.getCommands());
+        assertEquals(4, handler.getQueueDepth());
+    }
+
+    @Test
+    public void failsQueuedCommandsWhenClosedBeforeConnecting() {
+        Command<String, String, ?> queued = (Command<String, String, ?>) handler.get("a");
+
+        handler.close();
+
+        assertTrue(queued.await(10, TimeUnit.MILLISECONDS));
+        assertEquals("Connection closed", queued.getOutput().getError());
+    }
+
+    @Test
+    public void reportsPendingCommands() {
+        Future<String> pending = handler.get("a");
+
+        assertFalse(handler.awaitAll(10, TimeUnit.MILLISECONDS, pending));
+        assertFalse(pending.isDone());
+    }
+
+    @Test
+    public void sharesIdenticalReadsInFlight() throws IOException {
+        RedisCmd<String, String> cmd = connect();
+        server.data.put("a", "1");
+        server.hold();
+
+        Future<String> first = cmd.get("a");
+        Future<String> second = cmd.get("a");
+        Future<String> field = cmd.hget("a", "f");
+        Future<String> sameField = cmd.hget("a", "f");
+        server.release();
+
+        assertSame(first, second);
+        assertSame(field, sameField);
+        assertEquals("1", cmd.await(second));
+        cmd.await(sameField);
+        assertEquals(1, server.count("GET"));
+        assertEquals(1, server.count("HGET"));
+    }
+
+    @Test
+    public void doesNotShareReadsSentBeforeAWrite() throws IOException {
+        RedisCmd<String, String> cmd = connect();
+        server.data.put("a", "old");
+        server.hold();
+
+        Future<String> before = cmd.get("a");
+        cmd.set("a", "new");
+        Future<String> after = cmd.get("a");
+        Future<String> joined = cmd.get("a");
+        server.release();
+
+        assertNotSame(before, after);
+        assertSame(after, joined);
+        assertEquals("old", cmd.await(before));
+        assertEquals("new", cmd.await(after));
+        assertEquals(2, server.count("GET"));
+    }
+
+    @Test
+    public void sendsAGetBatchOnceItHoldsMaxKeys() throws IOException {
+        RedisCmd<String, String> cmd = batching(new FakeRedisServer(), 3, 1, TimeUnit.MINUTES);
+        server.data.put("a", "1");
+        server.data.put("c", "3");
+
+        Future<String> a = cmd.get("a");
+        Future<String> b = cmd.get("b");
+        Future<String> c = cmd.get("c");
+
+        assertEquals("1", cmd.await(a));
+        assertNull(cmd.await(b));
+        assertEquals("3", cmd.await(c));
+        assertEquals(Arrays.asList(Arrays.asList("MGET", "a", "b", "c")), server.getCommands());
+    }
+
+    @Test
+    public void sendsAGetBatchOnceItsWindowPassed() throws IOException {
+        RedisCmd<String, String> cmd = batching(new FakeRedisServer(), 100, 50, TimeUnit.MILLISECONDS);
+        server.data.put("a", "1");
+        server.data.put("b", "2");
+
+        long start = System.nanoTime();
+        Future<String> a = cmd.get("a");
+        Future<String> b = cmd.get("b");
+
+        assertEquals("1", cmd.await(a));
+        assertEquals("2", cmd.await(b));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertEquals(Arrays.asList(Arrays.asList("MGET", "a", "b")), server.getCommands());
+    }
+
+    @Test
+    public void failsEveryGetOfAFailedBatch() throws IOException {
+        RedisCmd<String, String> cmd = batching(new FakeRedisServer() {
+            @Override
+            protected String reply(List<String> command) {
+                return error("ERR batch failed");
+            }
+        }, 2, 1, TimeUnit.MINUTES);
+
+        Future<String> a = cmd.get("a");
+        Future<String> b = cmd.get("b");
+
+        for (Future<String> future : Arrays.asList(a, b)) {
+            try {
+                cmd.await(future);
+                fail("got a value of a failed batch");
+            } catch (RedisException e) {
+                assertEquals("ERR batch failed", e.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void sendsCollectedGetsBeforeOtherCommands() throws IOException {
+        RedisCmd<String, String> cmd = batching(new FakeRedisServer(), 100, 1, TimeUnit.MINUTES);
+        server.data.put("a", "old");
+
+        Future<String> read = cmd.get("a");
+        cmd.await(cmd.set("a", "new"));
+
+        assertEquals("old", cmd.await(read));
+        assertEquals(Arrays.asList(Arrays.asList("MGET", "a"), Arrays.asList("SET", "a", "new")),
+                server.getCommands());
+    }
+
+    private RedisCmd<String, String> connect() throws IOException {
+        server = new FakeRedisServer();
+        bootstrap = new RedisBootstrap(server.getAddress(), 5);
+        bootstrap.setCoalesceReads(true);
+        return bootstrap.connectAsync();
+    }
+
+    private RedisCmd<String, String> batching(FakeRedisServer server, int maxKeys, long window, TimeUnit unit) {
+        this.server = server;
+        bootstrap = new RedisBootstrap(server.getAddress(), 5);
+        bootstrap.setGetBatching(maxKeys, window, unit);
+        return bootstrap.connectAsync();
+    }
+}
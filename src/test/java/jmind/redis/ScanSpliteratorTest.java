@@ -0,0 +1,182 @@
+package jmind.redis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import jmind.redis.codec.Utf8Codec;
+import jmind.redis.out.ScanResult;
+import jmind.redis.protocol.Command;
+
+import org.junit.Test;
+
+/**
+ * @author wbxie
+ */
+public class ScanSpliteratorTest {
+    private final RedisCmd<String, String> cmd = new RedisCmd<String, String>(
+            Collections.singletonList(new RedisHandler<String, String>(
+                    new ConcurrentLinkedQueue<Command<String, String, ?>>(), new Utf8Codec(), 1)));
+
+    @Test
+    public void scansNothingUntilTheFirstElement() {
+        Pages a = new Pages("a", 2, 2);
+        ScanSpliterator<String> spliterator = spliterator(a);
+        assertEquals(0, a.scans);
+
+        assertTrue(spliterator.tryAdvance(ignore()));
+        assertEquals(2, a.scans);
+    }
+
+    @Test
+    public void walksEveryPageOfEverySource() {
+        Pages a = new Pages("a", 3, 2);
+        Pages b = new Pages("b", 1, 4);
+        Pages empty = new Pages("e", 2, 0);
+
+        List<String> values = drain(spliterator(a, b, empty));
+
+        assertEquals(sorted(a.values(), b.values()), sorted(values));
+        assertEquals(3, a.scans);
+        assertEquals(1, b.scans);
+        assertEquals(2, empty.scans);
+    }
+
+    @Test
+    public void splitsBySource() {
+        Pages[] pages = { new Pages("a", 2, 2), new Pages("b", 2, 2), new Pages("c", 2, 2), new Pages("d", 2, 2) };
+        ScanSpliterator<String> first = spliterator(pages);
+
+        Spliterator<String> second = first.trySplit();
+        assertNotNull(second);
+        Spliterator<String> third = first.trySplit();
+        assertNotNull(third);
+        assertNull(first.trySplit());
+
+        assertEquals(sorted(pages[0].values()), sorted(drain(first)));
+        assertEquals(sorted(pages[1].values()), sorted(drain(third)));
+        assertEquals(sorted(pages[2].values(), pages[3].values()), sorted(drain(second)));
+        for (Pages p : pages) {
+            assertEquals(2, p.scans);
+        }
+    }
+
+    @Test
+    public void splitsTheRestOfTheCurrentPage() {
+        Pages a = new Pages("a", 2, 4);
+        ScanSpliterator<String> spliterator = spliterator(a);
+        List<String> values = new ArrayList<String>();
+        spliterator.tryAdvance(collect(values));
+
+        Spliterator<String> rest = spliterator.trySplit();
+        assertNotNull(rest);
+        assertEquals(3, rest.estimateSize());
+        values.addAll(drain(rest));
+        values.addAll(drain(spliterator));
+
+        assertEquals(sorted(a.values()), sorted(values));
+    }
+
+    @Test
+    public void feedsParallelStreams() {
+        List<Pages> pages = new ArrayList<Pages>();
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 16; i++) {
+            Pages p = new Pages("s" + i, 3, 5);
+            pages.add(p);
+            expected.addAll(p.values());
+        }
+
+        List<String> values = StreamSupport.stream(spliterator(pages.toArray(new Pages[0])), true)
+                .collect(Collectors.<String> toList());
+
+        assertEquals(sorted(expected), sorted(values));
+    }
+
+    private ScanSpliterator<String> spliterator(Pages... pages) {
+        return new ScanSpliterator<String>(cmd, new ArrayList<ScanSpliterator.Source<String>>(Arrays.asList(pages)));
+    }
+
+    private static List<String> drain(Spliterator<String> spliterator) {
+        List<String> values = new ArrayList<String>();
+        spliterator.forEachRemaining(collect(values));
+        return values;
+    }
+
+    private static Consumer<String> collect(final List<String> values) {
+        return new Consumer<String>() {
+            @Override
+            public void accept(String value) {
+                values.add(value);
+            }
+        };
+    }
+
+    private static Consumer<String> ignore() {
+        return collect(new ArrayList<String>());
+    }
+
+    @SafeVarargs
+    private static List<String> sorted(List<String>... lists) {
+        List<String> all = new ArrayList<String>();
+        for (List<String> list : lists) {
+            all.addAll(list);
+        }
+        Collections.sort(all);
+        return all;
+    }
+
+    /**
+     * A source of <code>count</code> pages of <code>size</code> values each,
+     * whose cursor is the number of the next page.
+     */
+    private static class Pages extends ScanSpliterator.Source<String> {
+        private final String name;
+        private final int count;
+        private final int size;
+        volatile int scans;
+
+        Pages(String name, int count, int size) {
+            this.name = name;
+            this.count = count;
+            this.size = size;
+        }
+
+        List<String> values() {
+            List<String> values = new ArrayList<String>();
+            for (int page = 0; page < count; page++) {
+                values.addAll(page(page));
+            }
+            return values;
+        }
+
+        private List<String> page(int page) {
+            List<String> values = new ArrayList<String>();
+            for (int i = 0; i < size; i++) {
+                values.add(name + ":" + page + ":" + i);
+            }
+            return values;
+        }
+
+        @Override
+        protected Future<ScanResult<String>> scan(String cursor) {
+            scans++;
+            int page = Integer.parseInt(cursor);
+            String next = page + 1 == count ? ScanResult.INITIAL : Integer.toString(page + 1);
+            return CompletableFuture.completedFuture(new ScanResult<String>(next, page(page)));
+        }
+    }
+}
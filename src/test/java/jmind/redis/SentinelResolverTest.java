@@ -0,0 +1,167 @@
+package jmind.redis;
+
+import static jmind.redis.FakeRedisServer.array;
+import static jmind.redis.FakeRedisServer.await;
+import static jmind.redis.FakeRedisServer.bulk;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Sentinel support of {@link RedisBootstrap} against a sentinel and masters
+ * in the test JVM.
+ *
+ * @author wbxie
+ */
+public class SentinelResolverTest {
+    private FakeRedisServer first;
+    private FakeRedisServer second;
+    private Sentinel sentinel;
+    private RedisBootstrap bootstrap;
+
+    @Before
+    public void setUp() throws IOException {
+        first = new FakeRedisServer();
+        second = new FakeRedisServer();
+        first.data.put("a", "first");
+        second.data.put("a", "second");
+        sentinel = new Sentinel();
+        sentinel.master = first;
+    }
+
+    @After
+    public void tearDown() {
+        if (bootstrap != null) {
+            bootstrap.shutdown();
+        }
+        first.close();
+        second.close();
+        sentinel.close();
+    }
+
+    @Test
+    public void resolvesTheMaster() {
+        RedisCmd<String, String> cmd = connect();
+
+        assertEquals("first", cmd.await(cmd.get("a")));
+        assertEquals(0, second.getConnections());
+    }
+
+    @Test
+    public void followsSwitchMaster() throws Exception {
+        RedisCmd<String, String> cmd = connect();
+        assertEquals("first", cmd.await(cmd.get("a")));
+        sentinel.awaitCommands("SUBSCRIBE", 1);
+
+        sentinel.master = second;
+        sentinel.publish(SentinelResolver.SWITCH_MASTER,
+                "mymaster 127.0.0.1 " + first.getPort() + " 127.0.0.1 " + second.getPort());
+
+        awaitMaster(cmd, "second");
+        assertEquals(1, second.getConnections());
+    }
+
+    @Test
+    public void asksTheSentinelsWhenAnAnnouncementCannotBeParsed() throws Exception {
+        RedisCmd<String, String> cmd = connect();
+        assertEquals("first", cmd.await(cmd.get("a")));
+        sentinel.awaitCommands("SUBSCRIBE", 1);
+
+        sentinel.master = second;
+        sentinel.publish(SentinelResolver.SWITCH_MASTER, "mymaster 127.0.0.1 1 127.0.0.1 port");
+
+        awaitMaster(cmd, "second");
+    }
+
+    @Test
+    public void ignoresSwitchesToTheCurrentMaster() throws Exception {
+        RedisCmd<String, String> cmd = connect();
+        assertEquals("first", cmd.await(cmd.get("a")));
+        sentinel.awaitCommands("SUBSCRIBE", 1);
+
+        sentinel.publish(SentinelResolver.SWITCH_MASTER,
+                "mymaster 127.0.0.1 " + second.getPort() + " 127.0.0.1 " + first.getPort());
+        sentinel.publish(SentinelResolver.SWITCH_MASTER, "other 127.0.0.1 1 127.0.0.1 2");
+        Thread.sleep(100);
+
+        assertEquals("first", cmd.await(cmd.get("a")));
+        assertEquals(1, first.getConnections());
+    }
+
+    @Test
+    public void closesTheSentinelsWhenNoMasterResolves() throws Exception {
+        bootstrap = new RedisBootstrap(sentinel.getAddress(), 5);
+        try {
+            bootstrap.connectSentinel("unknown");
+            fail("resolved an unknown master");
+        } catch (RedisException e) {
+            assertEquals("Unable to resolve the master of unknown", e.getMessage());
+        }
+
+        sentinel.awaitClosed();
+        assertEquals(1, sentinel.getConnections());
+    }
+
+    @Test
+    public void subscribesToASentinelThatWasDownAtStartup() throws Exception {
+        int port = FakeRedisServer.freePort();
+        bootstrap = new RedisBootstrap(sentinel.getAddress() + ",127.0.0.1:" + port, 5);
+        RedisCmd<String, String> cmd = bootstrap.connectSentinel("mymaster");
+        assertEquals("first", cmd.await(cmd.get("a")));
+
+        sentinel.master = second;
+        Sentinel late = new Sentinel(port);
+        try {
+            late.master = second;
+            late.awaitCommands("SUBSCRIBE", 1);
+            // only the subscription to the late sentinel refreshes the master
+            awaitMaster(cmd, "second");
+        } finally {
+            late.close();
+        }
+    }
+
+    private RedisCmd<String, String> connect() {
+        bootstrap = new RedisBootstrap(sentinel.getAddress(), 5);
+        return bootstrap.connectSentinel("mymaster");
+    }
+
+    private static void awaitMaster(final RedisCmd<String, String> cmd, final String master) throws Exception {
+        await("switched to the " + master + " master", new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return master.equals(cmd.await(cmd.get("a")));
+            }
+        });
+    }
+
+    /**
+     * A sentinel that knows one group, mymaster.
+     */
+    private static class Sentinel extends FakeRedisServer {
+        volatile FakeRedisServer master;
+
+        Sentinel() throws IOException {
+        }
+
+        Sentinel(int port) throws IOException {
+            super(port);
+        }
+
+        @Override
+        protected String reply(List<String> command) {
+            if (!"SENTINEL".equalsIgnoreCase(command.get(0)))
+                return super.reply(command);
+            if (!"mymaster".equals(command.get(2)))
+                return array();
+            return array(bulk("127.0.0.1"), bulk(Integer.toString(master.getPort())));
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package jmind.redis.health;
+
+import static jmind.redis.health.ShardHealth.State.CLOSED;
+import static jmind.redis.health.ShardHealth.State.HALF_OPEN;
+import static jmind.redis.health.ShardHealth.State.OPEN;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import jmind.redis.RedisHandler;
+import jmind.redis.codec.Utf8Codec;
+import jmind.redis.protocol.Command;
+
+import org.jboss.netty.util.HashedWheelTimer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author wbxie
+ */
+public class HealthCheckerTest {
+    private final HashedWheelTimer timer = new HashedWheelTimer();
+    private final List<String> transitions = new ArrayList<String>();
+    private HealthChecker checker;
+
+    @Before
+    public void setUp() {
+        checker = new HealthChecker(timer, 1, TimeUnit.HOURS);
+        checker.setOpenTime(0, TimeUnit.NANOSECONDS);
+        checker.setHalfOpenProbes(1);
+        checker.addListener(new HealthListener() {
+            @Override
+            public void stateChanged(ShardHealth health, ShardHealth.State from, ShardHealth.State to) {
+                transitions.add(health.getAddress() + " " + from + " " + to);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        checker.stop();
+        timer.stop();
+    }
+
+    @Test
+    public void ejectsDisconnectedShardsUpToTheLimit() throws Exception {
+        List<ShardHealth> shards = new ArrayList<ShardHealth>();
+        for (int i = 0; i < 4; i++) {
+            shards.add(checker.add("shard" + i, handler()));
+        }
+        checker.stop();
+
+        checker.run(null);
+
+        assertEquals(2, transitions.size());
+        assertEquals("shard0 CLOSED OPEN", transitions.get(0));
+        assertEquals("shard1 CLOSED OPEN", transitions.get(1));
+        assertEquals(OPEN, shards.get(0).getState());
+        assertEquals(OPEN, shards.get(1).getState());
+        assertTrue(shards.get(2).allowRequest());
+        assertTrue(shards.get(3).allowRequest());
+    }
+
+    @Test
+    public void halfOpensAndReopensAnUnreachableShard() throws Exception {
+        ShardHealth health = checker.add("shard", handler());
+        checker.stop();
+
+        checker.run(null);
+        assertEquals(OPEN, health.getState());
+        checker.run(null);
+        assertEquals(HALF_OPEN, health.getState());
+        assertFalse(health.allowRequest());
+        checker.run(null);
+
+        assertEquals(OPEN, health.getState());
+        assertEquals(3, transitions.size());
+        assertEquals("shard " + CLOSED + " " + OPEN, transitions.get(0));
+        assertEquals("shard " + OPEN + " " + HALF_OPEN, transitions.get(1));
+        assertEquals("shard " + HALF_OPEN + " " + OPEN, transitions.get(2));
+    }
+
+    private static RedisHandler<String, String> handler() {
+        return new RedisHandler<String, String>(new ConcurrentLinkedQueue<Command<String, String, ?>>(),
+                new Utf8Codec(), 1);
+    }
+}
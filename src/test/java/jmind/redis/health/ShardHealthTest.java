@@ -0,0 +1,89 @@
+package jmind.redis.health;
+
+import static jmind.redis.health.ShardHealth.State.CLOSED;
+import static jmind.redis.health.ShardHealth.State.HALF_OPEN;
+import static jmind.redis.health.ShardHealth.State.OPEN;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * @author wbxie
+ */
+public class ShardHealthTest {
+    private final ShardHealth health = new ShardHealth("127.0.0.1:6379");
+
+    @Test
+    public void staysClosedWhileProbesComeBack() {
+        assertNull(health.success(100, true));
+        assertNull(health.failure(100));
+        assertNull(health.success(100, false));
+        assertEquals(CLOSED, health.getState());
+        assertTrue(health.allowRequest());
+    }
+
+    @Test
+    public void opensOnce() {
+        assertEquals(CLOSED, health.open(0));
+        assertNull(health.open(1));
+        assertEquals(OPEN, health.getState());
+        assertFalse(health.allowRequest());
+    }
+
+    @Test
+    public void halfOpensAfterTheOpenTime() {
+        health.open(100);
+
+        assertNull(health.halfOpen(109, 10, 2));
+        assertEquals(OPEN, health.halfOpen(110, 10, 2));
+        assertEquals(HALF_OPEN, health.getState());
+        assertFalse(health.allowRequest());
+        assertNull(health.halfOpen(200, 10, 2));
+    }
+
+    @Test
+    public void closesAfterConsecutiveHealthyProbes() {
+        health.failure(100);
+        health.open(0);
+        health.halfOpen(10, 10, 2);
+
+        assertNull(health.success(100, true));
+        assertEquals(HALF_OPEN, health.success(100, true));
+        assertEquals(CLOSED, health.getState());
+        assertTrue(health.allowRequest());
+        assertEquals(0, health.getErrorRate(), 0);
+    }
+
+    @Test
+    public void reopensOnAFailedProbe() {
+        health.open(0);
+        health.halfOpen(10, 10, 2);
+        health.success(100, true);
+
+        assertEquals(HALF_OPEN, health.failure(100));
+        assertEquals(OPEN, health.getState());
+    }
+
+    @Test
+    public void reopensOnASlowProbe() {
+        health.open(0);
+        health.halfOpen(10, 10, 2);
+
+        assertEquals(HALF_OPEN, health.success(100, false));
+        assertEquals(OPEN, health.getState());
+    }
+
+    @Test
+    public void averagesLatencyAndErrors() {
+        health.success(100, true);
+        assertEquals(100, health.getLatency(), 0);
+        assertEquals(0, health.getErrorRate(), 0);
+
+        health.failure(200);
+        assertEquals(130, health.getLatency(), 1e-9);
+        assertEquals(0.3, health.getErrorRate(), 1e-9);
+    }
+}
@@ -0,0 +1,111 @@
+package jmind.redis.metrics;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import jmind.redis.RedisException;
+import jmind.redis.RedisHandler;
+import jmind.redis.codec.Utf8Codec;
+import jmind.redis.protocol.Command;
+import jmind.redis.protocol.RedisWatchdog;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author wbxie
+ */
+public class ClientMonitorTest {
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    private final String name = "test-" + System.nanoTime();
+    private ClientMonitor monitor;
+    private RedisHandler<String, String> first;
+    private ConnectionStats firstStats;
+    private ConnectionStats secondStats;
+
+    @Before
+    public void setUp() {
+        monitor = new ClientMonitor(name);
+        first = handler();
+        firstStats = new ConnectionStats();
+        secondStats = new ConnectionStats();
+        monitor.add(new ShardMonitor("127.0.0.1:6379", first, watchdog(), firstStats));
+        monitor.add(new ShardMonitor("127.0.0.1:6380", handler(), watchdog(), secondStats));
+    }
+
+    @After
+    public void tearDown() {
+        monitor.unregister();
+    }
+
+    @Test
+    public void registersTheClientAndItsShards() throws Exception {
+        assertTrue(server.isRegistered(client()));
+        assertTrue(server.isRegistered(shard("127.0.0.1:6379")));
+        assertTrue(server.isRegistered(shard("127.0.0.1:6380")));
+
+        assertEquals(2, server.getAttribute(client(), "Shards"));
+        assertEquals("127.0.0.1:6380", server.getAttribute(shard("127.0.0.1:6380"), "Address"));
+    }
+
+    @Test
+    public void sumsTheShards() throws Exception {
+        firstStats.written(10);
+        secondStats.written(5);
+        firstStats.read(7);
+        firstStats.completed();
+        secondStats.completed();
+        secondStats.timedOut();
+        first.get("key");
+
+        assertEquals(15L, server.getAttribute(client(), "BytesWritten"));
+        assertEquals(7L, server.getAttribute(client(), "BytesRead"));
+        assertEquals(2L, server.getAttribute(client(), "Commands"));
+        assertEquals(1L, server.getAttribute(client(), "Timeouts"));
+        assertEquals(1, server.getAttribute(client(), "QueueDepth"));
+        assertEquals(1, server.getAttribute(shard("127.0.0.1:6379"), "QueueDepth"));
+        assertEquals(0, monitor.getConnectedShards());
+        assertArrayEquals(new String[] { "127.0.0.1:6379", "127.0.0.1:6380" }, monitor.getDisconnected());
+    }
+
+    @Test
+    public void unregistersEverything() throws Exception {
+        monitor.unregister();
+
+        assertFalse(server.isRegistered(client()));
+        assertFalse(server.isRegistered(shard("127.0.0.1:6379")));
+        assertEquals(0, monitor.getShards());
+    }
+
+    @Test(expected = RedisException.class)
+    public void rejectsDuplicateNames() {
+        new ClientMonitor(name);
+    }
+
+    private ObjectName client() throws Exception {
+        return new ObjectName("jmind.redis:type=Client,name=" + ObjectName.quote(name));
+    }
+
+    private ObjectName shard(String address) throws Exception {
+        return new ObjectName("jmind.redis:type=Shard,name=" + ObjectName.quote(name) + ",address="
+                + ObjectName.quote(address));
+    }
+
+    private static RedisHandler<String, String> handler() {
+        return new RedisHandler<String, String>(new ConcurrentLinkedQueue<Command<String, String, ?>>(),
+                new Utf8Codec(), 1);
+    }
+
+    private static RedisWatchdog watchdog() {
+        return new RedisWatchdog(null, null, null, null, RedisHandler.class);
+    }
+}
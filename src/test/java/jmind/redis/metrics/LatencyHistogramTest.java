@@ -0,0 +1,81 @@
+package jmind.redis.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author wbxie
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void keepsSmallValuesExact() {
+        for (int value = 0; value < 8; value++) {
+            assertEquals(value, LatencyHistogram.index(value));
+            assertEquals(value, LatencyHistogram.upperBound(value));
+        }
+    }
+
+    @Test
+    public void bucketsAreContiguousAndOrdered() {
+        for (int index = 1; index < LatencyHistogram.index(Long.MAX_VALUE); index++) {
+            long lower = LatencyHistogram.upperBound(index - 1) + 1;
+            long upper = LatencyHistogram.upperBound(index);
+            assertTrue(lower <= upper);
+            assertEquals(index, LatencyHistogram.index(lower));
+            assertEquals(index, LatencyHistogram.index(upper));
+        }
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.upperBound(LatencyHistogram.index(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void resolvesValuesWithinAnEighth() {
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            long value = (random.nextLong() >>> 1) >>> random.nextInt(63);
+            int index = LatencyHistogram.index(value);
+            long upper = LatencyHistogram.upperBound(index);
+            long lower = index == 0 ? 0 : LatencyHistogram.upperBound(index - 1) + 1;
+            assertTrue(value + " in " + index, lower <= value && value <= upper);
+            assertTrue(value + " in " + index, upper - lower <= lower / 8);
+        }
+    }
+
+    @Test
+    public void snapshotsPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 1000; value++) {
+            histogram.record(value * 1000);
+        }
+
+        LatencySnapshot snapshot = histogram.snapshot();
+        assertEquals(1000, snapshot.getCount());
+        assertEquals(500500, snapshot.getMean());
+        assertEquals(1000000, snapshot.getMax());
+        assertWithin(500000, snapshot.getP50());
+        assertWithin(990000, snapshot.getP99());
+        assertWithin(999000, snapshot.getP999());
+    }
+
+    @Test
+    public void recordsNegativeValuesAsZeroAndResets() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        LatencySnapshot snapshot = histogram.snapshot();
+        assertEquals(1, snapshot.getCount());
+        assertEquals(0, snapshot.getMax());
+
+        histogram.reset();
+        snapshot = histogram.snapshot();
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0, snapshot.getP99());
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(expected + " ~ " + actual, actual >= expected && actual <= expected + expected / 8);
+    }
+}
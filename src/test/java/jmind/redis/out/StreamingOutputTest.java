@@ -0,0 +1,130 @@
+package jmind.redis.out;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import jmind.base.lang.ScoreValue;
+import jmind.redis.codec.Utf8Codec;
+import jmind.redis.protocol.Charsets;
+import jmind.redis.protocol.RedisStateMachine;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Test;
+
+/**
+ * @author wbxie
+ */
+public class StreamingOutputTest {
+    private final Utf8Codec codec = new Utf8Codec();
+    private final RedisStateMachine<String, String> rsm = new RedisStateMachine<String, String>();
+    private final List<String> received = new ArrayList<String>();
+
+    @Test
+    public void streamsValuesBeforeTheReplyIsComplete() {
+        ValueStreamingOutput<String, String> output = new ValueStreamingOutput<String, String>(codec, values());
+        ChannelBuffer buffer = buffer("*3\r\n$1\r\na\r\n$-1\r\n$1\r");
+
+        assertFalse(rsm.decode(buffer, output));
+        assertEquals(Arrays.asList("a", null), received);
+
+        buffer.writeBytes(buffer("\nc\r\n"));
+        assertTrue(rsm.decode(buffer, output));
+        assertEquals(Arrays.asList("a", null, "c"), received);
+        assertEquals(Long.valueOf(3), output.get());
+    }
+
+    @Test
+    public void streamsKeys() {
+        KeyStreamingOutput<String, String> output = new KeyStreamingOutput<String, String>(codec,
+                new KeyStreamingChannel<String>() {
+                    @Override
+                    public void onKey(String key) {
+                        received.add(key);
+                    }
+                });
+
+        assertTrue(rsm.decode(buffer("*2\r\n$1\r\na\r\n$1\r\nb\r\n"), output));
+
+        assertEquals(Arrays.asList("a", "b"), received);
+        assertEquals(Long.valueOf(2), output.get());
+    }
+
+    @Test
+    public void streamsPairs() {
+        KeyValueStreamingOutput<String, String> output = new KeyValueStreamingOutput<String, String>(codec,
+                new KeyValueStreamingChannel<String, String>() {
+                    @Override
+                    public void onKeyValue(String key, String value) {
+                        received.add(key + "=" + value);
+                    }
+                });
+
+        assertTrue(rsm.decode(buffer("*4\r\n$2\r\nf1\r\n$2\r\nv1\r\n$2\r\nf2\r\n$2\r\nv2\r\n"), output));
+
+        assertEquals(Arrays.asList("f1=v1", "f2=v2"), received);
+        assertEquals(Long.valueOf(2), output.get());
+    }
+
+    @Test
+    public void streamsScoredValues() {
+        final List<ScoreValue<String>> scored = new ArrayList<ScoreValue<String>>();
+        ScoredValueStreamingOutput<String, String> output = new ScoredValueStreamingOutput<String, String>(codec,
+                new ScoredValueStreamingChannel<String>() {
+                    @Override
+                    public void onValue(ScoreValue<String> value) {
+                        scored.add(value);
+                    }
+                });
+
+        assertTrue(rsm.decode(buffer("*4\r\n$1\r\na\r\n$3\r\n1.5\r\n$1\r\nb\r\n$1\r\n2\r\n"), output));
+
+        assertEquals(2, scored.size());
+        assertEquals(Long.valueOf(2), output.get());
+    }
+
+    @Test
+    public void consumesTheRestOfTheReplyWhenTheChannelFails() {
+        ValueStreamingOutput<String, String> output = new ValueStreamingOutput<String, String>(codec,
+                new ValueStreamingChannel<String>() {
+                    @Override
+                    public void onValue(String value) {
+                        if ("b".equals(value))
+                            throw new IllegalStateException("full");
+                        received.add(value);
+                    }
+                });
+
+        assertTrue(rsm.decode(buffer("*3\r\n$1\r\na\r\n$1\r\nb\r\n$1\r\nc\r\n"), output));
+
+        assertEquals(Arrays.asList("a"), received);
+        assertEquals(Long.valueOf(1), output.get());
+        assertEquals("Streaming channel failed: java.lang.IllegalStateException: full", output.getError());
+
+        StatusOutput<String, String> next = new StatusOutput<String, String>(codec);
+        assertTrue(rsm.decode(buffer("+OK\r\n"), next));
+        assertEquals("OK", next.get());
+        assertNull(next.getError());
+    }
+
+    private ValueStreamingChannel<String> values() {
+        return new ValueStreamingChannel<String>() {
+            @Override
+            public void onValue(String value) {
+                received.add(value);
+            }
+        };
+    }
+
+    private static ChannelBuffer buffer(String reply) {
+        ChannelBuffer buffer = ChannelBuffers.dynamicBuffer();
+        buffer.writeBytes(reply.getBytes(Charsets.UTF8));
+        return buffer;
+    }
+}
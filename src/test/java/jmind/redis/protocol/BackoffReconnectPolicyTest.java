@@ -0,0 +1,65 @@
+package jmind.redis.protocol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * @author wbxie
+ */
+public class BackoffReconnectPolicyTest {
+
+    @Test
+    public void reconnectsRightAwayFirst() {
+        BackoffReconnectPolicy policy = new BackoffReconnectPolicy(100, 10000, TimeUnit.MILLISECONDS);
+        assertEquals(0, policy.delay(0));
+        assertEquals(0, policy.delay(1));
+    }
+
+    @Test
+    public void doublesTheBoundUpToTheCap() {
+        BackoffReconnectPolicy policy = new BackoffReconnectPolicy(100, 1000, TimeUnit.MILLISECONDS);
+        assertBounded(policy, 2, 100);
+        assertBounded(policy, 3, 200);
+        assertBounded(policy, 4, 400);
+        assertBounded(policy, 5, 800);
+        assertBounded(policy, 6, 1000);
+        assertBounded(policy, 100, 1000);
+        assertBounded(policy, Integer.MAX_VALUE, 1000);
+    }
+
+    @Test
+    public void neverOverflowsWithLargeCaps() {
+        BackoffReconnectPolicy policy = new BackoffReconnectPolicy(3, Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        for (int attempt = 2; attempt < 200; attempt++) {
+            long delay = policy.delay(attempt);
+            assertTrue(attempt + ": " + delay, delay >= 0);
+        }
+    }
+
+    @Test
+    public void convertsUnitsAndKeepsTheCapAboveTheBase() {
+        assertBounded(new BackoffReconnectPolicy(1, 4, TimeUnit.SECONDS), 10, 4000);
+        assertBounded(new BackoffReconnectPolicy(500, 10, TimeUnit.MILLISECONDS), 10, 500);
+        assertBounded(new BackoffReconnectPolicy(0, 0, TimeUnit.MILLISECONDS), 10, 1);
+    }
+
+    /**
+     * Sample the delay of an attempt and check it spreads between 0 and the
+     * bound.
+     */
+    private static void assertBounded(ReconnectPolicy policy, int attempt, long bound) {
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (int i = 0; i < 10000; i++) {
+            long delay = policy.delay(attempt);
+            min = Math.min(min, delay);
+            max = Math.max(max, delay);
+        }
+        assertTrue(attempt + ": " + min, min >= 0 && min <= bound / 4);
+        assertTrue(attempt + ": " + max, max <= bound && max >= bound - bound / 4);
+    }
+}
@@ -0,0 +1,198 @@
+package jmind.redis.protocol;
+
+import static jmind.redis.protocol.RedisCommand.GET;
+import static jmind.redis.protocol.RedisCommand.MGET;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import jmind.redis.codec.Utf8Codec;
+import jmind.redis.out.ValueListOutput;
+import jmind.redis.out.ValueOutput;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.junit.Test;
+
+/**
+ * @author wbxie
+ */
+public class CommandHandlerTest {
+    private final Utf8Codec codec = new Utf8Codec();
+    private final Queue<Command<String, String, ?>> queue = new ConcurrentLinkedQueue<Command<String, String, ?>>();
+    private final CommandHandler<String, String> handler = new CommandHandler<String, String>(queue);
+
+    @Test
+    public void sendsCommandsWrittenMeanwhileAsOneWrite() {
+        handler.setAutoFlush(100, 1, TimeUnit.MINUTES, null);
+        TestChannel channel = new TestChannel(handler);
+
+        ChannelFuture a = channel.write(get("a"));
+        ChannelFuture b = channel.write(get("b"));
+        ChannelFuture c = channel.write(get("c"));
+        assertEquals(1, channel.writes.size());
+        assertEquals(encoded(get("a")), channel.written(0));
+
+        channel.complete(0);
+        assertTrue(a.isSuccess());
+        assertFalse(b.isDone());
+        assertEquals(2, channel.writes.size());
+        assertEquals(encoded(get("b"), get("c")), channel.written(1));
+
+        channel.complete(1);
+        assertTrue(b.isSuccess());
+        assertTrue(c.isSuccess());
+        assertEquals(2, channel.writes.size());
+    }
+
+    @Test
+    public void sendsAFullBatchWithoutWaiting() {
+        handler.setAutoFlush(2, 1, TimeUnit.MINUTES, null);
+        TestChannel channel = new TestChannel(handler);
+
+        channel.write(get("a"));
+        channel.write(get("b"));
+        assertEquals(1, channel.writes.size());
+        channel.write(get("c"));
+
+        assertEquals(2, channel.writes.size());
+        assertEquals(encoded(get("b"), get("c")), channel.written(1));
+    }
+
+    @Test
+    public void sendsABatchOnceTheMaxDelayPassed() throws InterruptedException {
+        HashedWheelTimer timer = new HashedWheelTimer(10, TimeUnit.MILLISECONDS);
+        try {
+            handler.setAutoFlush(100, 50, TimeUnit.MILLISECONDS, timer);
+            TestChannel channel = new TestChannel(handler);
+
+            channel.write(get("a"));
+            long start = System.nanoTime();
+            ChannelFuture b = channel.write(get("b"));
+            assertEquals(1, channel.writes.size());
+
+            long deadline = start + TimeUnit.SECONDS.toNanos(5);
+            while (channel.writes.size() < 2) {
+                assertTrue("not flushed", System.nanoTime() < deadline);
+                Thread.sleep(5);
+            }
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+            assertEquals(encoded(get("b")), channel.written(1));
+            assertFalse(b.isDone());
+        } finally {
+            timer.stop();
+        }
+    }
+
+    @Test
+    public void failsUnwrittenCommandsWhenTheChannelCloses() {
+        handler.setAutoFlush(100, 1, TimeUnit.MINUTES, null);
+        TestChannel channel = new TestChannel(handler);
+        channel.write(get("a"));
+        ChannelFuture b = channel.write(get("b"));
+
+        channel.close();
+
+        assertTrue(b.isDone());
+        assertTrue(b.getCause() instanceof ClosedChannelException);
+        assertEquals(1, channel.writes.size());
+    }
+
+    @Test
+    public void writesEachCommandWithoutAutoFlush() {
+        TestChannel channel = new TestChannel(handler);
+
+        channel.write(get("a"));
+        channel.write(get("b"));
+
+        assertEquals(2, channel.writes.size());
+        assertEquals(encoded(get("b")), channel.written(1));
+    }
+
+    @Test
+    public void decodesRepliesSplitAtEveryByte() {
+        String replies = "$5\r\nfirst\r\n*3\r\n$1\r\na\r\n$-1\r\n$2\r\nbc\r\n$6\r\nthird!\r\n";
+        for (int split = 1; split < replies.length(); split++) {
+            TestChannel channel = new TestChannel(new CommandHandler<String, String>(queue));
+            Command<String, String, String> first = queued(get("a"));
+            Command<String, String, List<String>> second = queued(mget("a", "b", "c"));
+            Command<String, String, String> third = queued(get("b"));
+
+            channel.read(replies.substring(0, split));
+            channel.read(replies.substring(split));
+
+            assertEquals("first", first.get());
+            assertEquals(Arrays.asList("a", null, "bc"), second.get());
+            assertEquals("third!", third.get());
+            assertTrue(queue.isEmpty());
+        }
+    }
+
+    @Test
+    public void decodesAReplyReadByteByByte() {
+        TestChannel channel = new TestChannel(handler);
+        Command<String, String, List<String>> values = queued(mget("a", "b"));
+        Command<String, String, String> next = queued(get("c"));
+
+        String replies = "*2\r\n$5\r\nhello\r\n$5\r\nworld\r\n+OK\r\n";
+        for (int i = 0; i < replies.length() - 1; i++) {
+            channel.read(replies.substring(i, i + 1));
+        }
+        assertTrue(values.isDone());
+        assertFalse(next.isDone());
+
+        channel.read(replies.substring(replies.length() - 1));
+        assertEquals(Arrays.asList("hello", "world"), values.get());
+        assertEquals("OK", next.get());
+    }
+
+    @Test
+    public void decodesRepliesSplitInsideAnElementAndAfterIt() {
+        TestChannel channel = new TestChannel(handler);
+        Command<String, String, String> first = queued(get("a"));
+        Command<String, String, String> second = queued(get("b"));
+        Command<String, String, String> third = queued(get("c"));
+
+        channel.read("$5\r\nfir");
+        channel.read("st\r\n$6\r\nsecond\r\n$5\r\nth");
+        assertEquals("first", first.get());
+        assertEquals("second", second.get());
+        assertFalse(third.isDone());
+
+        channel.read("ird\r\n");
+        assertEquals("third", third.get());
+    }
+
+    private <T> Command<String, String, T> queued(Command<String, String, T> cmd) {
+        queue.add(cmd);
+        return cmd;
+    }
+
+    private Command<String, String, List<String>> mget(String... keys) {
+        CommandArgs<String, String> args = new CommandArgs<String, String>(codec).addKeys(keys);
+        return new Command<String, String, List<String>>(MGET, new ValueListOutput<String, String>(codec), args,
+                false);
+    }
+
+    private Command<String, String, String> get(String key) {
+        CommandArgs<String, String> args = new CommandArgs<String, String>(codec).addKey(key);
+        return new Command<String, String, String>(GET, new ValueOutput<String, String>(codec), args, false);
+    }
+
+    private static ChannelBuffer encoded(Command<?, ?, ?>... commands) {
+        ChannelBuffer buf = ChannelBuffers.dynamicBuffer();
+        for (Command<?, ?, ?> cmd : commands) {
+            cmd.encode(buf);
+        }
+        return buf;
+    }
+}
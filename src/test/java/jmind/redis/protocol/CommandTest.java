@@ -0,0 +1,199 @@
+package jmind.redis.protocol;
+
+import static jmind.redis.protocol.CommandKeyword.LIMIT;
+import static jmind.redis.protocol.RedisCommand.GET;
+import static jmind.redis.protocol.RedisCommand.MSET;
+import static jmind.redis.protocol.RedisCommand.SET;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import jmind.redis.RedisException;
+import jmind.redis.codec.Utf8Codec;
+import jmind.redis.out.StatusOutput;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Test;
+
+/**
+ * @author wbxie
+ */
+public class CommandTest {
+    private final Utf8Codec codec = new Utf8Codec();
+
+    @Test
+    public void encodesWithoutArguments() {
+        assertEncoded("*1\r\n$3\r\nGET\r\n", command(GET, null));
+    }
+
+    @Test
+    public void encodesKeysValuesAndKeywords() {
+        CommandArgs<String, String> args = new CommandArgs<String, String>(codec).addKey("key").addValue("value")
+                .add(LIMIT).add(60);
+        assertEncoded("*5\r\n$3\r\nSET\r\n$3\r\nkey\r\n$5\r\nvalue\r\n$5\r\nLIMIT\r\n$2\r\n60\r\n", command(SET, args));
+    }
+
+    @Test
+    public void encodesIntegers() {
+        CommandArgs<String, String> args = new CommandArgs<String, String>(codec).add(0).add(9).add(10).add(-1)
+                .add(-12345).add(Long.MAX_VALUE).add(Long.MIN_VALUE);
+        assertEncoded("*8\r\n$3\r\nSET\r\n$1\r\n0\r\n$1\r\n9\r\n$2\r\n10\r\n$2\r\n-1\r\n$6\r\n-12345\r\n"
+                + "$19\r\n9223372036854775807\r\n$20\r\n-9223372036854775808\r\n", command(SET, args));
+    }
+
+    @Test
+    public void encodesHeadersBeyondThePrecomputedOnes() {
+        char[] chars = new char[5000];
+        Arrays.fill(chars, 'v');
+        String value = new String(chars);
+        CommandArgs<String, String> args = new CommandArgs<String, String>(codec);
+        StringBuilder expected = new StringBuilder("*301\r\n$4\r\nMSET\r\n");
+        for (int i = 0; i < 150; i++) {
+            args.addKey("k" + i).addValue(value);
+            expected.append("$").append(("k" + i).length()).append("\r\nk").append(i).append("\r\n");
+            expected.append("$5000\r\n").append(value).append("\r\n");
+        }
+        assertEncoded(expected.toString(), command(MSET, args));
+    }
+
+    @Test
+    public void failsCommandsQueuedInsideMulti() {
+        Command<String, String, String> cmd = new Command<String, String, String>(GET,
+                new StatusOutput<String, String>(codec), null, true);
+
+        assertTrue(cmd.fail("rejected"));
+        assertTrue(cmd.isDone());
+        assertEquals("rejected", cmd.getOutput().getError());
+        assertFalse(cmd.fail("again"));
+        assertEquals("rejected", cmd.getOutput().getError());
+    }
+
+    @Test
+    public void cancelsAndTimesOutCommandsQueuedInsideMulti() {
+        Command<String, String, String> cancelled = new Command<String, String, String>(GET,
+                new StatusOutput<String, String>(codec), null, true);
+        Command<String, String, String> timedOut = new Command<String, String, String>(GET,
+                new StatusOutput<String, String>(codec), null, true);
+
+        assertTrue(cancelled.cancel(true));
+        assertTrue(timedOut.timeout());
+        assertTrue(cancelled.isDone());
+        assertTrue(timedOut.isDone());
+        assertTrue(timedOut.isTimedOut());
+        assertFalse(cancelled.cancel(true));
+    }
+
+    @Test
+    public void completesStagesOnTheExecutor() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, "callbacks");
+            }
+        });
+        try {
+            Command<String, String, String> cmd = command(GET, null);
+            cmd.setExecutor(executor);
+            CompletableFuture<String> thread = cmd.thenApply(threadName());
+
+            cmd.getOutput().set(Charsets.buffer("OK"));
+            cmd.complete();
+
+            assertEquals("callbacks", thread.get(1, TimeUnit.SECONDS));
+            assertEquals("OK", cmd.toCompletableFuture().get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void completesStagesOnTheCompletingThreadWithoutAnExecutor() throws Exception {
+        Command<String, String, String> cmd = command(GET, null);
+        CompletableFuture<String> thread = cmd.thenApply(threadName());
+
+        cmd.complete();
+
+        assertTrue(thread.isDone());
+        assertEquals(Thread.currentThread().getName(), thread.get());
+    }
+
+    @Test
+    public void cancelsTheStageWithTheCommand() throws Exception {
+        Command<String, String, String> cmd = command(GET, null);
+        CompletableFuture<String> stage = cmd.toCompletableFuture();
+
+        assertTrue(cmd.cancel(true));
+
+        assertTrue(stage.isCancelled());
+        try {
+            cmd.get();
+            fail("got a cancelled command");
+        } catch (CancellationException e) {
+            // expected
+        }
+        try {
+            stage.get();
+            fail("got a cancelled stage");
+        } catch (CancellationException e) {
+            // expected
+        }
+        cmd.complete();
+        assertTrue(cmd.toCompletableFuture().isCancelled());
+    }
+
+    @Test
+    public void failsTheStageOnTimeoutsAndErrors() throws Exception {
+        Command<String, String, String> timedOut = command(GET, null);
+        CompletableFuture<String> stage = timedOut.toCompletableFuture();
+        assertTrue(timedOut.timeout());
+        assertEquals("Command timed out", cause(stage).getMessage());
+        assertFalse(stage.isCancelled());
+
+        Command<String, String, String> failed = command(GET, null);
+        failed.getOutput().setError("ERR wrong");
+        failed.complete();
+        assertEquals("ERR wrong", cause(failed.toCompletableFuture()).getMessage());
+    }
+
+    private static Function<String, String> threadName() {
+        return new Function<String, String>() {
+            @Override
+            public String apply(String value) {
+                return Thread.currentThread().getName();
+            }
+        };
+    }
+
+    private static RedisException cause(CompletableFuture<?> stage) throws InterruptedException {
+        try {
+            stage.get();
+            fail("completed normally");
+            return null;
+        } catch (ExecutionException e) {
+            return (RedisException) e.getCause();
+        }
+    }
+
+    private Command<String, String, String> command(RedisCommand type, CommandArgs<String, String> args) {
+        return new Command<String, String, String>(type, new StatusOutput<String, String>(codec), args, false);
+    }
+
+    private static void assertEncoded(String expected, Command<?, ?, ?> cmd) {
+        ChannelBuffer buf = ChannelBuffers.buffer(cmd.encodedLength());
+        cmd.encode(buf);
+        assertEquals(buf.capacity(), buf.readableBytes());
+        assertEquals(expected, buf.toString(Charsets.UTF8));
+    }
+}
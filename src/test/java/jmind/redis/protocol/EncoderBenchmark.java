@@ -0,0 +1,276 @@
+package jmind.redis.protocol;
+
+import static java.lang.Math.max;
+import static jmind.redis.protocol.CommandKeyword.LIMIT;
+import static jmind.redis.protocol.RedisCommand.SET;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import jmind.redis.codec.RedisCodec;
+import jmind.redis.codec.Utf8Codec;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Building and encoding a command with integer and keyword arguments through
+ * {@link Command#encode(ChannelBuffer)}, against the encoding it replaced: the
+ * arguments collected in a growing {@link ByteBuffer} and integers formatted
+ * through a {@link StringBuilder}, kept verbatim in {@link BaselineArgs}. Run
+ * {@link #main} to report allocations per operation as well.
+ *
+ * @author wbxie
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(5)
+public class EncoderBenchmark {
+    private static final byte[] CRLF = "\r\n".getBytes(Charsets.UTF8);
+
+    private final Utf8Codec codec = new Utf8Codec();
+    private final String key = "user:1000:profile";
+    private final String value = "some value of a moderate length";
+
+    @Benchmark
+    public ChannelBuffer encode() {
+        CommandArgs<String, String> args = new CommandArgs<String, String>(codec).addKey(key).addValue(value)
+                .add(LIMIT).add(0).add(1000);
+        Command<String, String, String> cmd = new Command<String, String, String>(SET, null, args, false);
+        ChannelBuffer buf = ChannelBuffers.buffer(cmd.encodedLength());
+        cmd.encode(buf);
+        return buf;
+    }
+
+    @Benchmark
+    public ChannelBuffer baseline() {
+        BaselineArgs<String, String> args = new BaselineArgs<String, String>(codec).addKey(key).addValue(value)
+                .add(LIMIT).add(0).add(1000);
+        ChannelBuffer buf = ChannelBuffers.dynamicBuffer();
+        encode(SET, args, buf);
+        return buf;
+    }
+
+    /**
+     * The previous {@link Command#encode(ChannelBuffer)}.
+     */
+    private static void encode(RedisCommand type, BaselineArgs<?, ?> args, ChannelBuffer buf) {
+        buf.writeByte('*');
+        writeInt(buf, 1 + (args != null ? args.count() : 0));
+        buf.writeBytes(CRLF);
+        buf.writeByte('$');
+        writeInt(buf, type.bytes.length);
+        buf.writeBytes(CRLF);
+        buf.writeBytes(type.bytes);
+        buf.writeBytes(CRLF);
+        if (args != null) {
+            buf.writeBytes(args.buffer());
+        }
+    }
+
+    private static void writeInt(ChannelBuffer buf, int value) {
+        if (value < 10) {
+            buf.writeByte('0' + value);
+            return;
+        }
+
+        StringBuilder sb = new StringBuilder(8);
+        while (value > 0) {
+            int digit = value % 10;
+            sb.append((char) ('0' + digit));
+            value /= 10;
+        }
+
+        for (int i = sb.length() - 1; i >= 0; i--) {
+            buf.writeByte(sb.charAt(i));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder().include(EncoderBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class).build();
+        new Runner(options).run();
+    }
+
+    /**
+     * The previous {@link CommandArgs}.
+     */
+    static class BaselineArgs<K, V> {
+        private RedisCodec<K, V> codec;
+        private ByteBuffer buffer;
+        private int count;
+
+        public BaselineArgs(RedisCodec<K, V> codec) {
+            this.codec = codec;
+            this.buffer = ByteBuffer.allocate(32);
+        }
+
+        public ByteBuffer buffer() {
+            buffer.flip();
+            return buffer;
+        }
+
+        public int count() {
+            return count;
+        }
+
+        public BaselineArgs<K, V> addKey(K key) {
+            return write(codec.encodeKey(key));
+        }
+
+        public BaselineArgs<K, V> addKeys(K... keys) {
+            for (K key : keys) {
+                addKey(key);
+            }
+            return this;
+        }
+
+        public BaselineArgs<K, V> addValue(V value) {
+            return write(codec.encodeValue(value));
+        }
+
+        public BaselineArgs<K, V> addValues(V... values) {
+            for (V value : values) {
+                addValue(value);
+            }
+            return this;
+        }
+
+        public BaselineArgs<K, V> add(Map<K, V> map) {
+            if (map.size() > 2) {
+                realloc(buffer.capacity() + 16 * map.size());
+            }
+
+            for (Map.Entry<K, V> entry : map.entrySet()) {
+                write(codec.encodeKey(entry.getKey()));
+                write(codec.encodeValue(entry.getValue()));
+            }
+
+            return this;
+        }
+
+        public BaselineArgs<K, V> add(String s) {
+            return write(s);
+        }
+
+        public BaselineArgs<K, V> add(long n) {
+            return write(Long.toString(n));
+        }
+
+        public BaselineArgs<K, V> add(double n) {
+            return write(Double.toString(n));
+        }
+
+        public BaselineArgs<K, V> add(byte[] value) {
+            return write(value);
+        }
+
+        public BaselineArgs<K, V> add(CommandKeyword keyword) {
+            return write(keyword.bytes);
+        }
+
+        public BaselineArgs<K, V> add(RedisCommand type) {
+            return write(type.bytes);
+        }
+
+        private BaselineArgs<K, V> write(byte[] arg) {
+            buffer.mark();
+
+            if (buffer.remaining() < arg.length) {
+                int estimate = buffer.remaining() + arg.length + 10;
+                realloc(max(buffer.capacity() * 2, estimate));
+            }
+
+            while (true) {
+                try {
+                    buffer.put((byte) '$');
+                    write(arg.length);
+                    buffer.put(CRLF);
+                    buffer.put(arg);
+                    buffer.put(CRLF);
+                    break;
+                } catch (BufferOverflowException e) {
+                    buffer.reset();
+                    realloc(buffer.capacity() * 2);
+                }
+            }
+
+            count++;
+            return this;
+        }
+
+        private BaselineArgs<K, V> write(String arg) {
+            int length = arg.length();
+
+            buffer.mark();
+
+            if (buffer.remaining() < length) {
+                int estimate = buffer.remaining() + length + 10;
+                realloc(max(buffer.capacity() * 2, estimate));
+            }
+
+            while (true) {
+                try {
+                    buffer.put((byte) '$');
+                    write(length);
+                    buffer.put(CRLF);
+                    for (int i = 0; i < length; i++) {
+                        buffer.put((byte) arg.charAt(i));
+                    }
+                    buffer.put(CRLF);
+                    break;
+                } catch (BufferOverflowException e) {
+                    buffer.reset();
+                    realloc(buffer.capacity() * 2);
+                }
+            }
+
+            count++;
+            return this;
+        }
+
+        private void write(long value) {
+            if (value < 10) {
+                buffer.put((byte) ('0' + value));
+                return;
+            }
+
+            StringBuilder sb = new StringBuilder(8);
+            while (value > 0) {
+                long digit = value % 10;
+                sb.append((char) ('0' + digit));
+                value /= 10;
+            }
+
+            for (int i = sb.length() - 1; i >= 0; i--) {
+                buffer.put((byte) sb.charAt(i));
+            }
+        }
+
+        private void realloc(int size) {
+            ByteBuffer buffer = ByteBuffer.allocate(size);
+            this.buffer.flip();
+            buffer.put(this.buffer);
+            buffer.mark();
+            this.buffer = buffer;
+        }
+    }
+}
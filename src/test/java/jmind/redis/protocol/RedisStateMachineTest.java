@@ -0,0 +1,116 @@
+package jmind.redis.protocol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import jmind.redis.codec.Utf8Codec;
+import jmind.redis.out.CommandOut;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Test;
+
+/**
+ * @author wbxie
+ */
+public class RedisStateMachineTest {
+    private final RedisStateMachine<String, String> rsm = new RedisStateMachine<String, String>();
+
+    @Test
+    public void decodesScalars() {
+        assertEquals("[set OK, complete 0]", decode("+OK\r\n").toString());
+        assertEquals("[error ERR bad, complete 0]", decode("-ERR bad\r\n").toString());
+        assertEquals("[set -42, complete 0]", decode(":-42\r\n").toString());
+        assertEquals("[set value, complete 0]", decode("$5\r\nvalue\r\n").toString());
+        assertEquals("[set null, complete 0]", decode("$-1\r\n").toString());
+    }
+
+    @Test
+    public void decodesArrays() {
+        assertEquals("[set a, complete 1, set 1, complete 1, set null, complete 1, complete 0]",
+                decode("*3\r\n$1\r\na\r\n:1\r\n$-1\r\n").toString());
+        assertEquals("[complete 0]", decode("*0\r\n").toString());
+    }
+
+    @Test
+    public void growsTheStackBeyondItsInitialDepth() {
+        int levels = 20;
+        StringBuilder reply = new StringBuilder();
+        for (int i = 0; i < levels; i++) {
+            reply.append("*1\r\n");
+        }
+        reply.append(":7\r\n");
+
+        List<String> expected = new ArrayList<String>();
+        expected.add("set 7");
+        for (int depth = levels; depth >= 0; depth--) {
+            expected.add("complete " + depth);
+        }
+
+        assertEquals(expected, decode(reply.toString()));
+        assertEquals(expected, decodeByteByByte(reply.toString()));
+        assertEquals("[set OK, complete 0]", decode("+OK\r\n").toString());
+    }
+
+    @Test
+    public void resumesPartialReplies() {
+        String reply = "*2\r\n$5\r\nhello\r\n*2\r\n:1\r\n+OK\r\n";
+        assertEquals(decode(reply), decodeByteByByte(reply));
+    }
+
+    private List<String> decode(String reply) {
+        Output output = new Output();
+        assertTrue(rsm.decode(buffer(reply), output));
+        return output.events;
+    }
+
+    private List<String> decodeByteByByte(String reply) {
+        Output output = new Output();
+        ChannelBuffer buffer = ChannelBuffers.dynamicBuffer();
+        byte[] bytes = reply.getBytes(Charsets.UTF8);
+        for (int i = 0; i < bytes.length - 1; i++) {
+            buffer.writeByte(bytes[i]);
+            assertFalse(rsm.decode(buffer, output));
+        }
+        buffer.writeByte(bytes[bytes.length - 1]);
+        assertTrue(rsm.decode(buffer, output));
+        return output.events;
+    }
+
+    private static ChannelBuffer buffer(String reply) {
+        return ChannelBuffers.wrappedBuffer(reply.getBytes(Charsets.UTF8));
+    }
+
+    private static class Output extends CommandOut<String, String, String> {
+        final List<String> events = new ArrayList<String>();
+
+        Output() {
+            super(new Utf8Codec(), null);
+        }
+
+        @Override
+        public void set(ByteBuffer bytes) {
+            events.add("set " + (bytes == null ? null : codec.decodeValue(bytes)));
+        }
+
+        @Override
+        public void set(long integer) {
+            events.add("set " + integer);
+        }
+
+        @Override
+        public void setError(ByteBuffer error) {
+            events.add("error " + decodeAscii(error));
+        }
+
+        @Override
+        public void complete(int depth) {
+            events.add("complete " + depth);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package jmind.redis.protocol;
+
+import java.net.SocketAddress;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.AbstractChannel;
+import org.jboss.netty.channel.AbstractChannelSink;
+import org.jboss.netty.channel.ChannelConfig;
+import org.jboss.netty.channel.ChannelEvent;
+import org.jboss.netty.channel.ChannelHandler;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelState;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.DefaultChannelConfig;
+import org.jboss.netty.channel.MessageEvent;
+
+/**
+ * A connected channel without a socket, for testing handlers. Writes that
+ * reach the end of the pipeline are recorded and stay in flight until the
+ * test completes their futures; replies are fed in with {@link #read}.
+ *
+ * @author wbxie
+ */
+class TestChannel extends AbstractChannel {
+    final List<MessageEvent> writes = new CopyOnWriteArrayList<MessageEvent>();
+    private final ChannelConfig config = new DefaultChannelConfig();
+
+    TestChannel(ChannelHandler... handlers) {
+        this(Channels.pipeline(handlers));
+    }
+
+    private TestChannel(ChannelPipeline pipeline) {
+        super(null, null, pipeline, new Sink());
+        Channels.fireChannelOpen(this);
+        Channels.fireChannelConnected(this, null);
+    }
+
+    /**
+     * Get the bytes of a recorded write.
+     */
+    ChannelBuffer written(int index) {
+        return (ChannelBuffer) writes.get(index).getMessage();
+    }
+
+    /**
+     * Complete a recorded write successfully.
+     */
+    void complete(int index) {
+        writes.get(index).getFuture().setSuccess();
+    }
+
+    /**
+     * Receive bytes from the server.
+     */
+    void read(String reply) {
+        Channels.fireMessageReceived(this, ChannelBuffers.copiedBuffer(reply, Charsets.UTF8));
+    }
+
+    @Override
+    public ChannelConfig getConfig() {
+        return config;
+    }
+
+    @Override
+    public boolean isBound() {
+        return isOpen();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return isOpen();
+    }
+
+    @Override
+    public SocketAddress getLocalAddress() {
+        return null;
+    }
+
+    @Override
+    public SocketAddress getRemoteAddress() {
+        return null;
+    }
+
+    private void closed() {
+        if (setClosed()) {
+            Channels.fireChannelDisconnected(this);
+            Channels.fireChannelUnbound(this);
+            Channels.fireChannelClosed(this);
+        }
+    }
+
+    private static class Sink extends AbstractChannelSink {
+        @Override
+        public void eventSunk(ChannelPipeline pipeline, ChannelEvent e) {
+            TestChannel channel = (TestChannel) e.getChannel();
+            if (e instanceof MessageEvent) {
+                channel.writes.add((MessageEvent) e);
+            } else if (e instanceof ChannelStateEvent) {
+                ChannelStateEvent state = (ChannelStateEvent) e;
+                if (state.getState() == ChannelState.OPEN && Boolean.FALSE.equals(state.getValue())) {
+                    channel.closed();
+                }
+                e.getFuture().setSuccess();
+            }
+        }
+    }
+}